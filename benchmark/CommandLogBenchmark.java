@@ -0,0 +1,58 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.FileSystem;
+import src.OutputSink;
+
+// Replays a generated command log of millions of lines on a new FileSystem, the way Main runs a command file, but
+// without reading the file or writing the output.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CommandLogBenchmark {
+
+    @Param({ "4", "10" })
+    public int depth;
+
+    @Param({ "8", "128" })
+    public int fanout;
+
+    @Param({ "100000" })
+    public int treeSize;
+
+    @Param({ "1000000", "5000000" })
+    public int commandCount;
+
+    private String[] commands;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        commands = CommandLogGenerator.generate(depth, fanout, treeSize, commandCount, 0);
+    }
+
+    @Benchmark
+    public FileSystem replay() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        for (String command : commands) {
+            fileSystem.executeCommand(command);
+        }
+        return fileSystem;
+    }
+}
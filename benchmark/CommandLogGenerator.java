@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Generates command logs in the format of test/data/commands.txt, but of any size.
+//
+// A log first creates a tree of treeSize directories, breadth first, with fanout subdirectories per directory and at
+// most depth levels. The rest of the log is a random mix of commands on that tree, mostly CREATEs of new leaves, with
+// MOVEs, DELETEs and the occasional LIST. Some of them fail, as they would in a real log.
+// The same arguments and seed always produce the same log.
+public final class CommandLogGenerator {
+
+    private CommandLogGenerator() {
+    }
+
+    // Returns the paths of a tree of treeSize directories, parents before their subdirectories.
+    public static List<String> tree(int depth, int fanout, int treeSize) {
+        List<String> paths = new ArrayList<>(treeSize);
+        for (int i = 0; i < fanout && paths.size() < treeSize; i++) {
+            paths.add("d" + i);
+        }
+        for (int parent = 0; parent < paths.size() && paths.size() < treeSize; parent++) {
+            String parentPath = paths.get(parent);
+            if (levels(parentPath) == depth) {
+                break;
+            }
+            for (int i = 0; i < fanout && paths.size() < treeSize; i++) {
+                paths.add(parentPath + "/d" + i);
+            }
+        }
+        return paths;
+    }
+
+    // Returns the CREATE commands for tree(depth, fanout, treeSize) followed by commandCount random commands.
+    public static String[] generate(int depth, int fanout, int treeSize, int commandCount, long seed) {
+        List<String> tree = tree(depth, fanout, treeSize);
+        String[] commands = new String[tree.size() + commandCount];
+        for (int i = 0; i < tree.size(); i++) {
+            commands[i] = "CREATE " + tree.get(i);
+        }
+
+        Random random = new Random(seed);
+        for (int i = tree.size(); i < commands.length; i++) {
+            String path = tree.get(random.nextInt(tree.size()));
+            int kind = random.nextInt(100);
+            if (kind < 70) {
+                commands[i] = "CREATE " + path + "/n" + i;
+            } else if (kind < 85) {
+                commands[i] = "MOVE " + path + " " + tree.get(random.nextInt(tree.size()));
+            } else if (kind < 99 || random.nextInt(1000) != 0) {
+                commands[i] = "DELETE " + path;
+            } else {
+                commands[i] = "LIST";
+            }
+        }
+        return commands;
+    }
+
+    private static int levels(String path) {
+        int levels = 1;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                levels++;
+            }
+        }
+        return levels;
+    }
+
+    // args: <output file> <depth> <fanout> <tree size> <command count> [seed]
+    public static void main(String[] args) {
+        if (args.length != 5 && args.length != 6) {
+            throw new IllegalArgumentException("Usage: CommandLogGenerator <output file> <depth> <fanout> <tree size> <command count> [seed]");
+        }
+        long seed = args.length == 6 ? Long.parseLong(args[5]) : 0;
+        String[] commands = generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]), seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            for (String command : commands) {
+                writer.write(command);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
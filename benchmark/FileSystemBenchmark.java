@@ -0,0 +1,130 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import src.FileSystem;
+import src.OutputSink;
+
+// Measures each command through FileSystem.executeCommand() on a tree of the given depth, fanout and size.
+// Output goes to OutputSink.NULL, so only the FileSystem itself is measured. Run with "-prof gc" to see the
+// allocation rate per command; the CREATE, MOVE, DELETE and unchanged LIST paths are expected not to allocate
+// beyond the directories they create.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FileSystemBenchmark {
+
+    // Commands run by each benchmark are cycled through so that they touch the whole tree.
+    private static final int COMMAND_COUNT = 1 << 12;
+
+    @Param({ "3", "8" })
+    public int depth;
+
+    @Param({ "4", "64" })
+    public int fanout;
+
+    @Param({ "10000", "1000000" })
+    public int treeSize;
+
+    private FileSystem fileSystem;
+    private String[] createCommands;
+    private String[] deleteCommands;
+    private String[] moveAwayCommands;
+    private String[] moveBackCommands;
+    private String[] lookupCommands;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fileSystem = new FileSystem(OutputSink.NULL);
+        List<String> tree = CommandLogGenerator.tree(depth, fanout, treeSize);
+        for (String path : tree) {
+            fileSystem.executeCommand("CREATE " + path);
+        }
+
+        createCommands = new String[COMMAND_COUNT];
+        deleteCommands = new String[COMMAND_COUNT];
+        moveAwayCommands = new String[COMMAND_COUNT];
+        moveBackCommands = new String[COMMAND_COUNT];
+        lookupCommands = new String[COMMAND_COUNT];
+        String last = tree.get(tree.size() - 1);
+        for (int i = 0; i < COMMAND_COUNT; i++) {
+            // Spread over the tree, favouring the deepest directories, which are the most numerous.
+            String path = tree.get(tree.size() - 1 - (int) ((long) i * tree.size() / COMMAND_COUNT));
+            createCommands[i] = "CREATE " + path + "/benchmark";
+            deleteCommands[i] = "DELETE " + path + "/benchmark";
+            // Moves path/benchmark to the last directory and back. Only one is moved at a time, so the names never clash.
+            moveAwayCommands[i] = "MOVE " + path + "/benchmark " + last;
+            moveBackCommands[i] = "MOVE " + last + "/benchmark " + path;
+            lookupCommands[i] = "CREATE " + path;
+        }
+        // Renders the whole tree once, so that the LIST benchmarks measure the steady state.
+        fileSystem.executeCommand("LIST");
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (COMMAND_COUNT - 1);
+        return next;
+    }
+
+    // A CREATE of a new leaf followed by the DELETE of it, which leaves the tree as it was.
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void createAndDelete() {
+        int i = nextIndex();
+        fileSystem.executeCommand(createCommands[i]);
+        fileSystem.executeCommand(deleteCommands[i]);
+    }
+
+    // A MOVE of a leaf to another directory and back, which leaves the tree as it was.
+    // The CREATE and DELETE of the leaf are included, so subtract createAndDelete() to get the cost of the MOVEs.
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void moveAndMoveBack() {
+        int i = nextIndex();
+        fileSystem.executeCommand(createCommands[i]);
+        fileSystem.executeCommand(moveAwayCommands[i]);
+        fileSystem.executeCommand(moveBackCommands[i]);
+        fileSystem.executeCommand(deleteCommands[i]);
+    }
+
+    // A CREATE of a directory that already exists: path resolution plus the error message.
+    @Benchmark
+    public void createExisting() {
+        fileSystem.executeCommand(lookupCommands[nextIndex()]);
+    }
+
+    // A LIST of a tree that has not changed since the last LIST.
+    @Benchmark
+    public void listUnchanged() {
+        fileSystem.executeCommand("LIST");
+    }
+
+    // A LIST after a single directory was added, which renders only the lines that changed.
+    @Benchmark
+    @OperationsPerInvocation(3)
+    public void listAfterChange() {
+        int i = nextIndex();
+        fileSystem.executeCommand(createCommands[i]);
+        fileSystem.executeCommand("LIST");
+        fileSystem.executeCommand(deleteCommands[i]);
+    }
+}
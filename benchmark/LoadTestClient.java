@@ -0,0 +1,151 @@
+package benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import src.ConcurrentFileSystem;
+import src.FileSystemServer;
+import src.OutputSink;
+
+// Measures the latency of FileSystemServer over loopback at increasing numbers of connections.
+//
+// Every connection works on a top-level directory of its own and sends requests of pipelineDepth commands, alternating
+// CREATEs and DELETEs of subdirectories, waiting for all responses of a request before sending the next one. The
+// latency of a request is the time from writing it to reading its last response. After a warm-up round, every
+// connection count is run once and p50, p99 and the throughput are printed.
+//
+// java -cp out benchmark.LoadTestClient [<host> <port>] [max connections] [requests per connection] [pipeline depth]
+// Without a host and port, a server on a new ConcurrentFileSystem is started in this process.
+public final class LoadTestClient {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int DEFAULT_REQUESTS = 2000;
+    private static final int DEFAULT_PIPELINE_DEPTH = 1;
+
+    private LoadTestClient() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int next = 0;
+        InetSocketAddress address = null;
+        FileSystemServer server = null;
+        if (args.length >= 2 && !args[0].matches("\\d+")) {
+            address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+            next = 2;
+        } else {
+            server = new FileSystemServer(new ConcurrentFileSystem(OutputSink.NULL), new InetSocketAddress("127.0.0.1", 0));
+            address = server.address();
+        }
+        int maxConnections = args.length > next ? Integer.parseInt(args[next]) : DEFAULT_MAX_CONNECTIONS;
+        int requests = args.length > next + 1 ? Integer.parseInt(args[next + 1]) : DEFAULT_REQUESTS;
+        int pipelineDepth = args.length > next + 2 ? Integer.parseInt(args[next + 2]) : DEFAULT_PIPELINE_DEPTH;
+
+        try {
+            run(address, 1, requests, pipelineDepth, "warmup");
+            System.out.println("connections  requests/s  commands/s  p50 (us)  p99 (us)");
+            for (int connections = 1; connections <= maxConnections; connections *= 2) {
+                long[] latencies = run(address, connections, requests, pipelineDepth, "c" + connections + "x");
+                int count = latencies.length - 1;
+                double seconds = latencies[count] / 1e9;
+                System.out.println(String.format("%11d  %10.0f  %10.0f  %8.1f  %8.1f", connections, count / seconds,
+                        count * pipelineDepth / seconds, percentile(latencies, 0.50) / 1000.0, percentile(latencies, 0.99) / 1000.0));
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    // Runs connections clients at the same time and returns the sorted latencies of all their requests, followed by the
+    // elapsed time of the whole run in nanoseconds.
+    private static long[] run(InetSocketAddress address, int connections, int requests, int pipelineDepth, String prefix) throws Exception {
+        long[] latencies = new long[connections * requests + 1];
+        Exception[] failures = new Exception[connections];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] clients = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            int client = i;
+            clients[i] = new Thread(() -> {
+                try {
+                    runClient(address, prefix + client, requests, pipelineDepth, start, latencies, client * requests);
+                } catch (Exception e) {
+                    failures[client] = e;
+                }
+            });
+            clients[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (int i = 0; i < connections; i++) {
+            clients[i].join();
+            if (failures[i] != null) {
+                throw failures[i];
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        Arrays.sort(latencies, 0, latencies.length - 1);
+        latencies[latencies.length - 1] = elapsed;
+        return latencies;
+    }
+
+    private static void runClient(InetSocketAddress address, String root, int requests, int pipelineDepth, CountDownLatch start,
+            long[] latencies, int offset) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write(("CREATE " + root + "\n").getBytes(StandardCharsets.UTF_8));
+            readResponses(in, 1);
+
+            StringBuilder request = new StringBuilder();
+            for (int i = 0; i < pipelineDepth; i++) {
+                request.append(i % 2 == 0 ? "CREATE " : "DELETE ").append(root).append("/d").append(i / 2).append('\n');
+            }
+            byte[] bytes = request.toString().getBytes(StandardCharsets.UTF_8);
+
+            start.await();
+            for (int i = 0; i < requests; i++) {
+                long begin = System.nanoTime();
+                out.write(bytes);
+                readResponses(in, pipelineDepth);
+                latencies[offset + i] = System.nanoTime() - begin;
+            }
+        }
+    }
+
+    // Reads count responses, each ended by a line with a single ".".
+    private static void readResponses(InputStream in, int count) throws IOException {
+        boolean atLineStart = true;
+        boolean dotLine = false;
+        while (count > 0) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("The server closed the connection.");
+            }
+            if (b == '\n') {
+                if (dotLine) {
+                    count--;
+                }
+                atLineStart = true;
+                dotLine = false;
+            } else if (b != '\r') {
+                dotLine = atLineStart && b == '.';
+                atLineStart = false;
+            }
+        }
+    }
+
+    private static long percentile(long[] sortedLatencies, double fraction) {
+        int count = sortedLatencies.length - 1;
+        return sortedLatencies[Math.min(count - 1, (int) (count * fraction))];
+    }
+}
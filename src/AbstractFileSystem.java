@@ -0,0 +1,263 @@
+package src;
+
+import java.util.Comparator;
+
+// Parses commands for the FileSystem implementations and reports commands that are malformed.
+// Subclasses carry out well formed commands on their own directory tree and record their failures in a CommandResult,
+// which formats the messages, so that every implementation prints exactly the same output.
+// They also return the CommandOutcome of every command, which is what the metrics count.
+abstract class AbstractFileSystem {
+
+    // Directory names are stored as Strings but looked up with CharSlice views into the command,
+    // so the maps compare keys as CharSequences. The order is the same as String's natural order.
+    static final Comparator<CharSequence> NAME_ORDER = CharSequence::compare;
+
+    // Orders full paths the way LIST does, segment by segment in NAME_ORDER. That is the same as comparing them character
+    // by character with the separator ordered before every other character.
+    static final Comparator<CharSequence> PATH_ORDER = (a, b) -> {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                return x == '/' ? -1 : y == '/' ? 1 : Character.compare(x, y);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    };
+
+    // Collects the latency and outcome of every command while set. null when metrics are off.
+    private volatile CommandMetrics metrics;
+
+    // Starts recording every command in metrics, or stops recording if metrics is null.
+    // The same CommandMetrics can be shared by several file systems.
+    public void setMetrics(CommandMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // command is assumed to be non-null.
+    // All white space is stripped when parsing command.
+    // A valid command is of the form "<COMMAND> <ARG1> <ARG2> ..." where the number of args depends on the command.
+    // Valid commands are: CREATE, MOVE, LIST, DELETE, COUNT, DEPTH, FIND. Commands must be all uppercase.
+    // Directory names are of the form <directory>/<subdirectory>/<subdirectory>/...
+    // LIST without arguments lists the whole tree. With arguments it lists a page of the directories below a directory,
+    // see ListPage.
+    // COUNT and DEPTH take an optional directory name and print the number of directories below it, or how many levels
+    // deep they go. Without a name they are about the whole tree.
+    // FIND takes a name, which may contain the wildcards * and ?, and prints the full path of every directory with a
+    // matching name in the same order as LIST.
+    //
+    // terms is scratch space for parsing and result receives the result of the command. output receives the echoed
+    // command and the message of a failure, or is null to write neither. Returns the outcome of the command.
+    final CommandOutcome execute(CharSequence command, CommandTokenizer terms, CommandResult result, OutputSink output) {
+        terms.splitTerms(command);
+        return executeSplit(terms, result, output);
+    }
+
+    // The same as execute() for a command that has already been split into terms with splitTerms().
+    // The command is terms.source().
+    final CommandOutcome executeSplit(CommandTokenizer terms, CommandResult result, OutputSink output) {
+        CommandMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return executeAndReport(terms, result, output);
+        }
+
+        long start = System.nanoTime();
+        CommandOutcome outcome = executeAndReport(terms, result, output);
+        metrics.record(result.type(), outcome, System.nanoTime() - start);
+        if (metrics.treeGaugesRequested()) {
+            measureTree(metrics);
+        }
+        return outcome;
+    }
+
+    private CommandOutcome executeAndReport(CommandTokenizer terms, CommandResult result, OutputSink output) {
+        if (output == null) {
+            return dispatch(terms, result);
+        }
+        output.println(terms.source());
+        CommandOutcome outcome = dispatch(terms, result);
+        // Nobody reads the message if the output is discarded, so it is not formatted.
+        if (output != OutputSink.NULL) {
+            if (outcome != CommandOutcome.SUCCESS) {
+                result.printMessage(output);
+            } else {
+                result.printMeasure(output);
+            }
+        }
+        return outcome;
+    }
+
+    private CommandOutcome dispatch(CommandTokenizer terms, CommandResult result) {
+        CharSequence command = terms.source();
+        int termCount = terms.count();
+        CommandType type = commandType(terms);
+        result.reset(type, terms);
+
+        if (termCount == 0 || terms.isEmpty(0)) {
+            return result.fail(CommandOutcome.NO_COMMAND, 0, -1);
+        } else if (type == CommandType.CREATE) {
+            if (termCount == 1) {
+                return result.fail(CommandOutcome.MISSING_ARGUMENT, 1, -1);
+            } else if (termCount > 2) {
+                return result.fail(CommandOutcome.TOO_MANY_ARGUMENTS, 2, -1);
+            } else {
+                return createDirectory(command, terms.start(1), terms.end(1), result);
+            }
+        } else if (type == CommandType.MOVE) {
+            if (termCount == 1) {
+                return result.fail(CommandOutcome.MISSING_ARGUMENT, 1, -1);
+            } else if (termCount == 2) {
+                return result.fail(CommandOutcome.MISSING_ARGUMENT, 2, -1);
+            } else if (termCount > 3) {
+                return result.fail(CommandOutcome.TOO_MANY_ARGUMENTS, 3, -1);
+            } else {
+                return moveDirectory(command, terms.start(1), terms.end(1), terms.start(2), terms.end(2), result);
+            }
+        } else if (type == CommandType.LIST) {
+            if (termCount == 1) {
+                listDirectories();
+                return CommandOutcome.SUCCESS;
+            }
+            ListPage page = ListPage.parse(terms, result);
+            return page == null ? result.outcome() : listPage(page, result);
+        } else if (type == CommandType.DELETE) {
+            if (termCount == 1) {
+                return result.fail(CommandOutcome.MISSING_ARGUMENT, 1, -1);
+            } else if (termCount > 2) {
+                return result.fail(CommandOutcome.TOO_MANY_ARGUMENTS, 2, -1);
+            } else {
+                return deleteDirectory(command, terms.start(1), terms.end(1), result);
+            }
+        } else if (type == CommandType.COUNT || type == CommandType.DEPTH) {
+            if (termCount > 2) {
+                return result.fail(CommandOutcome.TOO_MANY_ARGUMENTS, 2, -1);
+            } else if (termCount == 1) {
+                return measureDirectory(command, -1, -1, result);
+            } else {
+                return measureDirectory(command, terms.start(1), terms.end(1), result);
+            }
+        } else if (type == CommandType.FIND) {
+            if (termCount == 1) {
+                return result.fail(CommandOutcome.MISSING_ARGUMENT, 1, -1);
+            } else if (termCount > 2) {
+                return result.fail(CommandOutcome.TOO_MANY_ARGUMENTS, 2, -1);
+            } else {
+                findDirectories(command, terms.start(1), terms.end(1));
+                return CommandOutcome.SUCCESS;
+            }
+        } else {
+            return result.fail(CommandOutcome.INVALID_COMMAND, 0, -1);
+        }
+    }
+
+    // Returns the type of the command last split into terms.
+    private static CommandType commandType(CommandTokenizer terms) {
+        if (terms.count() == 0) {
+            return CommandType.INVALID;
+        } else if (terms.matches(0, "CREATE")) {
+            return CommandType.CREATE;
+        } else if (terms.matches(0, "MOVE")) {
+            return CommandType.MOVE;
+        } else if (terms.matches(0, "LIST")) {
+            return CommandType.LIST;
+        } else if (terms.matches(0, "DELETE")) {
+            return CommandType.DELETE;
+        } else if (terms.matches(0, "COUNT")) {
+            return CommandType.COUNT;
+        } else if (terms.matches(0, "DEPTH")) {
+            return CommandType.DEPTH;
+        } else if (terms.matches(0, "FIND")) {
+            return CommandType.FIND;
+        }
+        return CommandType.INVALID;
+    }
+
+    // Reports the number of directories and the depth of the tree to metrics, which has asked for them.
+    // Called by the thread executing commands, between two commands. Implementations that cannot measure their tree
+    // safely there leave the gauges unknown.
+    void measureTree(CommandMetrics metrics) {
+    }
+
+    // Creates a single directory.
+    // The directory name is command[start, end).
+    // A failure is recorded in result with CommandResult.fail() and its outcome returned.
+    abstract CommandOutcome createDirectory(CharSequence command, int start, int end, CommandResult result);
+
+    // Move the source directory to the destination directory as a new subdirectory.
+    // The source is command[sourceStart, sourceEnd) and the destination is command[destinationStart, destinationEnd).
+    abstract CommandOutcome moveDirectory(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd,
+            CommandResult result);
+
+    // Print the current directory structure.
+    // Every directory is on its own line.
+    // Subdirectories are indented by two white space characters.
+    abstract void listDirectories();
+
+    // Prints the page of directories asked for by a LIST with arguments, see ListPage.print().
+    // A directory to list that does not exist is recorded in result as DOES_NOT_EXIST of argument 1.
+    abstract CommandOutcome listPage(ListPage page, CommandResult result);
+
+    // Delete the directory if it exists.
+    // The directory name is command[start, end).
+    abstract CommandOutcome deleteDirectory(CharSequence command, int start, int end, CommandResult result);
+
+    // Records the number of directories below a directory and how many levels deep they go in result with
+    // CommandResult.measured(), for COUNT and DEPTH.
+    // The directory name is command[start, end), or start is -1 for the whole tree.
+    abstract CommandOutcome measureDirectory(CharSequence command, int start, int end, CommandResult result);
+
+    // Prints the path of every directory whose name matches the pattern command[start, end), in the order of LIST.
+    // In the pattern, * matches any number of characters and ? matches any single character.
+    abstract void findDirectories(CharSequence command, int start, int end);
+
+    // Returns the number of characters at the start of pattern[start, end) before the first wildcard.
+    static int literalPrefixLength(CharSequence pattern, int start, int end) {
+        int i = start;
+        while (i < end && pattern.charAt(i) != '*' && pattern.charAt(i) != '?') {
+            i++;
+        }
+        return i - start;
+    }
+
+    // Returns true if name matches the pattern pattern[start, end), see findDirectories().
+    // When a * is followed by a mismatch, only the last * is retried one character further on, which is enough since
+    // everything before it has already been matched. That keeps this linear in practice and O(pattern * name) at worst.
+    static boolean matchesGlob(CharSequence pattern, int start, int end, CharSequence name) {
+        int p = start;
+        int n = 0;
+        int star = -1;
+        int starName = 0;
+        while (n < name.length()) {
+            if (p < end && pattern.charAt(p) == '*') {
+                star = p++;
+                starName = n;
+            } else if (p < end && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+                p++;
+                n++;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++starName;
+            } else {
+                return false;
+            }
+        }
+        while (p < end && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == end;
+    }
+
+    // Returns true if path is the same directory as base or one of its subdirectories.
+    static boolean isWithin(CommandTokenizer path, CommandTokenizer base) {
+        if (path.count() < base.count()) {
+            return false;
+        }
+        for (int i = 0; i < base.count(); i++) {
+            if (!path.matches(i, base, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
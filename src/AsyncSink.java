@@ -0,0 +1,143 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Encodes output on the calling thread and writes it to a channel on a background thread.
+// Full buffers are passed to the writer through a bounded queue and recycled once written, so a slow destination
+// blocks the caller only after all of the buffers are in flight.
+// Closing the sink waits for all output to be written and then closes the channel.
+public class AsyncSink extends ByteBufferSink {
+
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+
+    // Tells the writer thread to stop.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final BlockingQueue<ByteBuffer> empty;
+    private final Thread writer;
+    private final Object writtenLock = new Object();
+
+    // Number of buffers handed to the writer, only accessed by the producer.
+    private long submitted;
+    // Number of buffers the writer has finished with, guarded by writtenLock.
+    private long written;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public AsyncSink(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    // bufferCount is the total number of buffers, including the one being filled, and must be at least 2.
+    public AsyncSink(WritableByteChannel channel, int bufferSize, int bufferCount) {
+        super(ByteBuffer.allocateDirect(bufferSize));
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("An AsyncSink needs at least 2 buffers.");
+        }
+        this.channel = channel;
+        filled = new ArrayBlockingQueue<>(bufferCount);
+        empty = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 1; i < bufferCount; i++) {
+            empty.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        writer = new Thread(this::writeBuffers, "AsyncSink writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    protected ByteBuffer drain(ByteBuffer full) {
+        checkFailure();
+        full.flip();
+        submitted++;
+        try {
+            filled.put(full);
+            return empty.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for output to be written.", e);
+        }
+    }
+
+    // Blocks until everything printed so far has been written to the channel.
+    @Override
+    public void flush() {
+        if (buffer.position() > 0) {
+            buffer = drain(buffer);
+        }
+        synchronized (writtenLock) {
+            while (written < submitted && failure == null) {
+                try {
+                    writtenLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for output to be written.", e);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            try {
+                filled.put(END);
+                writer.join();
+                channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void writeBuffers() {
+        try {
+            while (true) {
+                ByteBuffer next = filled.take();
+                if (next == END) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        while (next.hasRemaining()) {
+                            channel.write(next);
+                        }
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                next.clear();
+                empty.put(next);
+                synchronized (writtenLock) {
+                    written++;
+                    writtenLock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package src;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Collects output on the calling thread and writes it to another sink on a background thread.
+// Unlike AsyncSink, which encodes the output itself, the text is passed on to the other sink unchanged, so the bytes
+// that end up on System.out are exactly the ones OutputSink.SYSTEM_OUT would have written.
+// Full buffers are passed to the writer through a bounded queue and recycled once written, so a slow destination
+// blocks the caller only after all of the buffers are in flight.
+// Closing the sink waits for all output to be written and then closes the other sink.
+public class BackgroundSink implements OutputSink {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int DEFAULT_BUFFER_COUNT = 4;
+
+    // Tells the writer thread to stop.
+    private static final LineBuffer END = new LineBuffer();
+
+    private final OutputSink target;
+    private final int bufferSize;
+    private final BlockingQueue<LineBuffer> filled;
+    private final BlockingQueue<LineBuffer> empty;
+    private final Thread writer;
+    private final Object writtenLock = new Object();
+    private LineBuffer buffer = new LineBuffer();
+
+    // Number of buffers handed to the writer, only accessed by the producer.
+    private long submitted;
+    // Number of buffers the writer has finished with, guarded by writtenLock.
+    private long written;
+    private volatile RuntimeException failure;
+    private boolean closed;
+
+    public BackgroundSink(OutputSink target) {
+        this(target, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    // bufferSize is the number of characters collected before they are handed to the writer.
+    // bufferCount is the total number of buffers, including the one being filled, and must be at least 2.
+    public BackgroundSink(OutputSink target, int bufferSize, int bufferCount) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("A BackgroundSink needs at least 2 buffers.");
+        }
+        this.target = target;
+        this.bufferSize = bufferSize;
+        filled = new ArrayBlockingQueue<>(bufferCount);
+        empty = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 1; i < bufferCount; i++) {
+            empty.add(new LineBuffer());
+        }
+        writer = new Thread(this::writeBuffers, "BackgroundSink writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void print(CharSequence text, int start, int end) {
+        buffer.print(text, start, end);
+        if (buffer.length() >= bufferSize) {
+            handOff();
+        }
+    }
+
+    @Override
+    public void println(CharSequence line) {
+        buffer.println(line);
+        if (buffer.length() >= bufferSize) {
+            handOff();
+        }
+    }
+
+    // Blocks until everything printed so far has been written to the other sink and the other sink has been flushed.
+    @Override
+    public void flush() {
+        if (!buffer.isEmpty()) {
+            handOff();
+        }
+        synchronized (writtenLock) {
+            while (written < submitted && failure == null) {
+                try {
+                    writtenLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for output to be written.", e);
+                }
+            }
+        }
+        checkFailure();
+        target.flush();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            try {
+                filled.put(END);
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            target.close();
+        }
+    }
+
+    private void handOff() {
+        checkFailure();
+        submitted++;
+        try {
+            filled.put(buffer);
+            buffer = empty.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for output to be written.", e);
+        }
+    }
+
+    private void writeBuffers() {
+        try {
+            while (true) {
+                LineBuffer next = filled.take();
+                if (next == END) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        next.writeTo(target);
+                    }
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                next.clear();
+                empty.put(next);
+                synchronized (writtenLock) {
+                    written++;
+                    writtenLock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
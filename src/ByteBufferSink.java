@@ -0,0 +1,69 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Base class for sinks that encode output as UTF-8 straight into a ByteBuffer.
+// Subclasses decide what happens to a buffer once it is full or flushed by implementing drain().
+abstract class ByteBufferSink implements OutputSink {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    // Large enough that a flush is needed only every few thousand lines.
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    protected ByteBuffer buffer;
+
+    protected ByteBufferSink(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Hands the bytes in full (from 0 to its position) to the destination and returns an empty buffer to continue writing to.
+    protected abstract ByteBuffer drain(ByteBuffer full);
+
+    @Override
+    public void print(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (!buffer.hasRemaining()) {
+                    buffer = drain(buffer);
+                }
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                reserve(2);
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                reserve(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced the same way String.getBytes() replaces them.
+                reserve(1);
+                buffer.put((byte) '?');
+            } else {
+                reserve(3);
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    @Override
+    public void println(CharSequence line) {
+        print(line, 0, line.length());
+        reserve(LINE_SEPARATOR.length);
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    private void reserve(int bytes) {
+        if (buffer.remaining() < bytes) {
+            buffer = drain(buffer);
+        }
+    }
+}
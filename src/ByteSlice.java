@@ -0,0 +1,48 @@
+package src;
+
+import java.nio.ByteBuffer;
+
+// A reusable view of a range of bytes in a ByteBuffer as a CharSequence, one char per byte.
+// Only correct for ASCII text; lines with other bytes have to be decoded instead.
+// A ByteSlice is only valid until it is reset or the buffer is reused.
+final class ByteSlice implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+
+    ByteSlice reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) buffer.get(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return copy(start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        return copy(start, end);
+    }
+
+    private String copy(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) buffer.get(from + i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,52 @@
+package src;
+
+// A snapshot of the counters of a FileSystem's path cache.
+// Lookups that found only a stale entry count both as an invalidation and as a miss.
+public final class CacheStatistics {
+
+    public static final CacheStatistics EMPTY = new CacheStatistics(0, 0, 0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long invalidations;
+    private final long evictions;
+    private final int size;
+
+    CacheStatistics(long hits, long misses, long invalidations, long evictions, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.invalidations = invalidations;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long invalidations() {
+        return invalidations;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double hitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses + " invalidations=" + invalidations + " evictions=" + evictions + " size=" + size;
+    }
+}
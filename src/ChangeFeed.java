@@ -0,0 +1,171 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Publishes every change a FileSystem commits as an Event into a bounded ring buffer, which any number of subscribers
+// read at their own pace on threads of their own, so that they can mirror the directories without diffing LIST output.
+// See FileSystem.addChangeFeed().
+//
+// Events are numbered from 0 in the order the changes were made. Changes made by a batch are published when it commits,
+// and those of a batch that is rolled back never are.
+// The FileSystem's thread is the only writer and it never waits for a subscriber: once the ring is full, every new event
+// overwrites the oldest one. A subscriber that falls more than capacity() events behind has missed changes, and poll()
+// returns RESYNC. It then has to rebuild its copy of the directories from a snapshot, such as a LIST, taken on the
+// FileSystem's thread together with nextSequence(), and resume() from that sequence number.
+//
+// No locks are taken. Events are immutable, so the writer stores one into its slot and then publishes the new sequence
+// number, and a reader that finds a later event in a slot than the one it asked for knows it was overwritten.
+public final class ChangeFeed implements ChangeListener {
+
+    // Returned by Subscription.poll() when the subscriber has missed events.
+    public static final int RESYNC = -1;
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    // The sequence number of the next event, which is the number of events published so far.
+    private final AtomicLong published = new AtomicLong();
+
+    // capacity is rounded up to a power of two.
+    public ChangeFeed(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("A ChangeFeed needs a capacity between 1 and 2^30.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    // Returns the sequence number the next change will get.
+    public long nextSequence() {
+        return published.get();
+    }
+
+    // Returns a subscription that starts at the next change.
+    public Subscription subscribe() {
+        return new Subscription(nextSequence());
+    }
+
+    // Returns a subscription that starts at the change with sequence number sequence, which may already have been
+    // published. Its first poll() returns RESYNC if that change has already been overwritten.
+    public Subscription subscribe(long sequence) {
+        Subscription subscription = new Subscription(0);
+        subscription.resume(sequence);
+        return subscription;
+    }
+
+    @Override
+    public void created(CharSequence command, int start, int end) {
+        publish(CommandType.CREATE, command.subSequence(start, end).toString(), null);
+    }
+
+    @Override
+    public void moved(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd) {
+        publish(CommandType.MOVE, command.subSequence(sourceStart, sourceEnd).toString(),
+                command.subSequence(destinationStart, destinationEnd).toString());
+    }
+
+    @Override
+    public void deleted(CharSequence command, int start, int end) {
+        publish(CommandType.DELETE, command.subSequence(start, end).toString(), null);
+    }
+
+    // Only called by the writer, so the sequence number is not contended.
+    private void publish(CommandType type, String path, String destination) {
+        long sequence = published.get();
+        slots.lazySet((int) sequence & mask, new Event(sequence, type, path, destination));
+        // Ordered after the store of the event, so a reader that sees the new count also sees the event.
+        published.lazySet(sequence + 1);
+    }
+
+    // A change made by the FileSystem.
+    public static final class Event {
+
+        private final long sequence;
+        private final CommandType type;
+        private final String path;
+        private final String destination;
+
+        Event(long sequence, CommandType type, String path, String destination) {
+            this.sequence = sequence;
+            this.type = type;
+            this.path = path;
+            this.destination = destination;
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        // CREATE, MOVE or DELETE.
+        public CommandType type() {
+            return type;
+        }
+
+        // The directory that was created, moved or deleted, as it was named in the command.
+        public String path() {
+            return path;
+        }
+
+        // The directory that path was moved into for a MOVE, or null.
+        public String destination() {
+            return destination;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + type + " " + path + (destination == null ? "" : " " + destination);
+        }
+    }
+
+    // A reader's position in the feed. Each subscription must only be used by one thread at a time.
+    public final class Subscription {
+
+        private long next;
+
+        private Subscription(long next) {
+            this.next = next;
+        }
+
+        // Returns the sequence number of the next event poll() returns.
+        public long nextSequence() {
+            return next;
+        }
+
+        // Continues with the change with sequence number sequence, typically after a resync.
+        public void resume(long sequence) {
+            if (sequence < 0 || sequence > published.get()) {
+                throw new IllegalArgumentException("Sequence number " + sequence + " has not been published.");
+            }
+            next = sequence;
+        }
+
+        // Copies the next events, up to events.length of them, into events, and returns how many there were, which is 0
+        // if no change has been made since the last poll. Returns RESYNC, and leaves the position unchanged, if the next
+        // event has been overwritten.
+        public int poll(Event[] events) {
+            long available = published.get() - next;
+            if (available > slots.length()) {
+                return RESYNC;
+            }
+            int count = (int) Math.min(available, events.length);
+            for (int i = 0; i < count; i++) {
+                Event event = slots.get((int) (next + i) & mask);
+                if (event.sequence != next + i) {
+                    // Overwritten by a change made after published was read.
+                    return RESYNC;
+                }
+                events[i] = event;
+            }
+            next += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package src;
+
+// Notified by a FileSystem after every CREATE, MOVE or DELETE that changed its directories.
+// Directory names are passed as ranges of command, which is only valid until the listener returns.
+interface ChangeListener {
+
+    // The directory command[start, end) was created.
+    void created(CharSequence command, int start, int end);
+
+    // The directory command[sourceStart, sourceEnd) was moved into command[destinationStart, destinationEnd).
+    void moved(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd);
+
+    // The directory command[start, end) and all of its subdirectories were deleted.
+    void deleted(CharSequence command, int start, int end);
+
+    // The changes told between changesStarted() and changesEnded() are not told as they are made: the tree may already
+    // hold changes that have not been told yet, or not hold changes that have. Only after changesEnded() does the tree
+    // match every change told, so a listener that reads the tree, such as to take a snapshot, waits for it. The changes
+    // are those of one batch or bulk import, so a listener that records them may keep them all or none.
+    default void changesStarted() {
+    }
+
+    default void changesEnded() {
+    }
+}
@@ -0,0 +1,53 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Buffers output in one large direct ByteBuffer and writes it to a channel whenever the buffer fills up.
+// Closing the sink closes the channel.
+public class ChannelSink extends ByteBufferSink {
+
+    private final WritableByteChannel channel;
+
+    public ChannelSink(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelSink(WritableByteChannel channel, int bufferSize) {
+        super(ByteBuffer.allocateDirect(bufferSize));
+        this.channel = channel;
+    }
+
+    @Override
+    protected ByteBuffer drain(ByteBuffer full) {
+        full.flip();
+        try {
+            while (full.hasRemaining()) {
+                channel.write(full);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        full.clear();
+        return full;
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() > 0) {
+            buffer = drain(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package src;
+
+// A reusable, mutable view of a range of characters in another CharSequence.
+// Used as a lookup key so that a path segment can be found in a directory without copying it into a new String.
+//
+// hashCode() is computed the same way as String.hashCode() and equals() compares contents with any CharSequence,
+// so a CharSlice can also be used to query hash based collections keyed by String.
+// A CharSlice is only valid until it is reset, so it must never be stored as a key itself.
+final class CharSlice implements CharSequence {
+
+    private CharSequence source;
+    private int start;
+    private int end;
+    private int hash;
+    private boolean hashKnown;
+
+    CharSlice() {
+        source = "";
+    }
+
+    // Points this slice at source[start, end) and returns it.
+    CharSlice reset(CharSequence source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        hashKnown = false;
+        return this;
+    }
+
+    // Same as reset(source, start, end) for a caller that has already computed the hash code of the range.
+    CharSlice reset(CharSequence source, int start, int end, int hash) {
+        reset(source, start, end);
+        this.hash = hash;
+        hashKnown = true;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return source.subSequence(start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        return source.subSequence(start, end).toString();
+    }
+
+    @Override
+    public int hashCode() {
+        if (!hashKnown) {
+            hash = hashCode(source, start, end, 0);
+            hashKnown = true;
+        }
+        return hash;
+    }
+
+    // Continues the String.hashCode() of the characters before start, hash, over source[start, end).
+    static int hashCode(CharSequence source, int start, int end, int hash) {
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CharSequence)) {
+            return false;
+        }
+        CharSequence otherSequence = (CharSequence) other;
+        return regionEquals(source, start, end, otherSequence, 0, otherSequence.length());
+    }
+
+    // Compares a[aStart, aEnd) with b[bStart, bEnd) character by character.
+    static boolean regionEquals(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd) {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int i = aStart, j = bStart; i < aEnd; i++, j++) {
+            if (a.charAt(i) != b.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
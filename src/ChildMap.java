@@ -0,0 +1,437 @@
+package src;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// The subdirectories of a FileSystem directory, sorted by name, in a representation that fits how many there are.
+//
+// Most directories have no subdirectories or only a handful, and a few have a very large number:
+// - No subdirectories: a single shared, immutable instance, so leaves cost nothing.
+// - Up to MAX_ARRAY_SIZE: the names and values in two sorted arrays, searched by binary search.
+// - More than that: a TreeMap.
+// A map that shrinks back to MIN_TREE_SIZE entries goes back to arrays. The gap between the two sizes keeps a directory
+// that hovers around the limit from switching back and forth on every change.
+//
+// put() and remove() return the map to use from then on, which may be a different object, so callers must always
+// replace their reference with the result.
+abstract class ChildMap<V> {
+
+    static final int MAX_ARRAY_SIZE = 16;
+    static final int MIN_TREE_SIZE = 8;
+
+    @SuppressWarnings("rawtypes")
+    private static final ChildMap EMPTY = new EmptyMap();
+    @SuppressWarnings("rawtypes")
+    private static final Cursor EMPTY_CURSOR = new ArrayMap(0).cursor();
+
+    @SuppressWarnings("unchecked")
+    static <V> ChildMap<V> empty() {
+        return EMPTY;
+    }
+
+    // Returns a map of the first size names and values, which must be sorted by name without duplicates.
+    // Takes time linear in size: the arrays are copied, and a TreeMap is built from the sorted entries in one pass
+    // instead of by one insert and rebalance per entry.
+    @SuppressWarnings("unchecked")
+    static <V> ChildMap<V> ofSorted(String[] names, V[] values, int size) {
+        if (size == 0) {
+            return empty();
+        } else if (size <= MAX_ARRAY_SIZE) {
+            ArrayMap<V> array = new ArrayMap<>(size);
+            System.arraycopy(names, 0, array.names, 0, size);
+            System.arraycopy(values, 0, array.values, 0, size);
+            array.size = size;
+            return array;
+        }
+        return new TreeChildMap<>(new TreeMap<>(new SortedRun<>(names, values, 0, size)));
+    }
+
+    // Iterates over the entries in name order. name() and value() refer to the entry returned by the last call to next().
+    // The map must not be changed while a cursor is in use.
+    abstract static class Cursor<V> {
+        abstract boolean hasNext();
+
+        abstract void next();
+
+        abstract String name();
+
+        abstract V value();
+    }
+
+    abstract int size();
+
+    final boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Returns the value for name, or null if there is none.
+    abstract V get(CharSequence name);
+
+    // Adds name, which must not already be in the map.
+    abstract ChildMap<V> put(String name, V value);
+
+    // Removes name if it is in the map.
+    abstract ChildMap<V> remove(CharSequence name);
+
+    abstract Cursor<V> cursor();
+
+    // Returns a cursor over the entries whose names come after name.
+    abstract Cursor<V> cursorAfter(CharSequence name);
+
+    private static final class EmptyMap<V> extends ChildMap<V> {
+
+        @Override
+        int size() {
+            return 0;
+        }
+
+        @Override
+        V get(CharSequence name) {
+            return null;
+        }
+
+        @Override
+        ChildMap<V> put(String name, V value) {
+            return new ArrayMap<V>(2).put(name, value);
+        }
+
+        @Override
+        ChildMap<V> remove(CharSequence name) {
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Cursor<V> cursor() {
+            return EMPTY_CURSOR;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Cursor<V> cursorAfter(CharSequence name) {
+            return EMPTY_CURSOR;
+        }
+    }
+
+    private static final class ArrayMap<V> extends ChildMap<V> {
+        private String[] names;
+        private Object[] values;
+        private int size;
+
+        private ArrayMap(int capacity) {
+            names = new String[capacity];
+            values = new Object[capacity];
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        V get(CharSequence name) {
+            int index = indexOf(name);
+            return index < 0 ? null : (V) values[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        ChildMap<V> put(String name, V value) {
+            if (size == MAX_ARRAY_SIZE) {
+                TreeMap<CharSequence, V> tree = new TreeMap<>(AbstractFileSystem.NAME_ORDER);
+                for (int i = 0; i < size; i++) {
+                    tree.put(names[i], (V) values[i]);
+                }
+                tree.put(name, value);
+                return new TreeChildMap<>(tree);
+            }
+
+            int index = -indexOf(name) - 1;
+            if (size == names.length) {
+                int capacity = Math.min(size * 2, MAX_ARRAY_SIZE);
+                names = Arrays.copyOf(names, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            System.arraycopy(names, index, names, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            names[index] = name;
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        ChildMap<V> remove(CharSequence name) {
+            int index = indexOf(name);
+            if (index < 0) {
+                return this;
+            }
+            if (size == 1) {
+                return empty();
+            }
+            size--;
+            System.arraycopy(names, index + 1, names, index, size - index);
+            System.arraycopy(values, index + 1, values, index, size - index);
+            names[size] = null;
+            values[size] = null;
+            return this;
+        }
+
+        @Override
+        Cursor<V> cursor() {
+            return cursorFrom(0);
+        }
+
+        @Override
+        Cursor<V> cursorAfter(CharSequence name) {
+            int index = indexOf(name);
+            return cursorFrom(index < 0 ? -index - 1 : index + 1);
+        }
+
+        private Cursor<V> cursorFrom(int first) {
+            return new Cursor<V>() {
+                private int index = first - 1;
+
+                @Override
+                boolean hasNext() {
+                    return index + 1 < size;
+                }
+
+                @Override
+                void next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    index++;
+                }
+
+                @Override
+                String name() {
+                    return names[index];
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                V value() {
+                    return (V) values[index];
+                }
+            };
+        }
+
+        // Returns the index of name, or -(insertion point) - 1 if it is not in the map, like Arrays.binarySearch().
+        private int indexOf(CharSequence name) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = CharSequence.compare(names[middle], name);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    private static final class TreeChildMap<V> extends ChildMap<V> {
+        private final TreeMap<CharSequence, V> tree;
+
+        private TreeChildMap(TreeMap<CharSequence, V> tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        int size() {
+            return tree.size();
+        }
+
+        @Override
+        V get(CharSequence name) {
+            return tree.get(name);
+        }
+
+        @Override
+        ChildMap<V> put(String name, V value) {
+            tree.put(name, value);
+            return this;
+        }
+
+        @Override
+        ChildMap<V> remove(CharSequence name) {
+            tree.remove(name);
+            if (tree.size() > MIN_TREE_SIZE) {
+                return this;
+            }
+            ArrayMap<V> array = new ArrayMap<>(MAX_ARRAY_SIZE);
+            for (Entry<CharSequence, V> entry : tree.entrySet()) {
+                array.names[array.size] = (String) entry.getKey();
+                array.values[array.size] = entry.getValue();
+                array.size++;
+            }
+            return array;
+        }
+
+        @Override
+        Cursor<V> cursor() {
+            return cursor(tree.entrySet().iterator());
+        }
+
+        @Override
+        Cursor<V> cursorAfter(CharSequence name) {
+            return cursor(tree.tailMap(name, false).entrySet().iterator());
+        }
+
+        private Cursor<V> cursor(Iterator<Entry<CharSequence, V>> entries) {
+            return new Cursor<V>() {
+                private Entry<CharSequence, V> current;
+
+                @Override
+                boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                void next() {
+                    current = entries.next();
+                }
+
+                @Override
+                String name() {
+                    return (String) current.getKey();
+                }
+
+                @Override
+                V value() {
+                    return current.getValue();
+                }
+            };
+        }
+    }
+
+    // A read-only view of names[from, to) and values[from, to), which are sorted by name, as a SortedMap, for the
+    // TreeMap(SortedMap) constructor. Lookups and views of a range of keys are binary searches over the arrays.
+    private static final class SortedRun<V> extends AbstractMap<CharSequence, V> implements SortedMap<CharSequence, V> {
+        private final String[] names;
+        private final V[] values;
+        private final int from;
+        private final int to;
+
+        private SortedRun(String[] names, V[] values, int from, int to) {
+            this.names = names;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        // Returns the index of name, or -(insertion point) - 1 if it is not in the run, like Arrays.binarySearch().
+        private int indexOf(Object name) {
+            return Arrays.binarySearch(names, from, to, (CharSequence) name, AbstractFileSystem.NAME_ORDER);
+        }
+
+        // Returns the index of the first name that is not less than name.
+        private int lowerBound(CharSequence name) {
+            int index = indexOf(name);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        @Override
+        public Comparator<? super CharSequence> comparator() {
+            return AbstractFileSystem.NAME_ORDER;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            return indexOf(name) >= 0;
+        }
+
+        @Override
+        public V get(Object name) {
+            int index = indexOf(name);
+            return index >= 0 ? values[index] : null;
+        }
+
+        @Override
+        public Set<Entry<CharSequence, V>> entrySet() {
+            return new AbstractSet<Entry<CharSequence, V>>() {
+                @Override
+                public int size() {
+                    return to - from;
+                }
+
+                @Override
+                public Iterator<Entry<CharSequence, V>> iterator() {
+                    return new Iterator<Entry<CharSequence, V>>() {
+                        private int index = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < to;
+                        }
+
+                        @Override
+                        public Entry<CharSequence, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<CharSequence, V> entry = new SimpleImmutableEntry<>(names[index], values[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public SortedMap<CharSequence, V> subMap(CharSequence fromKey, CharSequence toKey) {
+            if (AbstractFileSystem.NAME_ORDER.compare(fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedRun<>(names, values, lowerBound(fromKey), lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<CharSequence, V> headMap(CharSequence toKey) {
+            return new SortedRun<>(names, values, from, lowerBound(toKey));
+        }
+
+        @Override
+        public SortedMap<CharSequence, V> tailMap(CharSequence fromKey) {
+            return new SortedRun<>(names, values, lowerBound(fromKey), to);
+        }
+
+        @Override
+        public CharSequence firstKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return names[from];
+        }
+
+        @Override
+        public CharSequence lastKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return names[to - 1];
+        }
+    }
+}
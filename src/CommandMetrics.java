@@ -0,0 +1,159 @@
+package src;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Latency histograms per command type, counters per command type and outcome, and gauges of the size of the tree, for
+// file systems that record into it. See AbstractFileSystem.setMetrics().
+//
+// The counters and histograms are updated by the threads executing commands and can be read from any thread.
+// The gauges cannot be read directly from another thread without racing with the commands, so reading them asks the
+// file system to measure its tree after its next command, and returns the values of the last measurement.
+public final class CommandMetrics implements CommandMetricsMXBean {
+
+    public static final String DEFAULT_OBJECT_NAME = "EndpointCodingChallenge:type=CommandMetrics";
+
+    private static final CommandType[] TYPES = CommandType.values();
+    private static final CommandOutcome[] OUTCOMES = CommandOutcome.values();
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[TYPES.length];
+    private final AtomicLongArray outcomeCounts = new AtomicLongArray(TYPES.length * OUTCOMES.length);
+
+    private volatile boolean treeGaugesRequested;
+    private volatile long directoryCount = -1;
+    private volatile int maxDepth = -1;
+
+    public CommandMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(CommandType type, CommandOutcome outcome, long nanos) {
+        latencies[type.ordinal()].record(nanos);
+        outcomeCounts.incrementAndGet(type.ordinal() * OUTCOMES.length + outcome.ordinal());
+    }
+
+    boolean treeGaugesRequested() {
+        return treeGaugesRequested;
+    }
+
+    void updateTreeGauges(long directoryCount, int maxDepth) {
+        this.directoryCount = directoryCount;
+        this.maxDepth = maxDepth;
+        treeGaugesRequested = false;
+    }
+
+    public long count(CommandType type, CommandOutcome outcome) {
+        return outcomeCounts.get(type.ordinal() * OUTCOMES.length + outcome.ordinal());
+    }
+
+    public long count(CommandType type) {
+        return latencies[type.ordinal()].count();
+    }
+
+    // Returns an upper bound, within about 3%, of the given percentile of the latencies of type in nanoseconds.
+    public long latencyPercentile(CommandType type, double percentile) {
+        return latencies[type.ordinal()].percentile(percentile);
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (CommandType type : TYPES) {
+            for (CommandOutcome outcome : OUTCOMES) {
+                long count = count(type, outcome);
+                if (count != 0) {
+                    counts.put(type + "." + outcome, count);
+                }
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyNanos() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        for (CommandType type : TYPES) {
+            LatencyHistogram histogram = latencies[type.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            statistics.put(type + ".count", histogram.count());
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                statistics.put(type + "." + PERCENTILE_NAMES[i], histogram.percentile(PERCENTILES[i]));
+            }
+            statistics.put(type + ".max", histogram.max());
+        }
+        return statistics;
+    }
+
+    @Override
+    public long getDirectoryCount() {
+        treeGaugesRequested = true;
+        return directoryCount;
+    }
+
+    @Override
+    public int getMaxDepth() {
+        treeGaugesRequested = true;
+        return maxDepth;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        for (int i = 0; i < outcomeCounts.length(); i++) {
+            outcomeCounts.set(i, 0);
+        }
+    }
+
+    // Registers these metrics with the platform MBean server under DEFAULT_OBJECT_NAME.
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(DEFAULT_OBJECT_NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the command metrics MBean.", e);
+        }
+    }
+
+    // Writes a table of the latencies in microseconds and the outcomes of every command type that has been executed.
+    public void dump(PrintStream out) {
+        out.println("command      count      p50 us      p90 us      p99 us    p99.9 us      max us");
+        for (CommandType type : TYPES) {
+            LatencyHistogram histogram = latencies[type.ordinal()];
+            if (histogram.count() == 0) {
+                continue;
+            }
+            out.printf("%-8s %9d", type, histogram.count());
+            for (double percentile : PERCENTILES) {
+                out.printf(" %11.1f", histogram.percentile(percentile) / 1000.0);
+            }
+            out.printf(" %11.1f%n", histogram.max() / 1000.0);
+        }
+        out.println();
+        out.println("command  outcome                        count");
+        for (CommandType type : TYPES) {
+            for (CommandOutcome outcome : OUTCOMES) {
+                long count = count(type, outcome);
+                if (count != 0) {
+                    out.printf("%-8s %-25s %10d%n", type, outcome, count);
+                }
+            }
+        }
+        if (directoryCount >= 0) {
+            out.println();
+            out.println("directories " + directoryCount + ", depth " + maxDepth);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package src;
+
+import java.util.Map;
+
+// The management interface of CommandMetrics, for JConsole and other JMX clients.
+public interface CommandMetricsMXBean {
+
+    // The number of commands of each type that ended with each outcome, keyed "<type>.<outcome>", e.g. "MOVE.SUCCESS".
+    // Combinations that have not happened are left out.
+    Map<String, Long> getOutcomeCounts();
+
+    // Latency statistics in nanoseconds of each command type that has been executed, keyed "<type>.<statistic>" where
+    // the statistic is one of count, p50, p90, p99, p99.9 and max.
+    Map<String, Long> getLatencyNanos();
+
+    // The number of directories, or -1 if it is not known yet. See CommandMetrics.
+    long getDirectoryCount();
+
+    // The number of levels of directories, or -1 if it is not known yet. See CommandMetrics.
+    int getMaxDepth();
+
+    // Clears the counters and histograms.
+    void reset();
+}
@@ -0,0 +1,23 @@
+package src;
+
+// How a command ended. Every outcome but SUCCESS is a failure, reported by the message CommandResult.formatMessage()
+// builds for it.
+public enum CommandOutcome {
+    SUCCESS,
+    // An empty line.
+    NO_COMMAND,
+    // The first term is not a command.
+    INVALID_COMMAND,
+    // Fewer directory names than the command needs.
+    MISSING_ARGUMENT,
+    // More directory names than the command takes.
+    TOO_MANY_ARGUMENTS,
+    // An option of LIST that is not known, is given twice or has a value that is not valid.
+    INVALID_OPTION,
+    // A directory in the command, or one of its parents, does not exist.
+    DOES_NOT_EXIST,
+    // The directory to create, or the moved directory's name in the destination, already exists.
+    ALREADY_EXISTS,
+    // A MOVE whose destination is the source or one of its subdirectories.
+    DESTINATION_WITHIN_SOURCE
+}
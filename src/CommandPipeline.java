@@ -0,0 +1,237 @@
+package src;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// Executes a stream of commands on a FileSystem in three stages, each on its own threads:
+// 1. The thread calling submit() copies each command into the next slot of a ring buffer.
+// 2. Parser threads split the commands into terms. With n parsers, parser i splits every command whose sequence
+//    number is i modulo n.
+// 3. A single apply thread executes the split commands on the FileSystem in the order they were submitted, so the
+//    FileSystem is only ever used by one thread and its output is the same as running the commands one by one.
+// Output is written by the FileSystem's OutputSink; a BackgroundSink moves the writing to a fourth thread.
+//
+// The slots, and the buffers and tokenizers in them, are allocated once and reused, as in the Disruptor: each stage
+// publishes the sequence number of the last slot it has finished with, and a stage only uses a slot once the stage
+// before it has published it. Progress is published in batches, and always before a stage waits, so that the threads
+// rarely touch the same cache lines.
+public final class CommandPipeline implements AutoCloseable {
+
+    public static final int DEFAULT_RING_SIZE = 1 << 14;
+    // The number of commands a stage handles between publishing its progress.
+    private static final int BATCH_SIZE = 256;
+    private static final int INITIAL_COMMAND_LENGTH = 128;
+
+    private static final class Slot {
+        private char[] chars = new char[INITIAL_COMMAND_LENGTH];
+        private CharBuffer command = CharBuffer.wrap(chars);
+        private final CommandTokenizer terms = new CommandTokenizer();
+
+        private void set(CharSequence line) {
+            int length = line.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+                command = CharBuffer.wrap(chars);
+            }
+            for (int i = 0; i < length; i++) {
+                chars[i] = line.charAt(i);
+            }
+            command.limit(length);
+        }
+    }
+
+    // A sequence number on a cache line of its own, so that publishing it does not slow down the threads reading the
+    // sequence numbers next to it.
+    private static final class Sequence {
+        @SuppressWarnings("unused")
+        private long p1, p2, p3, p4, p5, p6, p7;
+        private volatile long value = -1;
+        @SuppressWarnings("unused")
+        private long q1, q2, q3, q4, q5, q6, q7;
+    }
+
+    private final FileSystem fileSystem;
+    private final Slot[] slots;
+    private final int mask;
+
+    // The last slot filled by submit().
+    private final Sequence submitted = new Sequence();
+    // The last slot split by each parser.
+    private final Sequence[] parsed;
+    // The last slot executed.
+    private final Sequence applied = new Sequence();
+    // The number of commands submitted once close() has been called, and Long.MAX_VALUE before.
+    private volatile long end = Long.MAX_VALUE;
+    private volatile Throwable failure;
+
+    private final Thread[] parsers;
+    private final Thread applier;
+    // Only used by the thread calling submit().
+    private long next;
+    private boolean closed;
+
+    // fileSystem must not be used by anything else until the pipeline is closed.
+    public CommandPipeline(FileSystem fileSystem, int parserCount) {
+        this(fileSystem, parserCount, DEFAULT_RING_SIZE);
+    }
+
+    // ringSize is rounded up to a power of two and must be at least twice the batch size.
+    public CommandPipeline(FileSystem fileSystem, int parserCount, int ringSize) {
+        if (parserCount < 1) {
+            throw new IllegalArgumentException("A CommandPipeline needs at least one parser.");
+        }
+        if (ringSize < BATCH_SIZE * 2) {
+            throw new IllegalArgumentException("Ring size must be at least " + BATCH_SIZE * 2 + ".");
+        }
+        int size = Integer.highestOneBit(ringSize - 1) << 1;
+        this.fileSystem = fileSystem;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+
+        parsed = new Sequence[parserCount];
+        parsers = new Thread[parserCount];
+        for (int i = 0; i < parserCount; i++) {
+            parsed[i] = new Sequence();
+            int parser = i;
+            parsers[i] = new Thread(() -> run(() -> parse(parser)), "CommandPipeline parser " + i);
+        }
+        applier = new Thread(() -> run(this::apply), "CommandPipeline applier");
+        for (Thread parser : parsers) {
+            parser.setDaemon(true);
+            parser.start();
+        }
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    // Adds command to the end of the pipeline. command is copied, so it only has to be valid during the call.
+    // Blocks while the ring buffer is full.
+    public void submit(CharSequence command) {
+        if (closed) {
+            throw new IllegalStateException("The pipeline is closed.");
+        }
+        long sequence = next++;
+        long wrapPoint = sequence - slots.length;
+        if (applied.value < wrapPoint) {
+            submitted.value = sequence - 1;
+            for (int attempt = 0; applied.value < wrapPoint; attempt++) {
+                checkFailure();
+                backOff(attempt);
+            }
+        }
+        slots[(int) sequence & mask].set(command);
+        if ((sequence + 1) % BATCH_SIZE == 0) {
+            submitted.value = sequence;
+        }
+    }
+
+    // Waits for every submitted command to be executed and stops the threads.
+    // Rethrows anything thrown while a command was being split or executed.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        submitted.value = next - 1;
+        end = next;
+        boolean interrupted = false;
+        for (Thread thread : parsers) {
+            interrupted |= join(thread);
+        }
+        interrupted |= join(applier);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    private void parse(int parser) {
+        Sequence progress = parsed[parser];
+        for (long sequence = parser; ; sequence += parsers.length) {
+            if (submitted.value < sequence) {
+                progress.value = sequence - parsers.length;
+                for (int attempt = 0; submitted.value < sequence; attempt++) {
+                    if (sequence >= end || failure != null) {
+                        return;
+                    }
+                    backOff(attempt);
+                }
+            }
+            Slot slot = slots[(int) sequence & mask];
+            slot.terms.splitTerms(slot.command);
+            if ((sequence / parsers.length + 1) % BATCH_SIZE == 0) {
+                progress.value = sequence;
+            }
+        }
+    }
+
+    private void apply() {
+        for (long sequence = 0; ; sequence++) {
+            Sequence parser = parsed[(int) (sequence % parsers.length)];
+            if (parser.value < sequence) {
+                applied.value = sequence - 1;
+                for (int attempt = 0; parser.value < sequence; attempt++) {
+                    // Once the input has ended, each parser publishes the slots it split and stops, so its progress
+                    // never reaches a slot past the last command. The end is found by comparing sequence with end,
+                    // which close() sets to the number of commands submitted.
+                    if (sequence >= end || failure != null) {
+                        return;
+                    }
+                    backOff(attempt);
+                }
+            }
+            fileSystem.executeSplitCommand(slots[(int) sequence & mask].terms);
+            if ((sequence + 1) % BATCH_SIZE == 0) {
+                applied.value = sequence;
+            }
+        }
+    }
+
+    private void run(Runnable stage) {
+        try {
+            stage.run();
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    // Spins briefly, then yields, then sleeps, so a waiting stage costs little when there is one core per thread and
+    // does not starve the others when there are not.
+    private static void backOff(int attempt) {
+        if (attempt < 64) {
+            Thread.onSpinWait();
+        } else if (attempt < 256) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    // Returns true if the calling thread was interrupted while waiting.
+    private static boolean join(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable t = failure;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
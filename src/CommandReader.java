@@ -0,0 +1,140 @@
+package src;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Reads newline separated commands and passes each line to a consumer without creating a String per line.
+// Files are memory mapped one window at a time; other input, such as stdin or a GZIPInputStream, is read through a
+// single reused buffer.
+//
+// Lines are split on "\n" and a "\r" before it is dropped. ASCII lines are passed as a view of the bytes they were
+// read into. Lines with any other bytes are decoded with the given charset into a reused CharBuffer.
+// Either way the line is only valid until the consumer returns.
+public class CommandReader {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+    static final int DEFAULT_STREAM_BUFFER_SIZE = 1 << 16;
+
+    private final Consumer<CharSequence> consumer;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+    private final ByteSlice line = new ByteSlice();
+    private CharBuffer decodedLine = CharBuffer.allocate(256);
+
+    public CommandReader(Consumer<CharSequence> consumer) {
+        this(consumer, Charset.defaultCharset(), DEFAULT_WINDOW_SIZE);
+    }
+
+    // windowSize is the number of bytes mapped, or buffered when streaming, at a time.
+    // Lines longer than windowSize are still read; the window grows to fit them.
+    public CommandReader(Consumer<CharSequence> consumer, Charset charset, int windowSize) {
+        this.consumer = consumer;
+        this.windowSize = windowSize;
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // Reads every line of the file at path.
+    public void read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int currentWindowSize = windowSize;
+            while (position < size) {
+                int length = (int) Math.min(currentWindowSize, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean lastWindow = position + length == size;
+                int consumed = consumeLines(window, 0, length, lastWindow);
+                if (consumed == 0 && !lastWindow) {
+                    // A single line does not fit in the window.
+                    currentWindowSize = (int) Math.min(Integer.MAX_VALUE - 8, currentWindowSize * 2L);
+                } else {
+                    position += consumed;
+                    currentWindowSize = windowSize;
+                }
+            }
+        }
+    }
+
+    // Reads every line of input until it is exhausted. input is not closed.
+    public void read(InputStream input) throws IOException {
+        byte[] bytes = new byte[Math.min(windowSize, DEFAULT_STREAM_BUFFER_SIZE)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int length = 0;
+        while (true) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            int read = input.read(bytes, length, bytes.length - length);
+            if (read < 0) {
+                consumeLines(buffer, 0, length, true);
+                return;
+            }
+            length += read;
+            int consumed = consumeLines(buffer, 0, length, false);
+            System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+            length -= consumed;
+        }
+    }
+
+    // Passes every complete line in buffer[start, end) to the consumer and returns the number of bytes consumed.
+    // If last is true, the bytes after the final "\n" are consumed as a line too.
+    private int consumeLines(ByteBuffer buffer, int start, int end, boolean last) {
+        int lineStart = start;
+        boolean ascii = true;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                consumeLine(buffer, lineStart, i, ascii);
+                lineStart = i + 1;
+                ascii = true;
+            } else if (b < 0) {
+                ascii = false;
+            }
+        }
+        if (last && lineStart < end) {
+            consumeLine(buffer, lineStart, end, ascii);
+            lineStart = end;
+        }
+        return lineStart - start;
+    }
+
+    private void consumeLine(ByteBuffer buffer, int start, int end, boolean ascii) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (ascii) {
+            consumer.accept(line.reset(buffer, start, end));
+        } else {
+            consumer.accept(decode(buffer, start, end));
+        }
+    }
+
+    private CharBuffer decode(ByteBuffer buffer, int start, int end) {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(end).position(start);
+        int maxChars = (int) ((end - start) * (double) decoder.maxCharsPerByte()) + 1;
+        if (decodedLine.capacity() < maxChars) {
+            decodedLine = CharBuffer.allocate(maxChars);
+        }
+        decodedLine.clear();
+        decoder.reset();
+        decoder.decode(bytes, decodedLine, true);
+        decoder.flush(decodedLine);
+        decodedLine.flip();
+        return decodedLine;
+    }
+}
@@ -0,0 +1,234 @@
+package src;
+
+// The result of a command: its type, its outcome and, for a failure, which directory name and which segment of it the
+// failure is about. For COUNT and DEPTH it also holds what they measured.
+//
+// Recording a result does not allocate or build any text. The error message, exactly as executeCommand() prints it,
+// is only formatted when message() or printMessage() asks for it, so callers that only look at the outcome, such as
+// bulk loads, do not pay for it.
+// A CommandResult is reused for every command of the file system or thread that owns it, so it is only valid until the
+// next command is executed, and message() needs the command's characters to be unchanged until then.
+public final class CommandResult {
+
+    private CommandType type = CommandType.INVALID;
+    private CommandOutcome outcome = CommandOutcome.SUCCESS;
+    private CharSequence command = "";
+    // The offsets of the first two directory names in the command, if there are that many.
+    private int firstStart;
+    private int firstEnd;
+    private int secondStart;
+    private int secondEnd;
+    private int failedArgument;
+    private int failedSegment = -1;
+    // The option and its value for INVALID_OPTION.
+    private int optionStart;
+    private int optionEnd;
+    private long directoryCount;
+    private int depth;
+
+    // Scratch space for formatting messages, created the first time one is needed.
+    private StringBuilder message;
+    private CommandTokenizer segments;
+
+    public CommandType type() {
+        return type;
+    }
+
+    public CommandOutcome outcome() {
+        return outcome;
+    }
+
+    public boolean isSuccess() {
+        return outcome == CommandOutcome.SUCCESS;
+    }
+
+    // Returns the index of the term of the command that the failure is about: 1 for the first directory name, 2 for the
+    // second, for MISSING_ARGUMENT and TOO_MANY_ARGUMENTS the first term that is missing or too many, and for
+    // INVALID_OPTION the term of the option's keyword.
+    // Returns 0 if the failure is about the whole command, and for a success.
+    public int failedArgument() {
+        return failedArgument;
+    }
+
+    // Returns the index of the path segment of failedArgument() that the failure is about, or -1 if there is none.
+    // For DOES_NOT_EXIST it is the first directory that does not exist, for ALREADY_EXISTS the last segment of the
+    // directory name that is created or moved, and for DESTINATION_WITHIN_SOURCE the segment of the destination that
+    // names the source.
+    public int failedSegment() {
+        return failedSegment;
+    }
+
+    // Returns the number of directories below the directory of a successful COUNT or DEPTH, or 0 for any other result.
+    public long directoryCount() {
+        return directoryCount;
+    }
+
+    // Returns how many levels of directories there are below the directory of a successful COUNT or DEPTH, which is 0
+    // for a directory without subdirectories, or 0 for any other result.
+    public int depth() {
+        return depth;
+    }
+
+    // Returns the error message of a failure, or null for a success.
+    public String message() {
+        return isSuccess() ? null : formatMessage().toString();
+    }
+
+    // Writes the error message of a failure to output as a line. Does nothing for a success.
+    public void printMessage(OutputSink output) {
+        if (!isSuccess()) {
+            output.println(formatMessage());
+        }
+    }
+
+    // Writes what a successful COUNT or DEPTH measured to output as a line. Does nothing for any other result.
+    void printMeasure(OutputSink output) {
+        if (isSuccess() && (type == CommandType.COUNT || type == CommandType.DEPTH)) {
+            output.println(clearMessage().append(type == CommandType.COUNT ? directoryCount : depth));
+        }
+    }
+
+    // Starts the result of the command split into terms, which is a success until fail() is called.
+    void reset(CommandType type, CommandTokenizer terms) {
+        this.type = type;
+        outcome = CommandOutcome.SUCCESS;
+        command = terms.source();
+        int termCount = terms.count();
+        if (termCount > 1) {
+            firstStart = terms.start(1);
+            firstEnd = terms.end(1);
+        }
+        if (termCount > 2) {
+            secondStart = terms.start(2);
+            secondEnd = terms.end(2);
+        }
+        failedArgument = 0;
+        failedSegment = -1;
+        directoryCount = 0;
+        depth = 0;
+    }
+
+    // Records that the command failed with outcome, because of segment of term argument, and returns outcome.
+    CommandOutcome fail(CommandOutcome outcome, int argument, int segment) {
+        this.outcome = outcome;
+        failedArgument = argument;
+        failedSegment = segment;
+        return outcome;
+    }
+
+    // Records that the option of LIST at term argument, whose keyword and value are command[start, end), is not valid,
+    // and returns INVALID_OPTION.
+    CommandOutcome failOption(int argument, int start, int end) {
+        optionStart = start;
+        optionEnd = end;
+        return fail(CommandOutcome.INVALID_OPTION, argument, -1);
+    }
+
+    // Records what a COUNT or DEPTH measured and returns SUCCESS.
+    CommandOutcome measured(long directoryCount, int depth) {
+        this.directoryCount = directoryCount;
+        this.depth = depth;
+        return CommandOutcome.SUCCESS;
+    }
+
+    private StringBuilder clearMessage() {
+        if (message == null) {
+            message = new StringBuilder();
+            segments = new CommandTokenizer();
+        }
+        message.setLength(0);
+        return message;
+    }
+
+    private StringBuilder formatMessage() {
+        clearMessage();
+        switch (outcome) {
+            case NO_COMMAND:
+                return message.append("No command given");
+            case INVALID_COMMAND:
+                return message.append("Cannot execute ").append(command).append(" - not a valid command");
+            case MISSING_ARGUMENT:
+                if (type == CommandType.CREATE) {
+                    return message.append("Cannot create directory - directory name not given");
+                } else if (type == CommandType.DELETE) {
+                    return message.append("Cannot delete directory - no directory given");
+                } else if (type == CommandType.FIND) {
+                    return message.append("Cannot find directories - no name given");
+                } else if (failedArgument == 1) {
+                    return message.append("Cannot move directory - no directories given");
+                }
+                return message.append("Cannot move ").append(command, firstStart, firstEnd).append(" - no destination given");
+            case TOO_MANY_ARGUMENTS:
+                if (type == CommandType.CREATE) {
+                    return message.append("Cannot create multiple directories");
+                } else if (type == CommandType.DELETE) {
+                    return message.append("Cannot delete multiple directories");
+                } else if (type == CommandType.COUNT) {
+                    return message.append("Cannot count multiple directories");
+                } else if (type == CommandType.DEPTH) {
+                    return message.append("Cannot measure multiple directories");
+                } else if (type == CommandType.FIND) {
+                    return message.append("Cannot find multiple names");
+                }
+                return message.append("Cannot move directory - too many directories");
+            case INVALID_OPTION:
+                // "Cannot list <directory> - <option> <value> is not a valid option", or "Cannot list directories - ..."
+                // without a directory.
+                message.append("Cannot list ");
+                if (failedArgument % 2 == 0) {
+                    message.append(command, firstStart, firstEnd);
+                } else {
+                    message.append("directories");
+                }
+                return message.append(" - ").append(command, optionStart, optionEnd).append(" is not a valid option");
+            case DOES_NOT_EXIST:
+                if (type == CommandType.MOVE) {
+                    // "Cannot move <source> to <destination> - <source or destination> does not exist"
+                    return moveError().append(command, failedArgument == 1 ? firstStart : secondStart, failedArgument == 1 ? firstEnd : secondEnd)
+                            .append(" does not exist");
+                }
+                // "Cannot create <name> - <name up to the missing directory> does not exist", and the same for DELETE,
+                // LIST, COUNT and DEPTH.
+                segments.splitPath(command, firstStart, firstEnd);
+                return message.append(verb()).append(command, firstStart, firstEnd)
+                        .append(" - ").append(command, firstStart, segments.end(failedSegment)).append(" does not exist");
+            case ALREADY_EXISTS:
+                if (type == CommandType.MOVE) {
+                    // "Cannot move <source> to <destination> - <destination>/<name> already exists"
+                    segments.splitPath(command, firstStart, firstEnd);
+                    return moveError().append(command, secondStart, secondEnd).append('/')
+                            .append(command, segments.start(failedSegment), segments.end(failedSegment)).append(" already exists");
+                }
+                // "Cannot create <name> - <name> already exists"
+                return message.append("Cannot create ").append(command, firstStart, firstEnd)
+                        .append(" - ").append(command, firstStart, firstEnd).append(" already exists");
+            case DESTINATION_WITHIN_SOURCE:
+                // "Cannot move <source> to <destination> - <destination> is within <source>"
+                return moveError().append(command, secondStart, secondEnd).append(" is within ").append(command, firstStart, firstEnd);
+            default:
+                throw new IllegalStateException("No message for " + outcome);
+        }
+    }
+
+    // "Cannot <verb> " for the commands that take a single directory name.
+    private String verb() {
+        switch (type) {
+            case CREATE:
+                return "Cannot create ";
+            case DELETE:
+                return "Cannot delete ";
+            case LIST:
+                return "Cannot list ";
+            case COUNT:
+                return "Cannot count ";
+            default:
+                return "Cannot measure ";
+        }
+    }
+
+    // "Cannot move <source> to <destination> - "
+    private StringBuilder moveError() {
+        return message.append("Cannot move ").append(command, firstStart, firstEnd)
+                .append(" to ").append(command, secondStart, secondEnd).append(" - ");
+    }
+}
@@ -0,0 +1,105 @@
+package src;
+
+import java.util.Arrays;
+
+// Splits a command into terms, or a directory name into path segments, in a single pass and without allocating.
+// Terms and segments are recorded as offsets into the tokenized CharSequence.
+//
+// The boundaries are the same as the ones String.split() produces: a command is split on every single white space
+// character (as with split("\\s")) and a directory name on every "/" (as with split("/")).
+// Empty terms in the middle are kept and trailing empty terms are dropped.
+// A tokenizer is reused across commands, so offsets are only valid until the next call to split.
+final class CommandTokenizer {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final CharSlice slice = new CharSlice();
+    private CharSequence source = "";
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int count;
+
+    // Splits the whole command on white space.
+    void splitTerms(CharSequence command) {
+        split(command, 0, command.length(), false);
+    }
+
+    // Splits source[start, end) on "/".
+    // A directory name made only of separators is treated as a single empty segment so there is always a last segment.
+    void splitPath(CharSequence source, int start, int end) {
+        split(source, start, end, true);
+        if (count == 0) {
+            add(start, start);
+        }
+    }
+
+    CharSequence source() {
+        return source;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return ends[index];
+    }
+
+    boolean isEmpty(int index) {
+        return starts[index] == ends[index];
+    }
+
+    boolean matches(int index, String value) {
+        return CharSlice.regionEquals(source, starts[index], ends[index], value, 0, value.length());
+    }
+
+    // Returns true if term or segment index of this tokenizer has the same characters as term or segment otherIndex of other.
+    boolean matches(int index, CommandTokenizer other, int otherIndex) {
+        return CharSlice.regionEquals(source, starts[index], ends[index], other.source, other.starts[otherIndex], other.ends[otherIndex]);
+    }
+
+    // Returns a view of term or segment index.
+    // The same view is returned on every call, so it is only valid until the next call to term().
+    CharSequence term(int index) {
+        return slice.reset(source, starts[index], ends[index]);
+    }
+
+    private void split(CharSequence source, int start, int end, boolean path) {
+        this.source = source;
+        count = 0;
+        int termStart = start;
+        for (int i = start; i < end; i++) {
+            if (path ? source.charAt(i) == '/' : isWhiteSpace(source.charAt(i))) {
+                add(termStart, i);
+                termStart = i + 1;
+            }
+        }
+        add(termStart, end);
+
+        // Input without any separator is kept as a single term, even when it is empty.
+        if (count > 1) {
+            while (count > 0 && starts[count - 1] == ends[count - 1]) {
+                count--;
+            }
+        }
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // The characters matched by the regular expression \s.
+    static boolean isWhiteSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,13 @@
+package src;
+
+// The commands accepted by the FileSystem implementations. INVALID covers every line that is not one of them.
+public enum CommandType {
+    CREATE,
+    MOVE,
+    LIST,
+    DELETE,
+    COUNT,
+    DEPTH,
+    FIND,
+    INVALID
+}
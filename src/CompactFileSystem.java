@@ -0,0 +1,626 @@
+package src;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+// A FileSystem for very large trees, which stores each directory in a few ints instead of objects.
+//
+// A directory is an int ID indexing parallel arrays: its parent, its first subdirectory, its next and previous sibling
+// and the ID of its name in a NameDictionary. The subdirectories of a directory form a doubly linked list through the
+// sibling arrays, and a single hash table over all directories, keyed by (parent, name), finds a subdirectory by name
+// without walking that list. That is about 26 bytes per directory plus its share of the name dictionary, compared to
+// well over 100 bytes for FileSystem's Subdirectory, TreeMap entry and String.
+//
+// New subdirectories are added to the front of their parent's list and the list is only sorted by the next LIST, so a
+// directory with many subdirectories is sorted once per LIST rather than on every CREATE or MOVE.
+//
+// Commands and output are exactly the same as FileSystem's.
+public class CompactFileSystem extends AbstractFileSystem {
+
+    private static final int NONE = -1;
+    private static final int ROOT = 0;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+    private final OutputSink output;
+    private final NameDictionary names = new NameDictionary();
+
+    // Indexed by directory ID. Freed IDs are chained through nextSibling, starting at freeList.
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+    private int[] previousSiblings = new int[INITIAL_CAPACITY];
+    private int[] nameIds = new int[INITIAL_CAPACITY];
+    // Bit i is set when the subdirectories of directory i may be out of order.
+    private long[] unsorted = new long[INITIAL_CAPACITY / 64];
+    private int capacity = INITIAL_CAPACITY;
+    // IDs below this have been used. Directories are only stored below it.
+    private int highWaterMark;
+    private int freeList = NONE;
+    private int directoryCount;
+
+    // Open addressing hash table with linear probing of directory ID + 1, where 0 is an empty slot.
+    // A directory is keyed by its parent and name ID, which are read from the arrays above.
+    private int[] childIndex = new int[INITIAL_CAPACITY * 2];
+
+    private final CommandTokenizer commandTerms = new CommandTokenizer();
+    private final CommandResult result = new CommandResult();
+    private final CommandTokenizer sourceTerms = new CommandTokenizer();
+    private final CommandTokenizer destinationTerms = new CommandTokenizer();
+    // Set by resolve() when a directory does not exist.
+    private int missingSegment;
+    private char[] outputBuffer = new char[OUTPUT_BUFFER_SIZE];
+
+    // Walks the directories for LIST with arguments. A sibling list has no index to seek in, so a cursor that names a
+    // directory that still exists continues from its next sibling, found with the child index, and only one that does
+    // not exist anymore is looked for by walking the sorted list.
+    private final ListPage.Tree<Integer> pageTree = new ListPage.Tree<Integer>() {
+        @Override
+        public Integer subdirectory(Integer directory, CharSequence name) {
+            int nameId = names.find(name, 0, name.length(), CharSlice.hashCode(name, 0, name.length(), 0));
+            int child = nameId == NONE ? NONE : findChild(directory, nameId);
+            return child == NONE ? null : child;
+        }
+
+        @Override
+        public ListPage.Subdirectories<Integer> subdirectoriesAfter(Integer directory, CharSequence name) {
+            int first = firstChild(directory);
+            if (name != null) {
+                Integer named = subdirectory(directory, name);
+                if (named != null) {
+                    first = nextSiblings[named];
+                } else {
+                    while (first != NONE && names.compare(nameIds[first], name) < 0) {
+                        first = nextSiblings[first];
+                    }
+                }
+            }
+            int start = first;
+            return new ListPage.Subdirectories<Integer>() {
+                private int next = start;
+                private int current = NONE;
+
+                @Override
+                boolean hasNext() {
+                    return next != NONE;
+                }
+
+                @Override
+                void next() {
+                    current = next;
+                    next = nextSiblings[current];
+                }
+
+                @Override
+                String name() {
+                    StringBuilder name = new StringBuilder(names.length(nameIds[current]));
+                    for (int i = 0; i < names.length(nameIds[current]); i++) {
+                        name.append(names.charAt(nameIds[current], i));
+                    }
+                    return name.toString();
+                }
+
+                @Override
+                Integer directory() {
+                    return current;
+                }
+            };
+        }
+    };
+
+    public CompactFileSystem() {
+        this(OutputSink.SYSTEM_OUT);
+    }
+
+    // All output, including the echoed commands, is written to output.
+    // The caller owns output and is responsible for flushing and closing it.
+    public CompactFileSystem(OutputSink output) {
+        this.output = output;
+        int root = allocate();
+        parents[root] = NONE;
+        nameIds[root] = NONE;
+    }
+
+    // command is assumed to be non-null.
+    // See AbstractFileSystem.execute() for the commands that are accepted.
+    public void executeCommand(CharSequence command) {
+        execute(command, commandTerms, result, output);
+    }
+
+    // Executes command like executeCommand(), but instead of echoing the command and printing the message of a failure,
+    // returns the result of the command. LIST still writes the directories to the output.
+    // The result is reused by the next command.
+    public CommandResult execute(CharSequence command) {
+        execute(command, commandTerms, result, null);
+        return result;
+    }
+
+    // Returns the number of directories, not counting the root.
+    public int directoryCount() {
+        return directoryCount;
+    }
+
+    // Returns the number of bytes held by the directory tree and the name dictionary.
+    // Dividing it by directoryCount() gives the bytes per directory.
+    public long memoryFootprint() {
+        long bytes = 4L * capacity * 5 + 8L * unsorted.length + 4L * childIndex.length;
+        return bytes + names.memoryFootprint();
+    }
+
+    @Override
+    CommandOutcome createDirectory(CharSequence command, int start, int end, CommandResult result) {
+        CommandTokenizer directoryNameTerms = sourceTerms;
+        directoryNameTerms.splitPath(command, start, end);
+        int last = directoryNameTerms.count() - 1;
+        int parent = resolve(directoryNameTerms, last);
+
+        if (parent == NONE) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+        }
+
+        int nameStart = directoryNameTerms.start(last);
+        int nameEnd = directoryNameTerms.end(last);
+        int hash = CharSlice.hashCode(command, nameStart, nameEnd, 0);
+        int nameId = names.find(command, nameStart, nameEnd, hash);
+        if (nameId != NONE && findChild(parent, nameId) != NONE) {
+            return result.fail(CommandOutcome.ALREADY_EXISTS, 1, last);
+        }
+
+        if (nameId == NONE) {
+            nameId = names.intern(command, nameStart, nameEnd, hash);
+        }
+        int directory = allocate();
+        nameIds[directory] = nameId;
+        firstChildren[directory] = NONE;
+        clearUnsorted(directory);
+        link(directory, parent);
+        directoryCount++;
+        return CommandOutcome.SUCCESS;
+    }
+
+    @Override
+    CommandOutcome moveDirectory(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd,
+            CommandResult result) {
+        CommandTokenizer source = sourceTerms;
+        source.splitPath(command, sourceStart, sourceEnd);
+        int sourceLast = source.count() - 1;
+        int sourceParent = resolve(source, sourceLast);
+        int moved = sourceParent == NONE ? NONE : findChild(sourceParent, source, sourceLast);
+
+        if (moved == NONE) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, sourceParent == NONE ? missingSegment : sourceLast);
+        }
+
+        CommandTokenizer destination = destinationTerms;
+        destination.splitPath(command, destinationStart, destinationEnd);
+        int destinationDirectory = resolve(destination, destination.count());
+
+        if (destinationDirectory == NONE) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 2, missingSegment);
+        }
+
+        if (isWithin(destination, source)) {
+            return result.fail(CommandOutcome.DESTINATION_WITHIN_SOURCE, 2, sourceLast);
+        }
+
+        if (findChild(destinationDirectory, nameIds[moved]) != NONE) {
+            return result.fail(CommandOutcome.ALREADY_EXISTS, 1, sourceLast);
+        }
+        unlink(moved);
+        link(moved, destinationDirectory);
+        return CommandOutcome.SUCCESS;
+    }
+
+    @Override
+    CommandOutcome deleteDirectory(CharSequence command, int start, int end, CommandResult result) {
+        CommandTokenizer directoryTerms = sourceTerms;
+        directoryTerms.splitPath(command, start, end);
+        int last = directoryTerms.count() - 1;
+        int parent = resolve(directoryTerms, last);
+        int deleted = parent == NONE ? NONE : findChild(parent, directoryTerms, last);
+
+        if (deleted == NONE) {
+            int missing = parent == NONE ? missingSegment : last;
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missing);
+        }
+
+        unlink(deleted);
+        // Frees the subtree without a stack: descend by taking the first subdirectory off the list of the current
+        // directory, and free a directory and go back up to its parent once its list is empty.
+        int directory = deleted;
+        while (true) {
+            int child = firstChildren[directory];
+            if (child != NONE) {
+                firstChildren[directory] = nextSiblings[child];
+                removeFromChildIndex(child);
+                directory = child;
+                continue;
+            }
+            int parentDirectory = parents[directory];
+            free(directory);
+            directoryCount--;
+            if (directory == deleted) {
+                break;
+            }
+            directory = parentDirectory;
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    // Lists the tree depth first without recursion, following the parent links back up, so any depth can be listed.
+    @Override
+    void listDirectories() {
+        int length = 0;
+        int depth = 0;
+        int directory = firstChild(ROOT);
+        while (directory != NONE) {
+            int lineLength = depth * 2 + names.length(nameIds[directory]) + LINE_SEPARATOR.length;
+            if (outputBuffer.length - length < lineLength) {
+                output.print(CharBuffer.wrap(outputBuffer), 0, length);
+                length = 0;
+                if (outputBuffer.length < lineLength) {
+                    outputBuffer = new char[lineLength];
+                }
+            }
+            Arrays.fill(outputBuffer, length, length + depth * 2, ' ');
+            length += depth * 2;
+            names.getChars(nameIds[directory], outputBuffer, length);
+            length += names.length(nameIds[directory]);
+            System.arraycopy(LINE_SEPARATOR, 0, outputBuffer, length, LINE_SEPARATOR.length);
+            length += LINE_SEPARATOR.length;
+
+            int child = firstChild(directory);
+            if (child != NONE) {
+                directory = child;
+                depth++;
+                continue;
+            }
+            while (directory != ROOT && nextSiblings[directory] == NONE) {
+                directory = parents[directory];
+                depth--;
+            }
+            directory = directory == ROOT ? NONE : nextSiblings[directory];
+        }
+        output.print(CharBuffer.wrap(outputBuffer), 0, length);
+    }
+
+    @Override
+    CommandOutcome listPage(ListPage page, CommandResult result) {
+        int directory = ROOT;
+        CommandTokenizer directoryTerms = sourceTerms;
+        if (page.splitDirectory(directoryTerms)) {
+            directory = resolve(directoryTerms, directoryTerms.count());
+            if (directory == NONE) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+            }
+        }
+        page.print(pageTree, directory, output);
+        return CommandOutcome.SUCCESS;
+    }
+
+    // The same walk as listDirectories(), building the path of every directory instead of its line.
+    @Override
+    void findDirectories(CharSequence command, int start, int end) {
+        printPaths("", command, start, end, false, output);
+    }
+
+    // Prints prefix followed by the path of every directory to target, parents first in the order LIST lists them, or
+    // only of the directories without subdirectories if leavesOnly is set. See LogCompactor.
+    void printPaths(String prefix, boolean leavesOnly, OutputSink target) {
+        printPaths(prefix, null, 0, 0, leavesOnly, target);
+    }
+
+    // Prints the paths of the directories whose names match pattern[start, end), or of all of them if pattern is null.
+    private void printPaths(String prefix, CharSequence pattern, int start, int end, boolean leavesOnly, OutputSink target) {
+        StringBuilder path = new StringBuilder(prefix);
+        CharSlice name = new CharSlice();
+        // pathLengths[depth] is the length of the path of the parent of the directories at that depth.
+        int[] pathLengths = new int[16];
+        pathLengths[0] = prefix.length();
+        int depth = 0;
+        int directory = firstChild(ROOT);
+        while (directory != NONE) {
+            path.setLength(pathLengths[depth]);
+            if (depth > 0) {
+                path.append('/');
+            }
+            int nameStart = path.length();
+            int nameId = nameIds[directory];
+            for (int i = 0; i < names.length(nameId); i++) {
+                path.append(names.charAt(nameId, i));
+            }
+            int child = firstChild(directory);
+            if ((pattern == null || matchesGlob(pattern, start, end, name.reset(path, nameStart, path.length())))
+                    && (!leavesOnly || child == NONE)) {
+                target.println(path);
+            }
+
+            if (child != NONE) {
+                if (++depth == pathLengths.length) {
+                    pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+                }
+                pathLengths[depth] = path.length();
+                directory = child;
+                continue;
+            }
+            while (directory != ROOT && nextSiblings[directory] == NONE) {
+                directory = parents[directory];
+                depth--;
+            }
+            directory = directory == ROOT ? NONE : nextSiblings[directory];
+        }
+    }
+
+    @Override
+    void measureTree(CommandMetrics metrics) {
+        long[] counts = new long[2];
+        measureSubtree(ROOT, counts);
+        metrics.updateTreeGauges(directoryCount, (int) counts[1]);
+    }
+
+    @Override
+    CommandOutcome measureDirectory(CharSequence command, int start, int end, CommandResult result) {
+        int directory = ROOT;
+        if (start >= 0) {
+            CommandTokenizer directoryTerms = sourceTerms;
+            directoryTerms.splitPath(command, start, end);
+            directory = resolve(directoryTerms, directoryTerms.count());
+            if (directory == NONE) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+            }
+        }
+        long[] counts = new long[2];
+        measureSubtree(directory, counts);
+        return result.measured(counts[0], (int) counts[1]);
+    }
+
+    // Sets counts[0] to the number of directories below top and counts[1] to how many levels deep they go.
+    // The same walk as listDirectories(), without sorting, and stopping at top instead of the root.
+    private void measureSubtree(int top, long[] counts) {
+        long count = 0;
+        int maxDepth = 0;
+        int depth = 0;
+        int directory = top;
+        while (true) {
+            if (firstChildren[directory] != NONE) {
+                directory = firstChildren[directory];
+                count++;
+                maxDepth = Math.max(maxDepth, ++depth);
+                continue;
+            }
+            while (directory != top && nextSiblings[directory] == NONE) {
+                directory = parents[directory];
+                depth--;
+            }
+            if (directory == top) {
+                break;
+            }
+            directory = nextSiblings[directory];
+            count++;
+        }
+        counts[0] = count;
+        counts[1] = maxDepth;
+    }
+
+    // Returns the directory named by the first count segments of path, or the root if count is 0.
+    // Returns NONE if one of the directories does not exist and sets missingSegment to the index of the first one.
+    private int resolve(CommandTokenizer path, int count) {
+        int directory = ROOT;
+        for (int i = 0; i < count; i++) {
+            directory = findChild(directory, path, i);
+            if (directory == NONE) {
+                missingSegment = i;
+                return NONE;
+            }
+        }
+        return directory;
+    }
+
+    // Returns the subdirectory of parent named by segment i of path, or NONE if there is none.
+    private int findChild(int parent, CommandTokenizer path, int i) {
+        CharSequence source = path.source();
+        int start = path.start(i);
+        int end = path.end(i);
+        int nameId = names.find(source, start, end, CharSlice.hashCode(source, start, end, 0));
+        return nameId == NONE ? NONE : findChild(parent, nameId);
+    }
+
+    private int findChild(int parent, int nameId) {
+        int mask = childIndex.length - 1;
+        for (int slot = childSlot(parent, nameId) & mask; childIndex[slot] != 0; slot = (slot + 1) & mask) {
+            int directory = childIndex[slot] - 1;
+            if (parents[directory] == parent && nameIds[directory] == nameId) {
+                return directory;
+            }
+        }
+        return NONE;
+    }
+
+    // Returns the first subdirectory of directory after putting its subdirectories in order if they are not already.
+    // A directory stays marked when all of its subdirectories are removed, so an empty list is not sorted.
+    private int firstChild(int directory) {
+        if (isUnsorted(directory)) {
+            if (firstChildren[directory] != NONE) {
+                sortChildren(directory);
+            }
+            clearUnsorted(directory);
+        }
+        return firstChildren[directory];
+    }
+
+    // Adds directory to the front of parent's subdirectories.
+    private void link(int directory, int parent) {
+        parents[directory] = parent;
+        int first = firstChildren[parent];
+        nextSiblings[directory] = first;
+        previousSiblings[directory] = NONE;
+        if (first != NONE) {
+            previousSiblings[first] = directory;
+            setUnsorted(parent);
+        }
+        firstChildren[parent] = directory;
+        addToChildIndex(directory);
+    }
+
+    // Removes directory from its parent's subdirectories. Its own subdirectories are untouched.
+    private void unlink(int directory) {
+        removeFromChildIndex(directory);
+        int next = nextSiblings[directory];
+        int previous = previousSiblings[directory];
+        if (previous == NONE) {
+            firstChildren[parents[directory]] = next;
+        } else {
+            nextSiblings[previous] = next;
+        }
+        if (next != NONE) {
+            previousSiblings[next] = previous;
+        }
+    }
+
+    // Sorts the list of subdirectories of directory by name with a bottom-up merge sort, which needs no extra space,
+    // and then restores the previous sibling links.
+    private void sortChildren(int directory) {
+        int list = firstChildren[directory];
+        for (int runLength = 1; ; runLength *= 2) {
+            int head = NONE;
+            int tail = NONE;
+            int merges = 0;
+            int a = list;
+            while (a != NONE) {
+                merges++;
+                int b = a;
+                int aLength = 0;
+                for (int i = 0; i < runLength && b != NONE; i++) {
+                    aLength++;
+                    b = nextSiblings[b];
+                }
+                int bLength = runLength;
+                while (aLength > 0 || (bLength > 0 && b != NONE)) {
+                    int next;
+                    if (aLength == 0) {
+                        next = b;
+                        b = nextSiblings[b];
+                        bLength--;
+                    } else if (bLength == 0 || b == NONE || names.compare(nameIds[a], nameIds[b]) <= 0) {
+                        next = a;
+                        a = nextSiblings[a];
+                        aLength--;
+                    } else {
+                        next = b;
+                        b = nextSiblings[b];
+                        bLength--;
+                    }
+                    if (tail == NONE) {
+                        head = next;
+                    } else {
+                        nextSiblings[tail] = next;
+                    }
+                    tail = next;
+                }
+                a = b;
+            }
+            nextSiblings[tail] = NONE;
+            list = head;
+            if (merges <= 1) {
+                break;
+            }
+        }
+
+        firstChildren[directory] = list;
+        int previous = NONE;
+        for (int child = list; child != NONE; child = nextSiblings[child]) {
+            previousSiblings[child] = previous;
+            previous = child;
+        }
+    }
+
+    private int allocate() {
+        int directory;
+        if (freeList != NONE) {
+            directory = freeList;
+            freeList = nextSiblings[directory];
+        } else {
+            if (highWaterMark == capacity) {
+                grow();
+            }
+            directory = highWaterMark++;
+        }
+        firstChildren[directory] = NONE;
+        return directory;
+    }
+
+    private void free(int directory) {
+        nextSiblings[directory] = freeList;
+        freeList = directory;
+    }
+
+    private void grow() {
+        capacity = capacity + (capacity >> 1);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        unsorted = Arrays.copyOf(unsorted, (capacity + 63) / 64);
+    }
+
+    private boolean isUnsorted(int directory) {
+        return (unsorted[directory >>> 6] & (1L << directory)) != 0;
+    }
+
+    private void setUnsorted(int directory) {
+        unsorted[directory >>> 6] |= 1L << directory;
+    }
+
+    private void clearUnsorted(int directory) {
+        unsorted[directory >>> 6] &= ~(1L << directory);
+    }
+
+    private static int childSlot(int parent, int nameId) {
+        return NameDictionary.mix(parent * 31 + nameId);
+    }
+
+    private void addToChildIndex(int directory) {
+        // Kept at most 3/4 full, which is about 5.3 bytes per directory.
+        if ((directoryCount + 1) * 4L > childIndex.length * 3L) {
+            int[] oldIndex = childIndex;
+            childIndex = new int[oldIndex.length * 2];
+            for (int entry : oldIndex) {
+                if (entry != 0) {
+                    insertIntoChildIndex(entry - 1);
+                }
+            }
+        }
+        insertIntoChildIndex(directory);
+    }
+
+    private void insertIntoChildIndex(int directory) {
+        int mask = childIndex.length - 1;
+        int slot = childSlot(parents[directory], nameIds[directory]) & mask;
+        while (childIndex[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        childIndex[slot] = directory + 1;
+    }
+
+    // Removes directory with backward shift deletion, so the table never fills up with deleted markers.
+    private void removeFromChildIndex(int directory) {
+        int mask = childIndex.length - 1;
+        int slot = childSlot(parents[directory], nameIds[directory]) & mask;
+        while (childIndex[slot] != directory + 1) {
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (slot = (slot + 1) & mask; childIndex[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = childIndex[slot] - 1;
+            int home = childSlot(parents[entry], nameIds[entry]) & mask;
+            // The entry can fill the hole if its home slot is not cyclically within (hole, slot].
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                childIndex[hole] = childIndex[slot];
+                hole = slot;
+            }
+        }
+        childIndex[hole] = 0;
+    }
+}
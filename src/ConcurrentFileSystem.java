@@ -0,0 +1,412 @@
+package src;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+// A FileSystem that many threads can execute commands on at the same time.
+// Accepts the same commands and prints the same messages as FileSystem. Every command behaves as if it ran on its own
+// at some point between its call and its return, and the output of each command is written to the sink in one piece.
+//
+// Only CREATE runs concurrently. Every other command takes the structure lock exclusively, so MOVE, DELETE, LIST,
+// COUNT, DEPTH and FIND run one at a time and stop every CREATE while they run, however small the subtree they touch.
+// LIST, COUNT, DEPTH and FIND also take every stripe lock. A mix with many of them scales no better than FileSystem.
+// CREATE throughput has only been measured on a single CPU, where it did not fall as threads were added. That does not
+// show that CREATEs speed up on more cores.
+//
+// Locking:
+// - Every directory's subdirectories are kept in a ConcurrentSkipListMap, so paths are resolved without locking.
+// - Changes to a directory's subdirectories are made while holding the stripe lock that directory hashes to.
+// - The structure lock guards against paths changing while they are in use. CREATE only takes an optimistic read stamp
+//   on it, so CREATEs into directories of different stripes share no lock and write no shared memory. MOVE, DELETE
+//   and LIST take it exclusively: MOVE and DELETE change what paths name and LIST must see a single consistent tree.
+//   So do COUNT, DEPTH and FIND, which walk the whole subtree they read.
+// - Locks are always acquired in the same order: the structure lock first, then stripe locks in ascending index.
+//   CREATE, which holds a stripe lock while validating its stamp, never waits for the structure lock while holding
+//   a stripe lock, so there are no cycles and no deadlocks.
+public class ConcurrentFileSystem extends AbstractFileSystem {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private static final class Subdirectory {
+
+        private final ConcurrentSkipListMap<CharSequence, Subdirectory> subdirectories = new ConcurrentSkipListMap<>(NAME_ORDER);
+    }
+
+    // Walks the directories for LIST, seeking with tailMap() to continue after a cursor.
+    private static final ListPage.Tree<Subdirectory> PAGE_TREE = new ListPage.Tree<Subdirectory>() {
+        @Override
+        public Subdirectory subdirectory(Subdirectory directory, CharSequence name) {
+            return directory.subdirectories.get(name);
+        }
+
+        @Override
+        public ListPage.Subdirectories<Subdirectory> subdirectoriesAfter(Subdirectory directory, CharSequence name) {
+            Iterator<Entry<CharSequence, Subdirectory>> entries = (name == null ? directory.subdirectories
+                    : directory.subdirectories.tailMap(name, false)).entrySet().iterator();
+            return new ListPage.Subdirectories<Subdirectory>() {
+                private Entry<CharSequence, Subdirectory> current;
+
+                @Override
+                boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                void next() {
+                    current = entries.next();
+                }
+
+                @Override
+                String name() {
+                    return current.getKey().toString();
+                }
+
+                @Override
+                Subdirectory directory() {
+                    return current.getValue();
+                }
+            };
+        }
+    };
+
+    // Scratch space for the commands of a single thread.
+    private static final class Worker {
+
+        private final CommandTokenizer commandTerms = new CommandTokenizer();
+        private final CommandTokenizer sourceTerms = new CommandTokenizer();
+        private final CommandTokenizer destinationTerms = new CommandTokenizer();
+        private final LineBuffer output = new LineBuffer();
+        private final CommandResult result = new CommandResult();
+        // Set by resolve() when a directory does not exist.
+        private int missingSegment;
+    }
+
+    private final Subdirectory root = new Subdirectory();
+    private final StampedLock structureLock = new StampedLock();
+    private final ReentrantLock[] stripes;
+    private final OutputSink output;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    public ConcurrentFileSystem() {
+        this(OutputSink.SYSTEM_OUT);
+    }
+
+    // The caller owns output and is responsible for flushing and closing it.
+    // output does not need to be thread-safe; it is only written to by one thread at a time.
+    public ConcurrentFileSystem(OutputSink output) {
+        this(output, DEFAULT_STRIPES);
+    }
+
+    // stripeCount is rounded up to a power of two.
+    public ConcurrentFileSystem(OutputSink output, int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive.");
+        }
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.output = output;
+    }
+
+    // command is assumed to be non-null.
+    // See AbstractFileSystem.execute() for the commands that are accepted.
+    public void executeCommand(CharSequence command) {
+        Worker worker = workers.get();
+        execute(command, worker.commandTerms, worker.result, worker.output);
+        synchronized (output) {
+            worker.output.writeTo(output);
+        }
+    }
+
+    // Executes command like executeCommand(), but instead of echoing the command and printing the message of a failure,
+    // returns the result of the command. LIST still writes the directories to the output.
+    // Every thread has a result of its own, which is reused by its next command.
+    public CommandResult execute(CharSequence command) {
+        Worker worker = workers.get();
+        execute(command, worker.commandTerms, worker.result, null);
+        synchronized (output) {
+            worker.output.writeTo(output);
+        }
+        return worker.result;
+    }
+
+    // Executes command and writes its output to destination instead of this file system's output.
+    void executeCommand(CharSequence command, OutputSink destination) {
+        Worker worker = workers.get();
+        execute(command, worker.commandTerms, worker.result, worker.output);
+        worker.output.writeTo(destination);
+    }
+
+    @Override
+    CommandOutcome createDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        CommandTokenizer directoryNameTerms = worker.sourceTerms;
+        directoryNameTerms.splitPath(command, start, end);
+        int last = directoryNameTerms.count() - 1;
+
+        long stamp = structureLock.tryOptimisticRead();
+        boolean optimistic = true;
+        try {
+            while (true) {
+                Subdirectory parent = resolve(worker, directoryNameTerms, last);
+                if (parent == null) {
+                    if (!optimistic || structureLock.validate(stamp)) {
+                        return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+                    }
+                } else {
+                    ReentrantLock stripe = stripeOf(parent);
+                    stripe.lock();
+                    try {
+                        if (!optimistic || structureLock.validate(stamp)) {
+                            CharSequence subdirectoryName = directoryNameTerms.term(last);
+                            if (parent.subdirectories.containsKey(subdirectoryName)) {
+                                return result.fail(CommandOutcome.ALREADY_EXISTS, 1, last);
+                            }
+                            parent.subdirectories.put(subdirectoryName.toString(), new Subdirectory());
+                            return CommandOutcome.SUCCESS;
+                        }
+                    } finally {
+                        stripe.unlock();
+                    }
+                }
+
+                // A MOVE, DELETE or LIST ran while the path was being resolved. Wait for it and try again.
+                stamp = structureLock.readLock();
+                optimistic = false;
+            }
+        } finally {
+            if (!optimistic) {
+                structureLock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Override
+    CommandOutcome moveDirectory(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd,
+            CommandResult result) {
+        Worker worker = workers.get();
+        long stamp = structureLock.writeLock();
+        try {
+            CommandTokenizer source = worker.sourceTerms;
+            source.splitPath(command, sourceStart, sourceEnd);
+            int sourceLast = source.count() - 1;
+            Subdirectory sourceParent = resolve(worker, source, sourceLast);
+
+            if (sourceParent == null || !sourceParent.subdirectories.containsKey(source.term(sourceLast))) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, sourceParent == null ? worker.missingSegment : sourceLast);
+            }
+
+            CommandTokenizer destination = worker.destinationTerms;
+            destination.splitPath(command, destinationStart, destinationEnd);
+            Subdirectory destinationSubdirectory = resolve(worker, destination, destination.count());
+
+            if (destinationSubdirectory == null) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 2, worker.missingSegment);
+            }
+
+            if (isWithin(destination, source)) {
+                return result.fail(CommandOutcome.DESTINATION_WITHIN_SOURCE, 2, sourceLast);
+            }
+
+            // CREATEs that validated their stamp before the write lock was taken may still be adding to either directory.
+            ReentrantLock first = stripeOf(sourceParent);
+            ReentrantLock second = stripeOf(destinationSubdirectory);
+            if (stripeIndex(sourceParent) > stripeIndex(destinationSubdirectory)) {
+                ReentrantLock swap = first;
+                first = second;
+                second = swap;
+            }
+            first.lock();
+            second.lock();
+            try {
+                CharSequence finalSourceTerm = source.term(sourceLast);
+                if (destinationSubdirectory.subdirectories.containsKey(finalSourceTerm)) {
+                    return result.fail(CommandOutcome.ALREADY_EXISTS, 1, sourceLast);
+                }
+                String name = finalSourceTerm.toString();
+                destinationSubdirectory.subdirectories.put(name, sourceParent.subdirectories.remove(name));
+                return CommandOutcome.SUCCESS;
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    void listDirectories() {
+        listPage(ListPage.ALL, workers.get().result);
+    }
+
+    // Takes the same locks as MOVE, so the page is of a single consistent tree.
+    @Override
+    CommandOutcome listPage(ListPage page, CommandResult result) {
+        Worker worker = workers.get();
+        long stamp = structureLock.writeLock();
+        try {
+            Subdirectory directory = root;
+            CommandTokenizer directoryTerms = worker.sourceTerms;
+            if (page.splitDirectory(directoryTerms)) {
+                directory = resolve(worker, directoryTerms, directoryTerms.count());
+                if (directory == null) {
+                    return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+                }
+            }
+            lockAllStripes();
+            try {
+                page.print(PAGE_TREE, directory, worker.output);
+                return CommandOutcome.SUCCESS;
+            } finally {
+                unlockAllStripes();
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    void findDirectories(CharSequence command, int start, int end) {
+        Worker worker = workers.get();
+        long stamp = structureLock.writeLock();
+        try {
+            lockAllStripes();
+            try {
+                findHelper(worker.output, root, new StringBuilder(), command, start, end);
+            } finally {
+                unlockAllStripes();
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    // path holds the path of currentLevel, which is empty for the root.
+    private static void findHelper(OutputSink output, Subdirectory currentLevel, StringBuilder path, CharSequence pattern, int start, int end) {
+        int length = path.length();
+        for (Entry<CharSequence, Subdirectory> directory : currentLevel.subdirectories.entrySet()) {
+            if (length > 0) {
+                path.append('/');
+            }
+            path.append(directory.getKey());
+            if (matchesGlob(pattern, start, end, directory.getKey())) {
+                output.println(path);
+            }
+            findHelper(output, directory.getValue(), path, pattern, start, end);
+            path.setLength(length);
+        }
+    }
+
+    @Override
+    CommandOutcome measureDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        long stamp = structureLock.writeLock();
+        try {
+            Subdirectory directory = root;
+            if (start >= 0) {
+                CommandTokenizer directoryTerms = worker.sourceTerms;
+                directoryTerms.splitPath(command, start, end);
+                directory = resolve(worker, directoryTerms, directoryTerms.count());
+                if (directory == null) {
+                    return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+                }
+            }
+            lockAllStripes();
+            try {
+                long[] counts = new long[2];
+                measureHelper(directory, 0, counts);
+                return result.measured(counts[0], (int) counts[1]);
+            } finally {
+                unlockAllStripes();
+            }
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    // Adds the number of directories below directory, which is depth levels below the one being measured, to counts[0]
+    // and raises counts[1] to the depth of the deepest one.
+    private static void measureHelper(Subdirectory directory, int depth, long[] counts) {
+        counts[1] = Math.max(counts[1], depth);
+        for (Subdirectory subdirectory : directory.subdirectories.values()) {
+            counts[0]++;
+            measureHelper(subdirectory, depth + 1, counts);
+        }
+    }
+
+    // Waits for CREATEs that validated their stamp before the write lock was taken. Called with the write lock held.
+    private void lockAllStripes() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAllStripes() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    @Override
+    CommandOutcome deleteDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        long stamp = structureLock.writeLock();
+        try {
+            CommandTokenizer directoryTerms = worker.sourceTerms;
+            directoryTerms.splitPath(command, start, end);
+            int last = directoryTerms.count() - 1;
+            Subdirectory parent = resolve(worker, directoryTerms, last);
+            Subdirectory deleted = null;
+            if (parent != null) {
+                // CREATEs that validated their stamp before the write lock was taken may still be adding to parent.
+                ReentrantLock stripe = stripeOf(parent);
+                stripe.lock();
+                try {
+                    deleted = parent.subdirectories.remove(directoryTerms.term(last));
+                } finally {
+                    stripe.unlock();
+                }
+            }
+
+            if (deleted == null) {
+                int missing = parent == null ? worker.missingSegment : last;
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missing);
+            }
+            return CommandOutcome.SUCCESS;
+        } finally {
+            structureLock.unlockWrite(stamp);
+        }
+    }
+
+    // Returns the directory named by the first count segments of path, or the root if count is 0.
+    // Returns null if one of the directories does not exist and sets the worker's missingSegment to the index of the first one.
+    private Subdirectory resolve(Worker worker, CommandTokenizer path, int count) {
+        Subdirectory directory = root;
+        for (int i = 0; i < count; i++) {
+            directory = directory.subdirectories.get(path.term(i));
+            if (directory == null) {
+                worker.missingSegment = i;
+                return null;
+            }
+        }
+        return directory;
+    }
+
+    private int stripeIndex(Subdirectory directory) {
+        int hash = System.identityHashCode(directory);
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    private ReentrantLock stripeOf(Subdirectory directory) {
+        return stripes[stripeIndex(directory)];
+    }
+}
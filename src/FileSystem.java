@@ -1,209 +1,1217 @@
 package src;
 
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.Map.Entry;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 // Maintains a collection of Directories.
 // Accepts commands via executeCommand() which executes various READ/WRITE commands on the FileSystem.
 //
 // Directories are individually identified by their names within a specific base directory.
 // Directory names do not include white space.
-public class FileSystem {
+public class FileSystem extends AbstractFileSystem {
 
     // Subdirectories of a directory. Contains the names of the subdirectories and a collection of subdirectories for those subdirectories.
     private static class Subdirectory {
 
-        private SortedMap<String, Subdirectory> subdirectories;
+        private ChildMap<Subdirectory> subdirectories = ChildMap.empty();
+        // null for the root.
+        private Subdirectory parent;
+        // The name of this directory, which never changes, not even when it is moved. null for the root.
+        private final String name;
+        // Set while this directory is deleted, which is until the batch that deleted it is rolled back, if ever.
+        // Its subdirectories are not marked.
+        private boolean deleted;
+        // Where this directory is among the directories with its name in the NameIndex.
+        private int nameSlot;
+        // The path cache generation in which this directory was last moved or deleted.
+        private long detachedGeneration;
+        // Where this directory's lines, its own and its subdirectories', are in the listing: listingOffset is relative to
+        // where its parent's lines start. listingLength is -1 if its lines are not in the listing, because it is new or was
+        // moved. If listingDirty is set, one of its subdirectories has changed since the listing was rendered.
+        // A dirty directory's parents are always dirty too.
+        private int listingOffset;
+        private int listingLength = -1;
+        private boolean listingDirty;
+        // The number of directories below this one, and how many levels deep they go: 0 without subdirectories, and
+        // otherwise one more than the height of the tallest subdirectory. tallestCount is the number of subdirectories
+        // that are that tall. Kept up to date by every change, so COUNT and DEPTH only have to find the directory.
+        // A directory that is moved or deleted keeps its own, since nothing below it changes.
+        private int descendantCount;
+        private int height;
+        private int tallestCount;
 
-        private Subdirectory() {
-            subdirectories = new TreeMap<>();
+        private Subdirectory(Subdirectory parent, String name) {
+            this.parent = parent;
+            this.name = name;
         }
     }
 
-    private SortedMap<String, Subdirectory> directories;
+    // A change made by a command of a batch, with what is needed to undo it and to tell the change listeners about it once
+    // the batch is committed. command[start, end) and command[destinationStart, destinationEnd) are the command's
+    // arguments. directory was created, moved or deleted and name is its name; parent is the directory it was created in,
+    // deleted from or moved out of, and destination is the one it was moved into.
+    private static final class Change {
 
-    public FileSystem() {
-        directories = new TreeMap<>();
+        private final CommandType type;
+        private final CharSequence command;
+        private final int start;
+        private final int end;
+        private final int destinationStart;
+        private final int destinationEnd;
+        private final Subdirectory directory;
+        private final String name;
+        private final Subdirectory parent;
+        private final Subdirectory destination;
+
+        private Change(CommandType type, CharSequence command, int start, int end, int destinationStart, int destinationEnd,
+                Subdirectory directory, String name, Subdirectory parent, Subdirectory destination) {
+            this.type = type;
+            this.command = command;
+            this.start = start;
+            this.end = end;
+            this.destinationStart = destinationStart;
+            this.destinationEnd = destinationEnd;
+            this.directory = directory;
+            this.name = name;
+            this.parent = parent;
+            this.destination = destination;
+        }
     }
 
-    // command is assumed to be non-null.
-    // All white space is stripped when parsing command.
-    // A valid command is of the form "<COMMAND> <ARG1> <ARG2> ..." where the number of args depends on the command.
-    // Valid commands are: CREATE, MOVE, LIST, DELETE. Commands must be all uppercase.
-    // Directory names are of the form <directory>/<subdirectory>/<subdirectory>/...
-    public void executeCommand(String command) {
-        System.out.println(command);
-        String[] commandTerms = command.split("\\s");
-
-        switch(commandTerms[0]) {
-            case "CREATE":
-                if (commandTerms.length == 1) {
-                    System.out.println("Cannot create directory - directory name not given");
-                } else if (commandTerms.length > 2) {
-                    System.out.println("Cannot create multiple directories");
-                } else {
-                    createDirectory(commandTerms[1]);
-                }
-                break;
-            case "MOVE":
-                if (commandTerms.length == 1) {
-                    System.out.println("Cannot move directory - no directories given");
-                } else if (commandTerms.length == 2) {
-                    System.out.println("Cannot move " + commandTerms[1] + " - no destination given");
-                } else if (commandTerms.length > 3) {
-                    System.out.println("Cannot move directory - too many directories");
-                } else {
-                    moveDirectory(commandTerms[1], commandTerms[2]);
+    // One level of renderSubdirectories()' walk: the subdirectories of a directory that are being rendered, where the
+    // directory's lines start in nextListing and in listing, and the subdirectory being rendered below it and where its
+    // lines start.
+    private static final class RenderLevel {
+        private ChildMap.Cursor<Subdirectory> cursor;
+        private int directoryStart;
+        private int previousStart;
+        private Subdirectory subdirectory;
+        private int start;
+    }
+
+    // Walks the directories for LIST with arguments.
+    private static final ListPage.Tree<Subdirectory> PAGE_TREE = new ListPage.Tree<Subdirectory>() {
+        @Override
+        public Subdirectory subdirectory(Subdirectory directory, CharSequence name) {
+            return directory.subdirectories.get(name);
+        }
+
+        @Override
+        public ListPage.Subdirectories<Subdirectory> subdirectoriesAfter(Subdirectory directory, CharSequence name) {
+            ChildMap.Cursor<Subdirectory> cursor = name == null ? directory.subdirectories.cursor()
+                    : directory.subdirectories.cursorAfter(name);
+            return new ListPage.Subdirectories<Subdirectory>() {
+                @Override
+                boolean hasNext() {
+                    return cursor.hasNext();
                 }
-                break;
-            case "LIST":
-                if (commandTerms.length != 1) {
-                    System.out.println("Cannot list specific directories");
-                } else {
-                    listDirectories();
-                }
-                break;
-            case "DELETE":
-                if (commandTerms.length == 1) {
-                    System.out.println("Cannot delete directory - no directory given");
-                } else if (commandTerms.length > 2) {
-                    System.out.println("Cannot delete multiple directories");
+
+                @Override
+                void next() {
+                    cursor.next();
+                }
+
+                @Override
+                String name() {
+                    return cursor.name();
+                }
+
+                @Override
+                Subdirectory directory() {
+                    return cursor.value();
+                }
+            };
+        }
+    };
+
+    // The directories of each name, for FIND, so that it does not have to walk the tree.
+    // The index is built by the first FIND, with a single walk of the tree, and kept up to date by every change from then
+    // on, so a FileSystem that is never searched does not pay for it in memory, CREATE time or garbage collection.
+    //
+    // A hash map from each name to its only directory, or to a Bucket when there are several, answers a pattern without
+    // wildcards with a single lookup. Every directory knows its slot in its bucket, so adding or removing one is O(1).
+    // A directory's name never changes, so a moved directory, with everything below it, stays in the index as it is.
+    //
+    // For patterns with wildcards the names are also kept in a sorted array, where the names that start with the literal
+    // prefix of the pattern are found with a binary search, as in a prefix trie. So that CREATE does not pay for keeping it
+    // sorted, names that are new to the index are only appended to a second array, which is sorted and merged into the
+    // first before a search, or once it is as long as the first. Names that leave the index are dropped by the next merge.
+    private static final class NameIndex {
+
+        private static final int MIN_MERGE = 1 << 10;
+
+        private static final class Bucket {
+
+            private Subdirectory[] directories = new Subdirectory[4];
+            private int size;
+        }
+
+        private final HashMap<String, Object> directories = new HashMap<>();
+        // Every name in directories, in NAME_ORDER, and also names removed since the last merge.
+        private String[] sorted = new String[0];
+        private int sortedSize;
+        // Names added to directories since the last merge, in any order.
+        private String[] added = new String[16];
+        private int addedSize;
+        private int removedSinceMerge;
+        private final CharSlice key = new CharSlice();
+
+        private void add(Subdirectory directory) {
+            Object value = directories.putIfAbsent(directory.name, directory);
+            if (value == null) {
+                directory.nameSlot = 0;
+                if (addedSize == added.length) {
+                    added = Arrays.copyOf(added, addedSize * 2);
+                }
+                added[addedSize++] = directory.name;
+                if (addedSize > Math.max(MIN_MERGE, sortedSize)) {
+                    merge();
+                }
+                return;
+            }
+            Bucket bucket;
+            if (value instanceof Subdirectory) {
+                bucket = new Bucket();
+                bucket.directories[0] = (Subdirectory) value;
+                bucket.size = 1;
+                directories.put(directory.name, bucket);
+            } else {
+                bucket = (Bucket) value;
+                if (bucket.size == bucket.directories.length) {
+                    bucket.directories = Arrays.copyOf(bucket.directories, bucket.size * 2);
+                }
+            }
+            directory.nameSlot = bucket.size;
+            bucket.directories[bucket.size++] = directory;
+        }
+
+        private void remove(Subdirectory directory) {
+            Object value = directories.get(directory.name);
+            if (value == directory) {
+                directories.remove(directory.name);
+                removedSinceMerge++;
+                return;
+            }
+            // The last directory takes the slot of the removed one.
+            Bucket bucket = (Bucket) value;
+            Subdirectory last = bucket.directories[--bucket.size];
+            bucket.directories[directory.nameSlot] = last;
+            last.nameSlot = directory.nameSlot;
+            bucket.directories[bucket.size] = null;
+            if (bucket.size == 1) {
+                directories.put(directory.name, bucket.directories[0]);
+            }
+        }
+
+        // Adds the directories whose name matches the pattern command[start, end) to matches, including deleted ones.
+        private void find(CharSequence command, int start, int end, List<Subdirectory> matches) {
+            int prefixLength = literalPrefixLength(command, start, end);
+            if (prefixLength == end - start) {
+                addDirectories(directories.get(key.reset(command, start, end)), matches);
+                return;
+            }
+            merge();
+            int prefixEnd = start + prefixLength;
+            CharSequence prefix = key.reset(command, start, prefixEnd);
+            // The first name that is not less than the prefix.
+            int low = 0;
+            int high = sortedSize;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (CharSequence.compare(sorted[middle], prefix) < 0) {
+                    low = middle + 1;
                 } else {
-                    deleteDirectory(commandTerms[1]);
-                }
-                break;
-            case "":
-                System.out.println("No command given");
-                break;
-            default:
-                System.out.println("Cannot execute " + command + " - not a valid command");
-        }
-    }
-    
-    // Creates a single directory.
-    private void createDirectory(String directoryName) {
-        String[] directoryNameTerms = directoryName.split("/");
-        SortedMap<String, Subdirectory> currentDirectory = directories;
-        String subdirectoryName = directoryNameTerms[0];  // guaranteed to bed set in while loop. Just need to initialize value.
-        int i = 1;
-        while (i < directoryNameTerms.length) {
-            Subdirectory subdirectory = currentDirectory.get(subdirectoryName);
-            if (subdirectory == null) {
-                break;
+                    high = middle;
+                }
+            }
+            for (int i = low; i < sortedSize; i++) {
+                String name = sorted[i];
+                if (name.length() < prefixLength || !CharSlice.regionEquals(name, 0, prefixLength, command, start, prefixEnd)) {
+                    break;
+                }
+                if (matchesGlob(command, start, end, name)) {
+                    addDirectories(directories.get(name), matches);
+                }
             }
-            subdirectoryName = directoryNameTerms[i];
-            currentDirectory = subdirectory.subdirectories;
-            i++;
         }
 
-        if (i == directoryNameTerms.length) {
+        // Sorts the added names into sorted, dropping names that are no longer in the index and duplicates of names that
+        // were removed and added again.
+        private void merge() {
+            if (addedSize == 0 && removedSinceMerge == 0) {
+                return;
+            }
+            Arrays.sort(added, 0, addedSize);
+            String[] merged = new String[Math.max(directories.size(), 16)];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < sortedSize || j < addedSize) {
+                String name = j == addedSize || i < sortedSize && sorted[i].compareTo(added[j]) <= 0 ? sorted[i++] : added[j++];
+                if (size > 0 && merged[size - 1].equals(name) || removedSinceMerge > 0 && !directories.containsKey(name)) {
+                    continue;
+                }
+                merged[size++] = name;
+            }
+            sorted = merged;
+            sortedSize = size;
+            Arrays.fill(added, 0, addedSize, null);
+            addedSize = 0;
+            removedSinceMerge = 0;
+        }
+
+        private static void addDirectories(Object value, List<Subdirectory> matches) {
+            if (value instanceof Subdirectory) {
+                matches.add((Subdirectory) value);
+            } else if (value != null) {
+                Bucket bucket = (Bucket) value;
+                matches.addAll(Arrays.asList(bucket.directories).subList(0, bucket.size));
+            }
+        }
+    }
 
-            if (currentDirectory.containsKey(subdirectoryName)) {
-                System.out.println("Cannot create " + directoryName + " - " + directoryName + " already exists");
+    // Deleted directories stay in the name index until this many directories are waiting to be swept, or as many as half
+    // of the directories in the tree, whichever is more. That makes DELETE O(path) however big the deleted subtree is,
+    // and sweeping costs O(1) per deleted directory.
+    private static final long MIN_UNSWEPT = 1 << 10;
+
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+    // Holds the top level directories. It is never moved or deleted.
+    private final Subdirectory root;
+
+    // The output of the last LIST, and the buffer the next one is rendered into.
+    private char[] listing = new char[0];
+    private int listingLength;
+    private char[] nextListing = new char[0];
+    private int nextListingLength;
+    // Two spaces for each level of indentation, sliced for every line instead of being built up space by space.
+    private char[] indentation = new char[64];
+    // The stack of renderSubdirectories(), grown to the depth of the deepest directory rendered.
+    private RenderLevel[] renderLevels = new RenderLevel[0];
+
+    // The caller's output, or batchOutput while a batch is executing.
+    private OutputSink output;
+    private ChangeListener[] changeListeners = new ChangeListener[0];
+
+    // The changes made by the batch that is executing, in order, or null outside of a batch.
+    private List<Change> undoLog;
+    private final LineBuffer batchOutput = new LineBuffer();
+
+    // null if path caching is disabled.
+    private final PathCache<Subdirectory> pathCache;
+
+    // null until the first FIND, which builds it. See NameIndex.
+    private NameIndex nameIndex;
+    // Deleted directories whose subtrees are still in the name index, and the number of directories in those subtrees.
+    // Only directories whose deletion can no longer be rolled back are added.
+    private final List<Subdirectory> unswept = new ArrayList<>();
+    private long unsweptCount;
+    // Scratch space for FIND.
+    private final List<Subdirectory> matches = new ArrayList<>();
+    private Subdirectory[] matchChain = new Subdirectory[16];
+    private final StringBuilder matchPath = new StringBuilder();
+
+    // Reused for every command so that parsing does not allocate.
+    private final CommandTokenizer commandTerms = new CommandTokenizer();
+    private final CommandResult result = new CommandResult();
+    private final CommandTokenizer sourceTerms = new CommandTokenizer();
+    private final CommandTokenizer destinationTerms = new CommandTokenizer();
+    private int[] prefixHashes = new int[16];
+    // Set by resolve() when a directory does not exist.
+    private int missingSegment;
+
+    public FileSystem() {
+        this(OutputSink.SYSTEM_OUT);
+    }
+
+    // All output, including the echoed commands, is written to output.
+    // The caller owns output and is responsible for flushing and closing it.
+    public FileSystem(OutputSink output) {
+        this(output, 0);
+    }
+
+    // pathCacheCapacity is the number of resolved directory paths to cache, or 0 to disable the path cache.
+    // The cache pays off for deep paths that are used repeatedly, since every cached level saves a child map lookup.
+    public FileSystem(OutputSink output, int pathCacheCapacity) {
+        if (pathCacheCapacity < 0) {
+            throw new IllegalArgumentException("Path cache capacity must not be negative.");
+        }
+        root = new Subdirectory(null, null);
+        root.listingDirty = true;
+        Arrays.fill(indentation, ' ');
+        this.output = output;
+        pathCache = pathCacheCapacity == 0 ? null : new PathCache<>(pathCacheCapacity, FileSystem::isAttachedSince);
+    }
+
+    // Returns the counters of the path cache, or CacheStatistics.EMPTY if path caching is disabled.
+    public CacheStatistics pathCacheStatistics() {
+        return pathCache == null ? CacheStatistics.EMPTY : pathCache.statistics();
+    }
+
+    // listener is told about every change from now on.
+    void addChangeListener(ChangeListener listener) {
+        changeListeners = Arrays.copyOf(changeListeners, changeListeners.length + 1);
+        changeListeners[changeListeners.length - 1] = listener;
+    }
+
+    // Publishes every change from now on to feed. Only this FileSystem's thread may write to feed.
+    public void addChangeFeed(ChangeFeed feed) {
+        addChangeListener(feed);
+    }
+
+    // command is assumed to be non-null.
+    // See AbstractFileSystem.execute() for the commands that are accepted.
+    public void executeCommand(CharSequence command) {
+        execute(command, commandTerms, result, output);
+    }
+
+    // Executes command like executeCommand(), but instead of echoing the command and printing the message of a failure,
+    // returns the result of the command. LIST still writes the directories to the output.
+    // The result is reused by the next command.
+    public CommandResult execute(CharSequence command) {
+        execute(command, commandTerms, result, null);
+        return result;
+    }
+
+    // Executes commands in order as a single transaction: either all of them take effect or none of them do.
+    // If every command succeeds, the batch is committed and the output of all the commands is written to the output.
+    // As soon as a command fails or is malformed, the changes already made by the batch are undone in reverse order and
+    // nothing is written. Undoing a change costs about as much as making it, so a rollback takes time proportional to the
+    // size of the batch, not of the tree.
+    // LIST is allowed and lists the directories as they are at that point of the batch.
+    // Returns -1 if the batch was committed, or the index of the command that failed.
+    //
+    // Change listeners are only told about the changes when the batch commits, with the ranges of the commands in the
+    // batch, so the commands must not change until this returns. They are told between changesStarted() and
+    // changesEnded(), so that a FileSystemStore logs the batch as a unit and recovers all of it or none.
+    public int executeBatch(List<? extends CharSequence> commands) {
+        OutputSink target = output;
+        List<Change> changes = new ArrayList<>();
+        undoLog = changes;
+        output = batchOutput;
+        int failed = -1;
+        boolean committed = false;
+        try {
+            for (int i = 0; i < commands.size() && failed < 0; i++) {
+                if (execute(commands.get(i), commandTerms, result, output) != CommandOutcome.SUCCESS) {
+                    failed = i;
+                }
+            }
+            committed = failed < 0;
+        } finally {
+            // Also rolls back if a command threw.
+            undoLog = null;
+            output = target;
+            if (!committed) {
+                rollBack(changes);
             } else {
-                currentDirectory.put(subdirectoryName, new Subdirectory());
+                batchOutput.writeTo(output);
+                // The tree already holds every change of the batch while the listeners are told of them one by one.
+                for (ChangeListener listener : changeListeners) {
+                    listener.changesStarted();
+                }
+                for (Change change : changes) {
+                    if (change.type == CommandType.DELETE) {
+                        sweepLater(change.directory);
+                    }
+                    notifyChangeListeners(change);
+                }
+                for (ChangeListener listener : changeListeners) {
+                    listener.changesEnded();
+                }
             }
-        } else {
-            StringBuilder baseDirectoryBuilder = new StringBuilder(directoryNameTerms[0]);
-            for (int j = 1; j < i; j++) {
-                baseDirectoryBuilder.append(directoryNameTerms[j]);
+            batchOutput.clear();
+        }
+        return failed;
+    }
+
+    // Undoes changes, last first.
+    private void rollBack(List<Change> changes) {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change change = changes.get(i);
+            Subdirectory directory = change.directory;
+            switch (change.type) {
+                case CREATE:
+                    change.parent.subdirectories = change.parent.subdirectories.remove(change.name);
+                    removeAggregates(change.parent, directory);
+                    if (nameIndex != null) {
+                        nameIndex.remove(directory);
+                    }
+                    detach(directory);
+                    break;
+                case MOVE:
+                    change.destination.subdirectories = change.destination.subdirectories.remove(change.name);
+                    removeAggregates(change.destination, directory);
+                    markListingDirty(change.destination);
+                    detach(directory);
+                    directory.parent = change.parent;
+                    change.parent.subdirectories = change.parent.subdirectories.put(change.name, directory);
+                    addAggregates(change.parent, directory);
+                    directory.listingLength = -1;
+                    break;
+                case DELETE:
+                    // A deleted directory keeps its parent and subdirectories, and was detached when it was deleted.
+                    change.parent.subdirectories = change.parent.subdirectories.put(change.name, directory);
+                    addAggregates(change.parent, directory);
+                    directory.deleted = false;
+                    directory.listingLength = -1;
+                    break;
+                default:
+                    throw new IllegalStateException("Cannot undo " + change.type);
             }
-            System.out.println("Cannot create " + directoryName + " - " + baseDirectoryBuilder.toString() + " does not exist");
+            markListingDirty(change.parent);
         }
     }
 
-    // Move the source directory to the destination directory as a new subdirectory.
-    private void moveDirectory(String source, String destination) {
-        SortedMap<String, Subdirectory> sourceDirectory = directories;
-        String[] sourceTerms = source.split("/");
-        boolean foundDirectory = true;
-        for (int i = 0; i < sourceTerms.length - 1; i++) {
-            Subdirectory subdirectory = directories.get(sourceTerms[i]);
-            if (subdirectory == null) {
-                foundDirectory = false;
-                break;
+    private void notifyChangeListeners(Change change) {
+        for (ChangeListener listener : changeListeners) {
+            switch (change.type) {
+                case CREATE:
+                    listener.created(change.command, change.start, change.end);
+                    break;
+                case MOVE:
+                    listener.moved(change.command, change.start, change.end, change.destinationStart, change.destinationEnd);
+                    break;
+                case DELETE:
+                    listener.deleted(change.command, change.start, change.end);
+                    break;
+                default:
+                    throw new IllegalStateException("Not a change: " + change.type);
             }
-            sourceDirectory = subdirectory.subdirectories;
         }
+    }
 
-        if (!foundDirectory || !sourceDirectory.containsKey(sourceTerms[sourceTerms.length - 1])) {
-            System.out.println("Cannot move " + source + " to " + destination + " - " + source + " does not exist");
-            return;
+    // The same as executeCommand() for a command that has already been split with CommandTokenizer.splitTerms().
+    void executeSplitCommand(CommandTokenizer terms) {
+        executeSplit(terms, result, output);
+    }
+
+    @Override
+    CommandOutcome createDirectory(CharSequence command, int start, int end, CommandResult result) {
+        CommandTokenizer directoryNameTerms = sourceTerms;
+        directoryNameTerms.splitPath(command, start, end);
+        int last = directoryNameTerms.count() - 1;
+        Subdirectory parent = resolve(directoryNameTerms, last);
+
+        if (parent == null) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+        }
+
+        CharSequence subdirectoryName = directoryNameTerms.term(last);
+        if (parent.subdirectories.get(subdirectoryName) != null) {
+            return result.fail(CommandOutcome.ALREADY_EXISTS, 1, last);
+        }
+        String name = subdirectoryName.toString();
+        Subdirectory created = new Subdirectory(parent, name);
+        parent.subdirectories = parent.subdirectories.put(name, created);
+        addAggregates(parent, created);
+        if (nameIndex != null) {
+            nameIndex.add(created);
+        }
+        markListingDirty(parent);
+        if (undoLog != null) {
+            undoLog.add(new Change(CommandType.CREATE, command, start, end, 0, 0, created, name, parent, null));
+            return CommandOutcome.SUCCESS;
+        }
+        for (ChangeListener listener : changeListeners) {
+            listener.created(command, start, end);
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    @Override
+    CommandOutcome moveDirectory(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd,
+            CommandResult result) {
+        CommandTokenizer source = sourceTerms;
+        source.splitPath(command, sourceStart, sourceEnd);
+        int sourceLast = source.count() - 1;
+        Subdirectory sourceParent = resolve(source, sourceLast);
+
+        Subdirectory moved = sourceParent == null ? null : sourceParent.subdirectories.get(source.term(sourceLast));
+        if (moved == null) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, sourceParent == null ? missingSegment : sourceLast);
+        }
+
+        CommandTokenizer destination = destinationTerms;
+        destination.splitPath(command, destinationStart, destinationEnd);
+        Subdirectory destinationSubdirectory = resolve(destination, destination.count());
+
+        if (destinationSubdirectory == null) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 2, missingSegment);
+        }
+
+        if (isWithin(destination, source)) {
+            return result.fail(CommandOutcome.DESTINATION_WITHIN_SOURCE, 2, sourceLast);
+        }
+
+        CharSequence finalSourceTerm = source.term(sourceLast);
+        if (destinationSubdirectory.subdirectories.get(finalSourceTerm) != null) {
+            return result.fail(CommandOutcome.ALREADY_EXISTS, 1, sourceLast);
+        }
+        String name = finalSourceTerm.toString();
+        sourceParent.subdirectories = sourceParent.subdirectories.remove(name);
+        removeAggregates(sourceParent, moved);
+        moved.parent = destinationSubdirectory;
+        detach(moved);
+        destinationSubdirectory.subdirectories = destinationSubdirectory.subdirectories.put(name, moved);
+        addAggregates(destinationSubdirectory, moved);
+        moved.listingLength = -1;
+        markListingDirty(sourceParent);
+        markListingDirty(destinationSubdirectory);
+        if (undoLog != null) {
+            undoLog.add(new Change(CommandType.MOVE, command, sourceStart, sourceEnd, destinationStart, destinationEnd, moved, name,
+                    sourceParent, destinationSubdirectory));
+            return CommandOutcome.SUCCESS;
+        }
+        for (ChangeListener listener : changeListeners) {
+            listener.moved(command, sourceStart, sourceEnd, destinationStart, destinationEnd);
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    // Returns the directory named by the first count segments of path, or the root if count is 0.
+    // Returns null if one of the directories does not exist and sets missingSegment to the index of the first one.
+    //
+    // With the path cache enabled, the longest cached prefix of the path is used as the starting point,
+    // and the resolved directory is cached if it was not already.
+    private Subdirectory resolve(CommandTokenizer path, int count) {
+        Subdirectory directory = root;
+        int i = 0;
+        if (pathCache != null && count > 0) {
+            CharSequence source = path.source();
+            int start = path.start(0);
+            computePrefixHashes(path, count);
+            for (int prefix = count - 1; prefix >= 0; prefix--) {
+                Subdirectory cached = pathCache.get(source, start, path.end(prefix), prefixHashes[prefix]);
+                if (cached != null) {
+                    directory = cached;
+                    i = prefix + 1;
+                    break;
+                }
+            }
+            if (i == count) {
+                return directory;
+            }
         }
 
-        SortedMap<String, Subdirectory> destinationDirectory = directories;
-        String[] destinationTerms = destination.split("/");
-        foundDirectory = true;
-        for (int i = 0; i < destinationTerms.length - 1; i++) {
-            Subdirectory subdirectory = destinationDirectory.get(destinationTerms[i]);
+        for (; i < count; i++) {
+            Subdirectory subdirectory = directory.subdirectories.get(path.term(i));
             if (subdirectory == null) {
-                foundDirectory = false;
-                break;
+                missingSegment = i;
+                return null;
             }
-            destinationDirectory = subdirectory.subdirectories;
+            directory = subdirectory;
         }
 
-        if (!foundDirectory || !destinationDirectory.containsKey(destinationTerms[destinationTerms.length - 1])) {
-            System.out.println("Cannot move " + source + " to " + destination + " - " + destination + " does not exist");
-            return;
+        if (pathCache != null && count > 0) {
+            pathCache.put(path.source(), path.start(0), path.end(count - 1), directory);
         }
+        return directory;
+    }
 
-        String finalSourceTerm = sourceTerms[sourceTerms.length - 1];
-        String finalDestinationTerm = destinationTerms[destinationTerms.length - 1];
-        Subdirectory sourceSubdirectory = sourceDirectory.remove(finalSourceTerm);
-        destinationDirectory = destinationDirectory.get(finalDestinationTerm).subdirectories;
-        if (destinationDirectory.containsKey(finalSourceTerm)) {
-            System.out.println("Cannot move " + source + " to " + destination + " - " + destination + "/" + finalSourceTerm + " already exists");
-        } else {
-            destinationDirectory.put(finalSourceTerm, sourceSubdirectory);
+    // Sets prefixHashes[i] to the String.hashCode() of the path up to the end of segment i, in one pass over the path.
+    private void computePrefixHashes(CommandTokenizer path, int count) {
+        if (prefixHashes.length < count) {
+            prefixHashes = new int[Math.max(count, prefixHashes.length * 2)];
         }
-    } 
+        CharSequence source = path.source();
+        int hash = 0;
+        int position = path.start(0);
+        for (int i = 0; i < count; i++) {
+            hash = CharSlice.hashCode(source, position, path.end(i), hash);
+            prefixHashes[i] = hash;
+            position = path.end(i);
+        }
+    }
 
-    // Print the current directory structure.
-    // Every directory is on its own line.
-    // Subdirectories are indented by two white space characters.
-    private void listDirectories() {
-        listDirectoriesHelper(directories, 0);
+    // Marks directory as moved or deleted so that cached paths to it and to its subdirectories are no longer used.
+    private void detach(Subdirectory directory) {
+        if (pathCache != null) {
+            directory.detachedGeneration = pathCache.advanceGeneration();
+        }
     }
 
-    private void listDirectoriesHelper(SortedMap<String, Subdirectory> currentLevel, int numIndentation) {
-        for (Entry<String, Subdirectory> directory : currentLevel.entrySet()) {
-            StringBuilder listLineBuilder = new StringBuilder();
-            for (int i = 0; i < numIndentation; i++) {
-                listLineBuilder.append("  ");
+    // Returns true if neither directory nor any of its parents has been moved or deleted since generation,
+    // which means every path that named directory then still names it.
+    private static boolean isAttachedSince(Subdirectory directory, long generation) {
+        for (Subdirectory current = directory; current != null; current = current.parent) {
+            if (current.detachedGeneration > generation) {
+                return false;
             }
-            listLineBuilder.append(directory.getKey());
+        }
+        return true;
+    }
+
+    // The listing of the previous LIST is kept, and only the lines of directories that changed since then are rendered again.
+    // The lines of every other directory, including all of its subdirectories, are copied over from the previous listing
+    // in one piece.
+    @Override
+    void listDirectories() {
+        if (root.listingDirty) {
+            nextListingLength = 0;
+            renderSubdirectories(root, 0, root.listingLength < 0 ? -1 : 0);
+            root.listingLength = nextListingLength;
+            root.listingDirty = false;
 
-            System.out.println(listLineBuilder.toString());
-            listDirectoriesHelper(directory.getValue().subdirectories, numIndentation + 1);
+            char[] previousListing = listing;
+            listing = nextListing;
+            listingLength = nextListingLength;
+            nextListing = previousListing;
         }
+        output.print(CharBuffer.wrap(listing), 0, listingLength);
     }
 
-    // Delete the directory if it exists.
-    private void deleteDirectory(String directoryName) {
-        SortedMap<String, Subdirectory> directory = directories;
-        String[] directoryTerms = directoryName.split("/");
-        boolean foundDirectory = true;
-        StringBuilder directoryTermsIteratedOn = new StringBuilder();
-        int i;
-        for (i = 0; i < directoryTerms.length - 1; i++) {
-            String directoryTerm = directoryTerms[i];
-            Subdirectory subdirectory = directory.get(directoryTerm);
-            if (subdirectory == null) {
-                foundDirectory = false;
-                break;
+    // Renders the lines of every subdirectory of directory, and their subdirectories, at the end of nextListing.
+    // directoryStart is where directory's lines start in nextListing and previousStart is where they start in listing,
+    // or -1 if none of them can be copied from listing.
+    // The walk keeps its levels in renderLevels instead of recursing, so a tree of any depth can be listed.
+    private void renderSubdirectories(Subdirectory directory, int directoryStart, int previousStart) {
+        int level = pushRenderLevel(0, directory, directoryStart, previousStart);
+        while (level >= 0) {
+            RenderLevel current = renderLevels[level];
+            if (!current.cursor.hasNext()) {
+                current.cursor = null;
+                if (--level >= 0) {
+                    RenderLevel parent = renderLevels[level];
+                    parent.subdirectory.listingDirty = false;
+                    placeInListing(parent.subdirectory, parent.start, parent.directoryStart);
+                }
+                continue;
+            }
+            ChildMap.Cursor<Subdirectory> entry = current.cursor;
+            entry.next();
+            Subdirectory subdirectory = entry.value();
+            int start = nextListingLength;
+            int previousSubdirectoryStart = current.previousStart < 0 || subdirectory.listingLength < 0 ? -1
+                    : current.previousStart + subdirectory.listingOffset;
+
+            if (previousSubdirectoryStart >= 0 && !subdirectory.listingDirty) {
+                appendToListing(listing, previousSubdirectoryStart, subdirectory.listingLength);
+                placeInListing(subdirectory, start, current.directoryStart);
+                continue;
             }
-            directory = subdirectory.subdirectories;
-            directoryTermsIteratedOn.append(directoryTerm + "/");
+            if (indentation.length < level * 2) {
+                indentation = new char[level * 4];
+                Arrays.fill(indentation, ' ');
+            }
+            appendToListing(indentation, 0, level * 2);
+            String name = entry.name();
+            ensureListingCapacity(name.length());
+            for (int i = 0; i < name.length(); i++) {
+                nextListing[nextListingLength++] = name.charAt(i);
+            }
+            appendToListing(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+            current.subdirectory = subdirectory;
+            current.start = start;
+            level = pushRenderLevel(level + 1, subdirectory, start, previousSubdirectoryStart);
         }
-        directoryTermsIteratedOn.append(directoryTerms[i]);
+    }
 
-        if (!foundDirectory || !directory.containsKey(directoryTerms[directoryTerms.length - 1])) {
-            System.out.println("Cannot delete " + directoryName + " - " + directoryTermsIteratedOn.toString() + " does not exist");
+    // Starts rendering the subdirectories of directory at the given level of renderLevels and returns the level.
+    private int pushRenderLevel(int level, Subdirectory directory, int directoryStart, int previousStart) {
+        if (level == renderLevels.length) {
+            renderLevels = Arrays.copyOf(renderLevels, Math.max(16, level * 2));
+        }
+        if (renderLevels[level] == null) {
+            renderLevels[level] = new RenderLevel();
+        }
+        RenderLevel pushed = renderLevels[level];
+        pushed.cursor = directory.subdirectories.cursor();
+        pushed.directoryStart = directoryStart;
+        pushed.previousStart = previousStart;
+        return level;
+    }
+
+    // Records where the lines of subdirectory, which start at start, ended up in nextListing.
+    private void placeInListing(Subdirectory subdirectory, int start, int directoryStart) {
+        subdirectory.listingOffset = start - directoryStart;
+        subdirectory.listingLength = nextListingLength - start;
+    }
+
+    @Override
+    CommandOutcome listPage(ListPage page, CommandResult result) {
+        Subdirectory directory = root;
+        CommandTokenizer directoryTerms = sourceTerms;
+        if (page.splitDirectory(directoryTerms)) {
+            directory = resolve(directoryTerms, directoryTerms.count());
+            if (directory == null) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+            }
+        }
+        page.print(PAGE_TREE, directory, output);
+        return CommandOutcome.SUCCESS;
+    }
+
+    private void appendToListing(char[] source, int start, int length) {
+        ensureListingCapacity(length);
+        System.arraycopy(source, start, nextListing, nextListingLength, length);
+        nextListingLength += length;
+    }
+
+    private void ensureListingCapacity(int length) {
+        if (nextListing.length - nextListingLength < length) {
+            nextListing = Arrays.copyOf(nextListing, Math.max(nextListingLength + length, nextListing.length * 2));
+        }
+    }
+
+    // Marks directory and its parents as changed since the last LIST.
+    // Stops at the first parent that is already marked, since all of its parents are marked too.
+    private static void markListingDirty(Subdirectory directory) {
+        for (Subdirectory current = directory; current != null && !current.listingDirty; current = current.parent) {
+            current.listingDirty = true;
+        }
+    }
+
+    @Override
+    CommandOutcome deleteDirectory(CharSequence command, int start, int end, CommandResult result) {
+        CommandTokenizer directoryTerms = sourceTerms;
+        directoryTerms.splitPath(command, start, end);
+        int last = directoryTerms.count() - 1;
+        Subdirectory parent = resolve(directoryTerms, last);
+        Subdirectory deleted = parent == null ? null : parent.subdirectories.get(directoryTerms.term(last));
+
+        if (deleted == null) {
+            int missing = parent == null ? missingSegment : last;
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missing);
+        }
+        parent.subdirectories = parent.subdirectories.remove(directoryTerms.term(last));
+        removeAggregates(parent, deleted);
+        deleted.deleted = true;
+        detach(deleted);
+        markListingDirty(parent);
+        if (undoLog != null) {
+            undoLog.add(new Change(CommandType.DELETE, command, start, end, 0, 0, deleted, deleted.name, parent, null));
+            return CommandOutcome.SUCCESS;
+        }
+        sweepLater(deleted);
+        for (ChangeListener listener : changeListeners) {
+            listener.deleted(command, start, end);
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    @Override
+    CommandOutcome measureDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Subdirectory directory = root;
+        if (start >= 0) {
+            CommandTokenizer directoryTerms = sourceTerms;
+            directoryTerms.splitPath(command, start, end);
+            directory = resolve(directoryTerms, directoryTerms.count());
+            if (directory == null) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missingSegment);
+            }
+        }
+        return result.measured(directory.descendantCount, directory.height);
+    }
+
+    // Prints the matches found in the name index, skipping those that are deleted or below a deleted directory.
+    // Finding a match's path takes a step per level, and the paths are sorted to put them in the order of LIST.
+    @Override
+    void findDirectories(CharSequence command, int start, int end) {
+        if (nameIndex == null) {
+            buildNameIndex();
+        }
+        nameIndex.find(command, start, end, matches);
+        List<String> paths = new ArrayList<>(matches.size());
+        for (Subdirectory match : matches) {
+            if (buildPath(match)) {
+                paths.add(matchPath.toString());
+            }
+        }
+        matches.clear();
+        paths.sort(PATH_ORDER);
+        for (String path : paths) {
+            output.println(path);
+        }
+    }
+
+    // Sets matchPath to the full path of directory and returns true, or returns false if it is deleted or below a
+    // deleted directory.
+    private boolean buildPath(Subdirectory directory) {
+        int depth = 0;
+        for (Subdirectory current = directory; current != root; current = current.parent) {
+            if (current.deleted) {
+                return false;
+            }
+            if (depth == matchChain.length) {
+                matchChain = Arrays.copyOf(matchChain, depth * 2);
+            }
+            matchChain[depth++] = current;
+        }
+        matchPath.setLength(0);
+        for (int i = depth - 1; i >= 0; i--) {
+            matchPath.append(matchChain[i].name);
+            if (i > 0) {
+                matchPath.append('/');
+            }
+        }
+        return true;
+    }
+
+    // Indexes every directory in the tree. Inside a batch, that includes the directories deleted by the batch, which are
+    // back in the tree if it is rolled back.
+    private void buildNameIndex() {
+        nameIndex = new NameIndex();
+        for (ChildMap.Cursor<Subdirectory> subdirectory = root.subdirectories.cursor(); subdirectory.hasNext(); ) {
+            subdirectory.next();
+            indexSubtree(subdirectory.value(), true);
+        }
+        if (undoLog != null) {
+            for (Change change : undoLog) {
+                if (change.type == CommandType.DELETE) {
+                    indexSubtree(change.directory, true);
+                }
+            }
+        }
+    }
+
+    // Leaves the subtree of deleted, whose deletion is final, in the name index until enough deleted directories have
+    // piled up to sweep them all at once.
+    private void sweepLater(Subdirectory deleted) {
+        if (nameIndex == null) {
             return;
         }
+        unswept.add(deleted);
+        unsweptCount += deleted.descendantCount + 1;
+        if (unsweptCount > Math.max(MIN_UNSWEPT, root.descendantCount / 2)) {
+            for (Subdirectory directory : unswept) {
+                indexSubtree(directory, false);
+            }
+            unswept.clear();
+            unsweptCount = 0;
+        }
+    }
+
+    // Adds top and every directory below it to the name index, or removes them from it.
+    // Walks the subtree with a stack of its own, so it can be of any depth.
+    private void indexSubtree(Subdirectory top, boolean add) {
+        List<Subdirectory> pending = new ArrayList<>();
+        pending.add(top);
+        while (!pending.isEmpty()) {
+            Subdirectory directory = pending.remove(pending.size() - 1);
+            if (add) {
+                nameIndex.add(directory);
+            } else {
+                nameIndex.remove(directory);
+            }
+            for (ChildMap.Cursor<Subdirectory> subdirectory = directory.subdirectories.cursor(); subdirectory.hasNext(); ) {
+                subdirectory.next();
+                pending.add(subdirectory.value());
+            }
+        }
+    }
+
+    // Updates the aggregates of parent and its parents after subdirectory, with everything below it, was added to parent.
+    private static void addAggregates(Subdirectory parent, Subdirectory subdirectory) {
+        updateAggregates(parent, subdirectory.descendantCount + 1, -1, subdirectory.height);
+    }
+
+    // Updates the aggregates of parent and its parents after subdirectory, with everything below it, was removed from
+    // parent.
+    private static void removeAggregates(Subdirectory parent, Subdirectory subdirectory) {
+        updateAggregates(parent, -subdirectory.descendantCount - 1, subdirectory.height, -1);
+    }
+
+    // Adds added, which is negative for a removal, to the descendant counts of directory and all of its parents, and
+    // updates their heights now that the height of one subdirectory of directory went from oldHeight to newHeight, where
+    // -1 means that it was not there before or is not there anymore.
+    // That is one step per level up to the root. Only when the last of a directory's tallest subdirectories gets shorter
+    // are its subdirectories scanned for the new tallest.
+    private static void updateAggregates(Subdirectory directory, int added, int oldHeight, int newHeight) {
+        for (Subdirectory current = directory; current != null; current = current.parent) {
+            current.descendantCount += added;
+            if (oldHeight == newHeight) {
+                continue;
+            }
+            int previousHeight = current.height;
+            if (newHeight + 1 >= current.height) {
+                addSubdirectoryHeight(current, newHeight);
+            } else if (oldHeight + 1 == current.height && --current.tallestCount == 0) {
+                current.height = 0;
+                for (ChildMap.Cursor<Subdirectory> subdirectory = current.subdirectories.cursor(); subdirectory.hasNext(); ) {
+                    subdirectory.next();
+                    addSubdirectoryHeight(current, subdirectory.value().height);
+                }
+            }
+            oldHeight = previousHeight;
+            newHeight = current.height;
+        }
+    }
+
+    // Raises the height of directory for a subdirectory of the given height, or counts it as one more of the tallest.
+    private static void addSubdirectoryHeight(Subdirectory directory, int subdirectoryHeight) {
+        if (subdirectoryHeight + 1 > directory.height) {
+            directory.height = subdirectoryHeight + 1;
+            directory.tallestCount = 1;
+        } else if (subdirectoryHeight + 1 == directory.height) {
+            directory.tallestCount++;
+        }
+    }
+
+    // Starts a bulk import of directories into this FileSystem. See BulkImport.
+    public BulkImport bulkImport() {
+        return new BulkImport();
+    }
+
+    // Adds the directories of a list of full paths, such as the output of find, in a single pass over the list.
+    // Every missing parent of a path is created too, so a list of only the leaves is enough.
+    //
+    // The paths should be sorted so that the subdirectories of a directory follow it without anything else in between,
+    // which is the order of a depth first walk, or of sorting the paths by their segments. The import keeps the path
+    // from the root to the last directory it added, the spine, so a path only costs a lookup for each segment that differs
+    // from the previous path. The new subdirectories of every directory on the spine are collected in a sorted run, and
+    // its child map is only built once the spine has moved past it, in one step from the whole run.
+    // Paths in any other order are still imported correctly, only more slowly.
+    //
+    // Paths are directory names as CREATE takes them, except that one leading "/" is dropped, as find prints it, and
+    // that a path with an empty name or white space in a name is rejected. Empty lines are skipped. Change listeners are told about every
+    // directory created, parents first, between changesStarted() when the import starts and changesEnded() when it is
+    // closed. No other command may be executed on this FileSystem until the import is closed.
+    public final class BulkImport implements AutoCloseable {
+
+        private final CommandTokenizer segments = new CommandTokenizer();
+        // spine[0] is the root and spine[i + 1] is the subdirectory named spineNames[i] of spine[i].
+        private Subdirectory[] spine = new Subdirectory[16];
+        private String[] spineNames = new String[16];
+        private int spineDepth;
+        // The subdirectories of spine[i] created by this import and not yet in its child map, sorted by name.
+        private String[][] runNames = new String[16][];
+        private Subdirectory[][] runValues = new Subdirectory[16][];
+        private int[] runSizes = new int[16];
+        private long created;
+        // The number of paths added, counting empty ones, which is the line of the path being added in a path list.
+        private long line;
+        private boolean closed;
+
+        private BulkImport() {
+            spine[0] = root;
+            // Directories are told as they are added, but only linked into their parents' child maps later.
+            for (ChangeListener listener : changeListeners) {
+                listener.changesStarted();
+            }
+        }
+
+        // Adds the directory path and any of its parents that do not exist yet.
+        // path is only read during the call.
+        // Throws IllegalArgumentException, without adding anything, if path has a directory name that no command could
+        // reach: an empty one, as in "a//b", or one with white space in it. The paths added before stay imported.
+        public void add(CharSequence path) {
+            if (closed) {
+                throw new IllegalStateException("The import is closed.");
+            }
+            line++;
+            // find prints absolute paths, so one leading "/" is taken as the root.
+            int start = path.length() > 0 && path.charAt(0) == '/' ? 1 : 0;
+            if (start == path.length()) {
+                return;
+            }
+            segments.splitPath(path, start, path.length());
+            int count = segments.count();
+            for (int i = 0; i < count; i++) {
+                if (!isValidName(path, segments.start(i), segments.end(i))) {
+                    throw new IllegalArgumentException("Cannot import line " + line + ", " + path + " - \""
+                            + segments.term(i) + "\" is not a valid directory name");
+                }
+            }
+
+            int common = 0;
+            while (common < spineDepth && common < count && segments.matches(common, spineNames[common])) {
+                common++;
+            }
+            while (spineDepth > common) {
+                finishRun(spineDepth);
+                spineDepth--;
+            }
+
+            for (int i = common; i < count; i++) {
+                Subdirectory parent = spine[i];
+                CharSequence name = segments.term(i);
+                Subdirectory directory = parent.subdirectories.get(name);
+                if (directory == null) {
+                    directory = findInRun(i, name);
+                }
+                String childName = name.toString();
+                if (directory == null) {
+                    directory = new Subdirectory(parent, childName);
+                    addToRun(i, childName, directory);
+                    if (nameIndex != null) {
+                        nameIndex.add(directory);
+                    }
+                    // Heights only grow during an import, so the aggregates never need the child map, which is built later.
+                    addAggregates(parent, directory);
+                    created++;
+                    for (ChangeListener listener : changeListeners) {
+                        listener.created(path, start, segments.end(i));
+                    }
+                }
+                push(childName, directory);
+            }
+        }
+
+        // Returns the number of directories created so far.
+        public long created() {
+            return created;
+        }
+
+        // Returns true if name[start, end) can be a segment of a directory name in a command: it is not empty and,
+        // since commands are split on white space, has none.
+        private boolean isValidName(CharSequence name, int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (CommandTokenizer.isWhiteSpace(name.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Finishes the import by building the child maps of the directories still on the spine.
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            for (; spineDepth >= 0; spineDepth--) {
+                finishRun(spineDepth);
+            }
+            closed = true;
+            for (ChangeListener listener : changeListeners) {
+                listener.changesEnded();
+            }
+        }
+
+        private void push(String name, Subdirectory directory) {
+            if (spineDepth + 1 == spine.length) {
+                int capacity = spine.length * 2;
+                spine = Arrays.copyOf(spine, capacity);
+                spineNames = Arrays.copyOf(spineNames, capacity);
+                runNames = Arrays.copyOf(runNames, capacity);
+                runValues = Arrays.copyOf(runValues, capacity);
+                runSizes = Arrays.copyOf(runSizes, capacity);
+            }
+            spineNames[spineDepth] = name;
+            spineDepth++;
+            spine[spineDepth] = directory;
+        }
+
+        private Subdirectory findInRun(int level, CharSequence name) {
+            int index = runIndexOf(level, name);
+            return index < 0 ? null : runValues[level][index];
+        }
+
+        // Adds name to the run of spine[level], which does not contain it yet, keeping the run sorted.
+        // With sorted paths name always comes last.
+        private void addToRun(int level, String name, Subdirectory directory) {
+            int size = runSizes[level];
+            if (runNames[level] == null) {
+                runNames[level] = new String[4];
+                runValues[level] = new Subdirectory[4];
+            } else if (size == runNames[level].length) {
+                runNames[level] = Arrays.copyOf(runNames[level], size * 2);
+                runValues[level] = Arrays.copyOf(runValues[level], size * 2);
+            }
+            String[] names = runNames[level];
+            Subdirectory[] values = runValues[level];
+            int index = size == 0 || CharSequence.compare(names[size - 1], name) < 0 ? size : -runIndexOf(level, name) - 1;
+            System.arraycopy(names, index, names, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            names[index] = name;
+            values[index] = directory;
+            runSizes[level] = size + 1;
+        }
 
-        directory.remove(directoryTerms[directoryTerms.length - 1]);
+        // Returns the index of name in the run of spine[level], or -(insertion point) - 1, like Arrays.binarySearch().
+        private int runIndexOf(int level, CharSequence name) {
+            String[] names = runNames[level];
+            int low = 0;
+            int high = runSizes[level] - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = CharSequence.compare(names[middle], name);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        // Moves the run of spine[level] into its child map.
+        private void finishRun(int level) {
+            int size = runSizes[level];
+            if (size == 0) {
+                return;
+            }
+            Subdirectory directory = spine[level];
+            String[] names = runNames[level];
+            Subdirectory[] values = runValues[level];
+            if (directory.subdirectories.isEmpty()) {
+                directory.subdirectories = ChildMap.ofSorted(names, values, size);
+            } else {
+                // The directory already had subdirectories before the import.
+                for (int i = 0; i < size; i++) {
+                    directory.subdirectories = directory.subdirectories.put(names[i], values[i]);
+                }
+            }
+            markListingDirty(directory);
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            runSizes[level] = 0;
+        }
+    }
+
+    @Override
+    void measureTree(CommandMetrics metrics) {
+        metrics.updateTreeGauges(root.descendantCount, root.height);
+    }
+
+    // Writes every directory to out, depth first: the number of subdirectories of a directory, followed by the name and
+    // subdirectories of each of them.
+    void writeSnapshot(DataOutput out) throws IOException {
+        writeSnapshotHelper(out, root);
+    }
+
+    private static void writeSnapshotHelper(DataOutput out, Subdirectory directory) throws IOException {
+        out.writeInt(directory.subdirectories.size());
+        for (ChildMap.Cursor<Subdirectory> subdirectory = directory.subdirectories.cursor(); subdirectory.hasNext(); ) {
+            subdirectory.next();
+            WriteAheadLog.writeName(out, subdirectory.name());
+            writeSnapshotHelper(out, subdirectory.value());
+        }
+    }
+
+    // Adds the directories written by writeSnapshot() to this FileSystem, which must be empty.
+    void readSnapshot(DataInput in) throws IOException {
+        if (!root.subdirectories.isEmpty()) {
+            throw new IllegalStateException("A snapshot can only be read into an empty FileSystem.");
+        }
+        readSnapshotHelper(in, root);
+    }
+
+    private void readSnapshotHelper(DataInput in, Subdirectory directory) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = WriteAheadLog.readName(in);
+            Subdirectory subdirectory = new Subdirectory(directory, name);
+            directory.subdirectories = directory.subdirectories.put(name, subdirectory);
+            if (nameIndex != null) {
+                nameIndex.add(subdirectory);
+            }
+            readSnapshotHelper(in, subdirectory);
+            directory.descendantCount += subdirectory.descendantCount + 1;
+            addSubdirectoryHeight(directory, subdirectory.height);
+        }
     }
 }
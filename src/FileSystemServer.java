@@ -0,0 +1,227 @@
+package src;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves a ConcurrentFileSystem over TCP. Clients send newline separated commands, the same as the lines of a command
+// file, and get the output of every command back in the order they were sent.
+//
+// The response to a command is its output, exactly as executeCommand() prints it, followed by a line with a single ".".
+// A line of output that starts with "." gets another "." in front of it, so that no line of the output can be taken for
+// the end of the response; clients remove it again. This is the framing SMTP and POP3 use.
+// Clients may pipeline commands, sending many without waiting for their responses. Responses are encoded straight into
+// the connection's output buffer and written to the socket whenever the server has executed every command that has
+// arrived, so a pipelined burst is answered with as few writes as possible.
+//
+// Every connection is served by a thread of its own doing blocking reads and writes on its SocketChannel, and commands
+// from different connections run in parallel on the ConcurrentFileSystem.
+public final class FileSystemServer implements AutoCloseable {
+
+    // Per connection, so it is much smaller than a ChannelSink's default buffer.
+    private static final int RESPONSE_BUFFER_SIZE = 1 << 16;
+    private static final String END_OF_RESPONSE = ".";
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    // main() prints this and the address on stderr once the server accepts connections.
+    static final String LISTENING = "Listening on ";
+
+    private final ConcurrentFileSystem fileSystem;
+    private final ServerSocketChannel serverChannel;
+    private final Thread acceptor;
+    private final ExecutorService connectionThreads;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    // Binds to address and starts accepting connections. With port 0 a free port is chosen; see address().
+    public FileSystemServer(ConcurrentFileSystem fileSystem, InetSocketAddress address) throws IOException {
+        this.fileSystem = fileSystem;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+
+        AtomicInteger connectionCount = new AtomicInteger();
+        connectionThreads = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "FileSystemServer connection " + connectionCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        acceptor = new Thread(this::acceptConnections, "FileSystemServer acceptor");
+        acceptor.start();
+    }
+
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Shuts the server down gracefully: stops accepting connections, stops reading from the open ones, and waits up to
+    // timeout for them to execute the commands they have already read and write the responses.
+    // Connections that do not finish in time are closed. Returns true if all of them finished.
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Once the acceptor has stopped, no connection can be added after the loop below.
+        acceptor.join();
+        connectionThreads.shutdown();
+        for (SocketChannel connection : connections) {
+            try {
+                // The blocked read returns the end of the stream, so the connection finishes like a command file does.
+                connection.shutdownInput();
+            } catch (IOException e) {
+                // Already closed by the client.
+            }
+        }
+
+        if (connectionThreads.awaitTermination(timeout, unit)) {
+            return true;
+        }
+        for (SocketChannel connection : connections) {
+            closeQuietly(connection);
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        try {
+            shutdown(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            SocketChannel connection;
+            try {
+                connection = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // The connection failed before it was accepted, which does not affect the others.
+                continue;
+            }
+            connections.add(connection);
+            try {
+                connectionThreads.execute(() -> serve(connection));
+            } catch (RejectedExecutionException e) {
+                connections.remove(connection);
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        try (ChannelSink socket = new ChannelSink(connection, RESPONSE_BUFFER_SIZE)) {
+            // Small responses would otherwise wait for the acknowledgement of the previous ones.
+            connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ResponseSink response = new ResponseSink(socket);
+            InputStream commands = new FilterInputStream(Channels.newInputStream(connection)) {
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    // Every command that has arrived has been executed, so send the responses before waiting for more.
+                    socket.flush();
+                    return super.read(bytes, offset, length);
+                }
+            };
+            new CommandReader(command -> {
+                fileSystem.executeCommand(command, response);
+                response.endResponse();
+            }).read(commands);
+        } catch (IOException | UncheckedIOException e) {
+            // The client went away. Its connection is closed, and the other connections are not affected.
+        } finally {
+            connections.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Nothing more can be done with it.
+        }
+    }
+
+    // Writes the output of commands to the socket in the framing described above.
+    private static final class ResponseSink implements OutputSink {
+
+        private final OutputSink socket;
+        private boolean atLineStart = true;
+
+        private ResponseSink(OutputSink socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void print(CharSequence text, int start, int end) {
+            int unwritten = start;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (atLineStart && c == '.') {
+                    socket.print(text, unwritten, i);
+                    socket.print(".", 0, 1);
+                    unwritten = i;
+                }
+                atLineStart = c == '\n';
+            }
+            socket.print(text, unwritten, end);
+        }
+
+        @Override
+        public void println(CharSequence line) {
+            print(line, 0, line.length());
+            socket.println("");
+            atLineStart = true;
+        }
+
+        // Every command's output ends with a line separator, so this is always at the start of a line.
+        private void endResponse() {
+            socket.println(END_OF_RESPONSE);
+        }
+
+        @Override
+        public void flush() {
+            socket.flush();
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    // Serves a new, empty ConcurrentFileSystem at the port given as the first argument, until the process is stopped.
+    // It listens on all interfaces, or only on the address given as the second argument. Stopping the process shuts the
+    // server down gracefully.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            throw new IllegalArgumentException("This program must be run with the port to listen on and, optionally, the address.");
+        }
+        int port = Integer.parseInt(args[0]);
+        InetSocketAddress address = args.length == 1 ? new InetSocketAddress(port) : new InetSocketAddress(args[1], port);
+        FileSystemServer server = new FileSystemServer(new ConcurrentFileSystem(OutputSink.NULL), address);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "FileSystemServer shutdown"));
+        System.err.println(LISTENING + server.address());
+    }
+}
@@ -0,0 +1,313 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Keeps a FileSystem's directories on disk so that they survive a restart.
+//
+// Every successful CREATE, MOVE and DELETE is appended to a write-ahead log and every snapshotInterval changes the
+// whole tree is written to a snapshot. The changes of a batch, or of a bulk import, are logged as a unit: after a crash
+// they are either all recovered or none are. Opening a store loads the newest intact snapshot and replays only the log
+// records written after it, instead of every command ever executed.
+//
+// Files in the data directory, named by the sequence number of the first change they do not contain:
+// - snapshot-<n>.snap: the tree after the first n changes.
+// - wal-<n>.log: the log of changes n, n + 1, ...
+// Logs and snapshots made obsolete by a new snapshot are deleted once it is safely on disk.
+public final class FileSystemStore implements Closeable {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x46535331;
+    private static final long DEFAULT_GROUP_COMMIT_MILLIS = 10;
+
+    private final Path directory;
+    private final FileSystem fileSystem;
+    private final SyncPolicy syncPolicy;
+    private final long snapshotInterval;
+    private WriteAheadLog log;
+    // The sequence number of the first change in log.
+    private long logSequenceNumber;
+    // Number of changes made since the file system was first created.
+    private long sequenceNumber;
+    private long changesSinceSnapshot;
+
+    private FileSystemStore(Path directory, FileSystem fileSystem, SyncPolicy syncPolicy, long snapshotInterval, long sequenceNumber) {
+        this.directory = directory;
+        this.fileSystem = fileSystem;
+        this.syncPolicy = syncPolicy;
+        this.snapshotInterval = snapshotInterval;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    // Recovers the FileSystem kept in directory, creating directory if it does not exist, and starts logging its changes.
+    // snapshotInterval is the number of changes between snapshots, or 0 to only take snapshots when snapshot() is called.
+    public static FileSystemStore open(Path directory, OutputSink output, SyncPolicy syncPolicy, long snapshotInterval) throws IOException {
+        if (snapshotInterval < 0) {
+            throw new IllegalArgumentException("Snapshot interval must not be negative.");
+        }
+        Files.createDirectories(directory);
+
+        FileSystem fileSystem = null;
+        long snapshotSequenceNumber = 0;
+        List<Long> snapshots = sequenceNumbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0 && fileSystem == null; i--) {
+            fileSystem = readSnapshot(snapshotFile(directory, snapshots.get(i)), snapshots.get(i), output);
+            snapshotSequenceNumber = snapshots.get(i);
+        }
+        if (fileSystem == null) {
+            fileSystem = new FileSystem(output);
+            snapshotSequenceNumber = 0;
+        }
+
+        long sequenceNumber = replayLogs(directory, fileSystem, snapshotSequenceNumber);
+        FileSystemStore store = new FileSystemStore(directory, fileSystem, syncPolicy, snapshotInterval, sequenceNumber);
+        store.log = store.newLog();
+        fileSystem.addChangeListener(store.new Logger());
+        return store;
+    }
+
+    public FileSystem fileSystem() {
+        return fileSystem;
+    }
+
+    // Returns the number of changes made to the file system since it was first created.
+    public long sequenceNumber() {
+        return sequenceNumber;
+    }
+
+    // Returns the number of changes known to be on disk: those the store recovered or wrote to a snapshot, and those of
+    // the current log that a sync, whichever the sync policy, has forced to disk.
+    public long syncedSequenceNumber() {
+        return logSequenceNumber + log.forcedChanges();
+    }
+
+    // Forces every change made so far to disk, whatever the sync policy, and returns once they are there.
+    public void sync() {
+        log.sync();
+    }
+
+    // Writes the whole tree to a new snapshot, starts a new log and deletes the files the snapshot makes obsolete.
+    public void snapshot() throws IOException {
+        log.sync();
+
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + sequenceNumber + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequenceNumber);
+            fileSystem.writeSnapshot(out);
+            out.flush();
+            long checksum = checked.getChecksum().getValue();
+            out.writeLong(checksum);
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotFile(directory, sequenceNumber), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        log.close();
+        log = newLog();
+        changesSinceSnapshot = 0;
+
+        for (long logSequenceNumber : sequenceNumbers(directory, LOG_PREFIX, LOG_SUFFIX)) {
+            if (logSequenceNumber < sequenceNumber) {
+                Files.delete(logFile(directory, logSequenceNumber));
+            }
+        }
+        for (long snapshotSequenceNumber : sequenceNumbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (snapshotSequenceNumber < sequenceNumber) {
+                Files.delete(snapshotFile(directory, snapshotSequenceNumber));
+            }
+        }
+    }
+
+    // Forces every change made so far to disk and closes the log. The FileSystem must not be changed afterwards.
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    // Appends every change to the log and takes a snapshot every snapshotInterval changes, or as soon as the tree matches
+    // the log again after that many.
+    private final class Logger implements ChangeListener {
+
+        @Override
+        public void created(CharSequence command, int start, int end) {
+            log.append(WriteAheadLog.CREATE, command, start, end);
+            changed();
+        }
+
+        @Override
+        public void moved(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd) {
+            log.append(WriteAheadLog.MOVE, command, sourceStart, sourceEnd, destinationStart, destinationEnd);
+            changed();
+        }
+
+        @Override
+        public void deleted(CharSequence command, int start, int end) {
+            log.append(WriteAheadLog.DELETE, command, start, end);
+            changed();
+        }
+
+        // The tree does not match the log while this is set, so a snapshot that falls due waits for changesEnded().
+        private boolean deferSnapshots;
+
+        // The changes until changesEnded() are logged as one batch, so that they are recovered together or not at all.
+        @Override
+        public void changesStarted() {
+            deferSnapshots = true;
+            log.beginBatch();
+        }
+
+        @Override
+        public void changesEnded() {
+            log.commitBatch();
+            deferSnapshots = false;
+            snapshotIfDue();
+        }
+
+        private void changed() {
+            sequenceNumber++;
+            changesSinceSnapshot++;
+            if (!deferSnapshots) {
+                snapshotIfDue();
+            }
+        }
+
+        private void snapshotIfDue() {
+            if (snapshotInterval > 0 && changesSinceSnapshot >= snapshotInterval) {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private WriteAheadLog newLog() throws IOException {
+        WriteAheadLog newLog = new WriteAheadLog(logFile(directory, sequenceNumber), syncPolicy, DEFAULT_GROUP_COMMIT_MILLIS);
+        syncDirectory();
+        logSequenceNumber = sequenceNumber;
+        return newLog;
+    }
+
+    // Returns the FileSystem in the snapshot, or null if the snapshot is incomplete or corrupt.
+    private static FileSystem readSnapshot(Path file, long expectedSequenceNumber, OutputSink output) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(input, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readLong() != expectedSequenceNumber) {
+                return null;
+            }
+            FileSystem fileSystem = new FileSystem(output);
+            fileSystem.readSnapshot(in);
+            long checksum = checked.getChecksum().getValue();
+            return in.readLong() == checksum ? fileSystem : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Applies the logged changes from firstSequenceNumber on to fileSystem and returns the sequence number after the last one.
+    private static long replayLogs(Path directory, FileSystem fileSystem, long firstSequenceNumber) throws IOException {
+        long sequenceNumber = firstSequenceNumber;
+        List<Long> logs = sequenceNumbers(directory, LOG_PREFIX, LOG_SUFFIX);
+        for (int i = 0; i < logs.size(); i++) {
+            long logSequenceNumber = logs.get(i);
+            if (i + 1 < logs.size() && logs.get(i + 1) <= firstSequenceNumber) {
+                // Every change in this log is in the snapshot.
+                continue;
+            }
+            if (logSequenceNumber > sequenceNumber) {
+                throw new IOException("Changes " + sequenceNumber + " to " + (logSequenceNumber - 1) + " are missing from " + directory);
+            }
+            long[] position = { logSequenceNumber };
+            CommandResult result = new CommandResult();
+            WriteAheadLog.replay(logFile(directory, logSequenceNumber), (operation, first, second) -> {
+                if (position[0]++ >= firstSequenceNumber) {
+                    apply(fileSystem, operation, first, second, result);
+                }
+            });
+            sequenceNumber = Math.max(sequenceNumber, position[0]);
+        }
+        return sequenceNumber;
+    }
+
+    // Logged changes succeeded when they were made, so result is only scratch space and its messages are never printed.
+    private static void apply(FileSystem fileSystem, byte operation, String first, String second, CommandResult result) {
+        switch (operation) {
+            case WriteAheadLog.CREATE:
+                fileSystem.createDirectory(first, 0, first.length(), result);
+                break;
+            case WriteAheadLog.MOVE:
+                String command = first + " " + second;
+                fileSystem.moveDirectory(command, 0, first.length(), first.length() + 1, command.length(), result);
+                break;
+            case WriteAheadLog.DELETE:
+                fileSystem.deleteDirectory(first, 0, first.length(), result);
+                break;
+            default:
+                throw new IllegalStateException("Unknown log operation " + operation);
+        }
+    }
+
+    // Returns the sequence numbers of the files in directory named <prefix><sequence number><suffix>, in ascending order.
+    private static List<Long> sequenceNumbers(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> sequenceNumbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    sequenceNumbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        Collections.sort(sequenceNumbers);
+        return sequenceNumbers;
+    }
+
+    private static Path snapshotFile(Path directory, long sequenceNumber) {
+        return directory.resolve(SNAPSHOT_PREFIX + sequenceNumber + SNAPSHOT_SUFFIX);
+    }
+
+    private static Path logFile(Path directory, long sequenceNumber) {
+        return directory.resolve(LOG_PREFIX + sequenceNumber + LOG_SUFFIX);
+    }
+
+    // Makes new and renamed files in the data directory durable. Not every platform can open a directory, so this is best effort.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The files themselves have been forced already.
+        }
+    }
+}
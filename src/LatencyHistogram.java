@@ -0,0 +1,87 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A histogram of latencies in nanoseconds with a fixed relative precision, in the style of HdrHistogram.
+//
+// Values below 2^SUB_BUCKET_BITS have a bucket each. Above that, every power of two range is split into
+// 2^SUB_BUCKET_BITS buckets of equal width, so a value is known to within 1/32 (about 3%) of itself wherever it falls.
+// That is about two thousand buckets for everything from 1 ns to the maximum, and recording is a few shifts and an
+// atomic increment, so it can be called from several threads on every command.
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        total.incrementAndGet();
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // Returns the highest value that could be in the bucket holding the given percentile, from 0 to 100, of the
+    // recorded values, so the result is never below the true percentile. Returns 0 if nothing has been recorded.
+    long percentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts.set(bucket, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long end = (SUB_BUCKET_COUNT + subBucket + 1) << shift;
+        // The last bucket ends past Long.MAX_VALUE.
+        return end <= 0 ? Long.MAX_VALUE : end - 1;
+    }
+}
@@ -0,0 +1,51 @@
+package src;
+
+// Collects output in memory so that it can be written to another sink later in one piece.
+// Used to keep the output of a command together when commands run on several threads.
+final class LineBuffer implements OutputSink {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public void print(CharSequence text, int start, int end) {
+        this.text.append(text, start, end);
+    }
+
+    @Override
+    public void println(CharSequence line) {
+        text.append(line).append(LINE_SEPARATOR);
+    }
+
+    // Writes everything collected so far to output and empties the buffer.
+    void writeTo(OutputSink output) {
+        output.print(text, 0, text.length());
+        text.setLength(0);
+    }
+
+    boolean isEmpty() {
+        return text.length() == 0;
+    }
+
+    int length() {
+        return text.length();
+    }
+
+    void clear() {
+        text.setLength(0);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
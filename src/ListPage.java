@@ -0,0 +1,212 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// LIST with arguments, which lists one page of the directories below a directory:
+//
+//   LIST [<directory>] [DEPTH <levels>] [LIMIT <lines>] [AFTER <cursor>]
+//
+// The options are keyword and value pairs in any order, so a directory was given exactly when the number of arguments
+// is odd, and a directory may have any name, including DEPTH. Without a directory the page is of the whole tree.
+// - The directories below the directory are listed like LIST lists the whole tree, with its subdirectories at the
+//   start of the line, down to DEPTH levels below it.
+// - At most LIMIT directories are listed. If there are more, a last line "AFTER <cursor>" follows, and the same LIST
+//   with that option appended lists the next page.
+// - AFTER <cursor> lists only the directories that come after the cursor in listing order. The cursor is the path of
+//   the last directory of the previous page, relative to the directory listed. The next page is found by seeking along
+//   the cursor's path, one sorted map seek per level, rather than by listing the pages before it again. The cursor does
+//   not have to exist: if it was deleted or moved since, the page starts at the directories that would have followed it.
+//
+// The walk keeps a cursor per level on a stack instead of recursing, so a page of a tree of any depth can be listed.
+final class ListPage {
+
+    static final String AFTER = "AFTER ";
+
+    // The whole tree, which is what LIST without arguments lists.
+    static final ListPage ALL = new ListPage("");
+
+    // The subdirectories of a directory, in NAME_ORDER. name() and directory() refer to the subdirectory returned by the
+    // last call to next().
+    abstract static class Subdirectories<D> {
+        abstract boolean hasNext();
+
+        abstract void next();
+
+        abstract String name();
+
+        abstract D directory();
+    }
+
+    // How a file system's directories are walked. D is its type of directory.
+    interface Tree<D> {
+        // Returns the subdirectory of directory called name, or null if there is none.
+        D subdirectory(D directory, CharSequence name);
+
+        // Returns the subdirectories of directory whose names come after name, or all of them if name is null.
+        Subdirectories<D> subdirectoriesAfter(D directory, CharSequence name);
+    }
+
+    private final CharSequence command;
+    private int directoryStart = -1;
+    private int directoryEnd = -1;
+    private int depth = Integer.MAX_VALUE;
+    private int limit = Integer.MAX_VALUE;
+    private int afterStart = -1;
+    private int afterEnd = -1;
+
+    private ListPage(CharSequence command) {
+        this.command = command;
+    }
+
+    // Returns the page asked for by a LIST with arguments split into terms, or null if its options are not valid, in
+    // which case the failure is recorded in result.
+    static ListPage parse(CommandTokenizer terms, CommandResult result) {
+        ListPage page = new ListPage(terms.source());
+        int termCount = terms.count();
+        int option = 1;
+        if (termCount % 2 == 0) {
+            page.directoryStart = terms.start(1);
+            page.directoryEnd = terms.end(1);
+            option = 2;
+        }
+        for (; option < termCount; option += 2) {
+            int value = option + 1;
+            if (terms.matches(option, "DEPTH") && page.depth == Integer.MAX_VALUE) {
+                page.depth = parsePositive(terms.source(), terms.start(value), terms.end(value));
+                if (page.depth > 0) {
+                    continue;
+                }
+            } else if (terms.matches(option, "LIMIT") && page.limit == Integer.MAX_VALUE) {
+                page.limit = parsePositive(terms.source(), terms.start(value), terms.end(value));
+                if (page.limit > 0) {
+                    continue;
+                }
+            } else if (terms.matches(option, "AFTER") && page.afterStart < 0) {
+                page.afterStart = terms.start(value);
+                page.afterEnd = terms.end(value);
+                continue;
+            }
+            result.failOption(option, terms.start(option), terms.end(value));
+            return null;
+        }
+        return page;
+    }
+
+    // Returns the number in text[start, end), or -1 if it is not a positive int.
+    private static int parsePositive(CharSequence text, int start, int end) {
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || (number = number * 10 + c - '0') > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return start == end || number == 0 ? -1 : (int) number;
+    }
+
+    boolean hasDirectory() {
+        return directoryStart >= 0;
+    }
+
+    // Splits the directory to list into segments in terms and returns true, or returns false if there is none.
+    boolean splitDirectory(CommandTokenizer terms) {
+        if (directoryStart < 0) {
+            return false;
+        }
+        terms.splitPath(command, directoryStart, directoryEnd);
+        return true;
+    }
+
+    // The directory to list is command[directoryStart(), directoryEnd()), if hasDirectory().
+    int directoryStart() {
+        return directoryStart;
+    }
+
+    int directoryEnd() {
+        return directoryEnd;
+    }
+
+    // Returns the most directories the page may list, which is Integer.MAX_VALUE without LIMIT.
+    int limit() {
+        return limit;
+    }
+
+    // Splits the cursor into segments in terms and returns true, or returns false if there is no AFTER.
+    boolean splitCursor(CommandTokenizer terms) {
+        if (afterStart < 0) {
+            return false;
+        }
+        terms.splitPath(command, afterStart, afterEnd);
+        return true;
+    }
+
+    // Prints the page of the directories below directory, which is the directory to list, found in tree.
+    <D> void print(Tree<D> tree, D directory, OutputSink output) {
+        // levels.get(i) holds the subdirectories at depth i + 1 below directory that are still to be listed, and
+        // path.substring(0, pathEnds[i]) is the path of the last one listed, or of the cursor's directory at that depth.
+        List<Subdirectories<D>> levels = new ArrayList<>();
+        StringBuilder path = new StringBuilder();
+        int[] pathEnds = new int[16];
+
+        CommandTokenizer cursor = new CommandTokenizer();
+        if (splitCursor(cursor)) {
+            // Everything up to the cursor has been listed: at every depth along its path only the subdirectories after
+            // it are left, and below the cursor itself all of its subdirectories.
+            D current = directory;
+            for (int i = 0; i < cursor.count() && i < depth && current != null; i++) {
+                CharSequence name = cursor.term(i);
+                levels.add(tree.subdirectoriesAfter(current, name));
+                pathEnds = appendToPath(path, pathEnds, i, name);
+                current = tree.subdirectory(current, name);
+                if (current != null && i == cursor.count() - 1 && i + 1 < depth) {
+                    levels.add(tree.subdirectoriesAfter(current, null));
+                }
+            }
+        } else if (depth > 0) {
+            levels.add(tree.subdirectoriesAfter(directory, null));
+        }
+
+        StringBuilder line = new StringBuilder();
+        int listed = 0;
+        while (!levels.isEmpty()) {
+            int level = levels.size() - 1;
+            Subdirectories<D> subdirectories = levels.get(level);
+            if (!subdirectories.hasNext()) {
+                levels.remove(level);
+                continue;
+            }
+            if (listed == limit) {
+                output.println(line.append(AFTER).append(path));
+                return;
+            }
+            subdirectories.next();
+            line.setLength(0);
+            for (int i = 0; i < level; i++) {
+                line.append("  ");
+            }
+            output.println(line.append(subdirectories.name()));
+            line.setLength(0);
+            pathEnds = appendToPath(path, pathEnds, level, subdirectories.name());
+            listed++;
+            if (level + 1 < depth) {
+                levels.add(tree.subdirectoriesAfter(subdirectories.directory(), null));
+            }
+        }
+    }
+
+    // Replaces the part of path below depth level with name, and returns pathEnds with the new end recorded.
+    private static int[] appendToPath(StringBuilder path, int[] pathEnds, int level, CharSequence name) {
+        path.setLength(level == 0 ? 0 : pathEnds[level - 1]);
+        if (level > 0) {
+            path.append('/');
+        }
+        path.append(name);
+        if (level == pathEnds.length) {
+            pathEnds = Arrays.copyOf(pathEnds, level * 2);
+        }
+        pathEnds[level] = path.length();
+        return pathEnds;
+    }
+}
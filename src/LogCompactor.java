@@ -0,0 +1,85 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+// Compacts a command file into the shortest one that leaves the same directories behind: one CREATE per directory of
+// the final tree, parents first, in the order LIST lists them.
+//
+// The commands are applied to a CompactFileSystem as they are read, so subtrees that were created and later deleted,
+// and the intermediate places of a directory that was moved many times, simply do not appear in the final tree.
+// Commands that do not change the tree, such as LIST, COUNT, DEPTH and FIND, are skipped without being executed, and so
+// are failed commands. Their output depended on the tree at the time, so it cannot be kept in a log that is replayed in
+// a different order.
+//
+// The log is streamed rather than held, but the tree is held as it grows and shrinks, so memory is bounded by the
+// largest the tree gets while the log is applied plus every distinct directory name in the log, not by the size of the
+// log nor of the final tree. The names stay because the CompactFileSystem's NameDictionary never removes a name, which
+// keeps its IDs valid and is cheap when, as in most logs, names are reused across directories.
+//
+// Instead of CREATEs, the compacted log can be written as the paths of only the directories without subdirectories,
+// which is the input of Main's bulk import (see FileSystem.BulkImport) and smaller still.
+public final class LogCompactor {
+
+    private final CompactFileSystem fileSystem = new CompactFileSystem(OutputSink.NULL);
+    private final CommandTokenizer terms = new CommandTokenizer();
+    private final CommandResult result = new CommandResult();
+    private long commandCount;
+
+    // Applies command to the tree if it changes it.
+    public void add(CharSequence command) {
+        commandCount++;
+        terms.splitTerms(command);
+        if (terms.count() > 0 && (terms.matches(0, "CREATE") || terms.matches(0, "MOVE") || terms.matches(0, "DELETE"))) {
+            fileSystem.executeSplit(terms, result, null);
+        }
+    }
+
+    // Returns the number of commands added.
+    public long commandCount() {
+        return commandCount;
+    }
+
+    // Returns the number of directories in the tree, which is the number of commands of the compacted log.
+    public int directoryCount() {
+        return fileSystem.directoryCount();
+    }
+
+    // Writes the compacted log to output: a CREATE for every directory, or only the paths of the directories without
+    // subdirectories if leafPaths is set.
+    public void writeTo(OutputSink output, boolean leafPaths) {
+        fileSystem.printPaths(leafPaths ? "" : "CREATE ", leafPaths, output);
+    }
+
+    // java -cp out src.LogCompactor <command file> <compacted file> [--paths]
+    // The command file may be "-" for stdin, and files ending in ".gz" are read and written compressed.
+    // With --paths, the leaf paths are written instead of CREATEs.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && !(args.length == 3 && args[2].equals("--paths"))) {
+            throw new IllegalArgumentException("This program must be run with the command file, the compacted file and, optionally, --paths.");
+        }
+        LogCompactor compactor = new LogCompactor();
+        long start = System.nanoTime();
+        Main.readCommands(args[0], new CommandReader(compactor::add));
+
+        Path compacted = Paths.get(args[1]);
+        try (WritableByteChannel channel = args[1].endsWith(".gz")
+                ? Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(compacted), CommandReader.DEFAULT_STREAM_BUFFER_SIZE))
+                : FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                OutputSink sink = new ChannelSink(channel)) {
+            compactor.writeTo(sink, args.length == 3);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        System.err.println("Compacted " + compactor.commandCount() + " commands to " + compactor.directoryCount() + " directories in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+}
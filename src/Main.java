@@ -1,13 +1,55 @@
 package src;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
 
 // Accepts a file path as input and executes all of the FileSystem commands in the file.
 public class Main {
 
+    // Reads the commands from stdin instead of a file.
+    private static final String STDIN = "-";
+
+    // System properties that keep the directories in a data directory across runs instead of starting empty.
+    // See FileSystemStore.
+    private static final String DATA_DIRECTORY_PROPERTY = "filesystem.dataDirectory";
+    private static final String SYNC_POLICY_PROPERTY = "filesystem.sync";
+    private static final String SNAPSHOT_INTERVAL_PROPERTY = "filesystem.snapshotInterval";
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 1_000_000;
+
+    // System properties that turn on CommandMetrics: "true" to expose them through JMX, and "true" to write them to
+    // stderr when the program exits. Without either, no metrics are recorded.
+    private static final String METRICS_PROPERTY = "filesystem.metrics";
+    private static final String METRICS_DUMP_PROPERTY = "filesystem.metrics.dumpOnExit";
+
+    // System property with the number of threads that split commands in a CommandPipeline, which also moves executing
+    // the commands and writing the output to threads of their own. 0, the default, runs everything on the main thread.
+    private static final String PIPELINE_PARSERS_PROPERTY = "filesystem.pipeline.parsers";
+
+    // System property with a file of directory paths, one per line, that are bulk imported before the commands are
+    // executed. See FileSystem.BulkImport.
+    private static final String IMPORT_PROPERTY = "filesystem.import";
+
+    // System property with the number of threads of a ParallelExecutor, which runs commands on unrelated top-level
+    // directories at the same time. 0, the default, runs them one by one. Cannot be combined with the properties above
+    // that choose a data directory or a pipeline.
+    private static final String PARALLELISM_PROPERTY = "filesystem.parallelism";
+
+    // System property that executes the commands on a ShardedFileSystem: either the number of shard processes to start on
+    // loopback, or the comma separated host:port addresses of running FileSystemServers. Cannot be combined with any of
+    // the properties above.
+    private static final String SHARDS_PROPERTY = "filesystem.shards";
+
     // args should only contain one element which is the file name containing the commands to run.
+    // The file name may be "-" to read the commands from stdin, and files ending in ".gz" are decompressed while they are read.
     // If there are any additional elements in args then IllegalArgumentException is thrown.
     public static void main(String[] args) {
         if (args.length != 1) {
@@ -15,20 +57,137 @@ public class Main {
         }
 
         String commandFileName = args[0];
-        File commands = new File(commandFileName);
+        String dataDirectory = System.getProperty(DATA_DIRECTORY_PROPERTY);
+        int parserCount = Integer.getInteger(PIPELINE_PARSERS_PROPERTY, 0);
+        int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 0);
+        String importFileName = System.getProperty(IMPORT_PROPERTY);
+        if (parallelism > 0 && (dataDirectory != null || parserCount > 0 || importFileName != null)) {
+            throw new IllegalArgumentException(PARALLELISM_PROPERTY + " cannot be combined with " + DATA_DIRECTORY_PROPERTY
+                    + ", " + PIPELINE_PARSERS_PROPERTY + " or " + IMPORT_PROPERTY + ".");
+        }
+        String shards = System.getProperty(SHARDS_PROPERTY);
+        if (shards != null && (parallelism > 0 || dataDirectory != null || parserCount > 0 || importFileName != null)) {
+            throw new IllegalArgumentException(SHARDS_PROPERTY + " cannot be combined with " + PARALLELISM_PROPERTY + ", "
+                    + DATA_DIRECTORY_PROPERTY + ", " + PIPELINE_PARSERS_PROPERTY + " or " + IMPORT_PROPERTY + ".");
+        }
+
+        // Closing a BackgroundSink waits for the output to be written. SYSTEM_OUT does not buffer.
+        boolean background = parserCount > 0 || parallelism > 0 || shards != null;
+        try (OutputSink output = background ? new BackgroundSink(OutputSink.SYSTEM_OUT) : OutputSink.SYSTEM_OUT) {
+            if (parallelism > 0) {
+                runInParallel(commandFileName, output, parallelism);
+                return;
+            }
+            if (shards != null) {
+                runSharded(commandFileName, output, shards);
+                return;
+            }
+            if (dataDirectory == null) {
+                run(commandFileName, new FileSystem(output), parserCount, importFileName);
+                return;
+            }
+
+            SyncPolicy syncPolicy = SyncPolicy.valueOf(System.getProperty(SYNC_POLICY_PROPERTY, SyncPolicy.GROUP_COMMIT.name()));
+            long snapshotInterval = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL);
+            try (FileSystemStore store = FileSystemStore.open(Paths.get(dataDirectory), output, syncPolicy, snapshotInterval)) {
+                run(commandFileName, store.fileSystem(), parserCount, importFileName);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Imports the paths in importFileName, if it is not null, and executes the commands in the file on fileSystem,
+    // recording metrics if they are turned on.
+    private static void run(String commandFileName, FileSystem fileSystem, int parserCount, String importFileName) throws IOException {
+        if (importFileName != null) {
+            try (FileSystem.BulkImport bulkImport = fileSystem.bulkImport()) {
+                readCommands(importFileName, new CommandReader(bulkImport::add));
+            }
+        }
+        CommandMetrics metrics = metrics();
+        fileSystem.setMetrics(metrics);
+        if (parserCount > 0) {
+            try (CommandPipeline pipeline = new CommandPipeline(fileSystem, parserCount)) {
+                readCommands(commandFileName, new CommandReader(pipeline::submit));
+            }
+        } else {
+            readCommands(commandFileName, new CommandReader(fileSystem::executeCommand));
+        }
+        if (metrics != null) {
+            fileSystem.measureTree(metrics);
+        }
+    }
+
+    // Executes the commands in the file on a ConcurrentFileSystem with a ParallelExecutor of parallelism threads.
+    private static void runInParallel(String commandFileName, OutputSink output, int parallelism) throws IOException {
+        ConcurrentFileSystem fileSystem = new ConcurrentFileSystem(output);
+        fileSystem.setMetrics(metrics());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (ParallelExecutor executor = new ParallelExecutor(fileSystem, output, pool)) {
+            readCommands(commandFileName, new CommandReader(executor::submit));
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-        Scanner scanner;
-        try {
-            scanner = new Scanner(commands);
-            FileSystem fileSystem = new FileSystem();
-            while(scanner.hasNextLine()) {
-                String command = scanner.nextLine();
-                fileSystem.executeCommand(command);
+    // Executes the commands in the file on the shards, which are started first if shards is a number.
+    private static void runSharded(String commandFileName, OutputSink output, String shards) throws IOException {
+        if (shards.matches("\\d+")) {
+            try (ShardedFileSystem.LocalShards localShards = new ShardedFileSystem.LocalShards(Integer.parseInt(shards))) {
+                runSharded(commandFileName, output, localShards.addresses());
             }
+            return;
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String address : shards.split(",")) {
+            int separator = address.lastIndexOf(':');
+            addresses.add(new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))));
+        }
+        runSharded(commandFileName, output, addresses);
+    }
 
-            scanner.close();
-        } catch (FileNotFoundException e) {
+    private static void runSharded(String commandFileName, OutputSink output, List<InetSocketAddress> shards) throws IOException {
+        try (ShardedFileSystem fileSystem = new ShardedFileSystem(shards, output)) {
+            readCommands(commandFileName, new CommandReader(fileSystem::executeCommand));
+        }
+    }
+
+    // Returns null if metrics are off.
+    private static CommandMetrics metrics() {
+        boolean jmx = Boolean.getBoolean(METRICS_PROPERTY);
+        boolean dumpOnExit = Boolean.getBoolean(METRICS_DUMP_PROPERTY);
+        if (!jmx && !dumpOnExit) {
+            return null;
+        }
+        CommandMetrics metrics = new CommandMetrics();
+        if (jmx) {
+            metrics.registerMBean();
+        }
+        if (dumpOnExit) {
+            // A shutdown hook, so the metrics are also written when the program is interrupted.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> metrics.dump(System.err), "CommandMetrics dump"));
+        }
+        return metrics;
+    }
+
+    // Reads the commands of a file, of stdin for "-", or of a compressed file for a name ending in ".gz".
+    static void readCommands(String commandFileName, CommandReader reader) throws IOException {
+        if (commandFileName.equals(STDIN)) {
+            reader.read(System.in);
+            return;
+        }
+
+        Path commands = Paths.get(commandFileName);
+        if (!Files.isRegularFile(commands)) {
             throw new IllegalArgumentException("File does not exist.");
         }
+        if (commandFileName.endsWith(".gz")) {
+            try (InputStream input = new GZIPInputStream(Files.newInputStream(commands), CommandReader.DEFAULT_STREAM_BUFFER_SIZE)) {
+                reader.read(input);
+            }
+        } else {
+            reader.read(commands);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,222 @@
+package src;
+
+import java.util.Arrays;
+
+// Stores each distinct directory name once and identifies it by an int ID.
+//
+// The characters of every name are packed into a paged byte arena the way String stores its contents: one byte per
+// character when every character fits in Latin-1, and two bytes per character otherwise. A page is 64 KiB, so the
+// arena grows without copying what is already stored, and a name's address fits in an int (page << 16 | offset).
+// Names that are longer than a page get a page of their own.
+//
+// Names are never removed, so an ID stays valid for the lifetime of the dictionary. Since names are shared, the arena
+// is bounded by the number of distinct names ever used rather than by the number of directories.
+final class NameDictionary {
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_SHIFT);
+    private static final int INITIAL_CAPACITY = 64;
+
+    private byte[][] pages = new byte[16][];
+    private int pageCount;
+    // Position of the next free byte in the last page.
+    private int pageOffset = PAGE_SIZE;
+
+    // Indexed by name ID. A negative length means the name is stored with two bytes per character.
+    private int[] addresses = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // Open addressing hash table with linear probing of name ID + 1, where 0 is an empty slot.
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    int size() {
+        return size;
+    }
+
+    // Returns the ID of source[start, end), or -1 if it is not in the dictionary.
+    // hash is the String.hashCode() of the name.
+    int find(CharSequence source, int start, int end, int hash) {
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (hashes[id] == hash && equals(id, source, start, end)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the ID of source[start, end), adding it to the dictionary if it is not already there.
+    int intern(CharSequence source, int start, int end, int hash) {
+        int id = find(source, start, end, hash);
+        if (id >= 0) {
+            return id;
+        }
+
+        if (size == addresses.length) {
+            int capacity = size + (size >> 1);
+            addresses = Arrays.copyOf(addresses, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        id = size++;
+        store(id, source, start, end);
+        hashes[id] = hash;
+
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        insert(table, id);
+        return id;
+    }
+
+    int length(int id) {
+        return Math.abs(lengths[id]);
+    }
+
+    char charAt(int id, int index) {
+        int address = addresses[id];
+        byte[] page = pages[address >>> PAGE_SHIFT];
+        int offset = address & (PAGE_SIZE - 1);
+        if (lengths[id] >= 0) {
+            return (char) (page[offset + index] & 0xFF);
+        }
+        int position = offset + index * 2;
+        return (char) (((page[position] & 0xFF) << 8) | (page[position + 1] & 0xFF));
+    }
+
+    // Copies the characters of name id to destination[offset, offset + length(id)).
+    void getChars(int id, char[] destination, int offset) {
+        int length = length(id);
+        for (int i = 0; i < length; i++) {
+            destination[offset + i] = charAt(id, i);
+        }
+    }
+
+    // Compares two names in the same order as AbstractFileSystem.NAME_ORDER.
+    int compare(int a, int b) {
+        if (a == b) {
+            return 0;
+        }
+        int aLength = length(a);
+        int bLength = length(b);
+        for (int i = 0, n = Math.min(aLength, bLength); i < n; i++) {
+            char aChar = charAt(a, i);
+            char bChar = charAt(b, i);
+            if (aChar != bChar) {
+                return aChar - bChar;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    // Compares the name id to name in the same order as AbstractFileSystem.NAME_ORDER.
+    int compare(int id, CharSequence name) {
+        int length = length(id);
+        for (int i = 0, n = Math.min(length, name.length()); i < n; i++) {
+            char c = charAt(id, i);
+            if (c != name.charAt(i)) {
+                return c - name.charAt(i);
+            }
+        }
+        return length - name.length();
+    }
+
+    // Returns the number of bytes held by the dictionary.
+    long memoryFootprint() {
+        long bytes = 4L * (addresses.length + lengths.length + hashes.length + table.length) + 8L * pages.length;
+        for (int i = 0; i < pageCount; i++) {
+            bytes += pages[i].length;
+        }
+        return bytes;
+    }
+
+    private boolean equals(int id, CharSequence source, int start, int end) {
+        if (length(id) != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (charAt(id, i - start) != source.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void store(int id, CharSequence source, int start, int end) {
+        int length = end - start;
+        boolean latin1 = true;
+        for (int i = start; i < end && latin1; i++) {
+            latin1 = source.charAt(i) <= 0xFF;
+        }
+        int byteLength = latin1 ? length : length * 2;
+
+        byte[] page;
+        int offset;
+        if (byteLength > PAGE_SIZE) {
+            page = newPage(byteLength);
+            offset = 0;
+            addresses[id] = (pageCount - 1) << PAGE_SHIFT;
+            // The next name must not be put after this one, since its offset would not fit in the address.
+            pageOffset = PAGE_SIZE;
+        } else {
+            if (PAGE_SIZE - pageOffset < byteLength) {
+                newPage(PAGE_SIZE);
+                pageOffset = 0;
+            }
+            page = pages[pageCount - 1];
+            offset = pageOffset;
+            addresses[id] = (pageCount - 1) << PAGE_SHIFT | offset;
+            pageOffset += byteLength;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(start + i);
+            if (latin1) {
+                page[offset + i] = (byte) c;
+            } else {
+                page[offset + i * 2] = (byte) (c >>> 8);
+                page[offset + i * 2 + 1] = (byte) c;
+            }
+        }
+        lengths[id] = latin1 ? length : -length;
+    }
+
+    private byte[] newPage(int pageSize) {
+        if (pageCount == MAX_PAGES) {
+            throw new IllegalStateException("Too many directory names: the name arena is full.");
+        }
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pageCount * 2);
+        }
+        byte[] page = new byte[pageSize];
+        pages[pageCount++] = page;
+        return page;
+    }
+
+    private void rehash(int capacity) {
+        int[] newTable = new int[capacity];
+        for (int id = 0; id < size - 1; id++) {
+            insert(newTable, id);
+        }
+        table = newTable;
+    }
+
+    private void insert(int[] table, int id) {
+        int mask = table.length - 1;
+        int slot = mix(hashes[id]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    // Spreads the bits of a String hash code, whose low bits are poor for short names, over the table.
+    static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
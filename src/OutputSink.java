@@ -0,0 +1,67 @@
+package src;
+
+import java.io.Closeable;
+
+// Destination for everything a FileSystem prints: echoed commands, error messages and LIST output.
+// Each line is terminated with the platform line separator, the same as System.out.println().
+//
+// Sinks are not thread-safe unless stated otherwise. Buffered sinks only guarantee that output has been
+// handed to the underlying destination after flush() or close().
+public interface OutputSink extends Closeable {
+
+    // Writes to whatever System.out is at the time of each call and never buffers, so output interleaves with
+    // other users of System.out and tests can redirect it with System.setOut().
+    OutputSink SYSTEM_OUT = new OutputSink() {
+
+        @Override
+        public void print(CharSequence text, int start, int end) {
+            System.out.append(text, start, end);
+        }
+
+        @Override
+        public void println(CharSequence line) {
+            System.out.println(line);
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    };
+
+    // Discards all output. Useful for benchmarks and bulk loads where nobody reads the output.
+    OutputSink NULL = new OutputSink() {
+
+        @Override
+        public void print(CharSequence text, int start, int end) {
+        }
+
+        @Override
+        public void println(CharSequence line) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    // Writes text[start, end) without a line separator.
+    void print(CharSequence text, int start, int end);
+
+    // Writes line followed by the line separator.
+    void println(CharSequence line);
+
+    void flush();
+
+    @Override
+    void close();
+}
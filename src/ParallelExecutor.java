@@ -0,0 +1,227 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Executes a stream of commands on a ConcurrentFileSystem, running commands on unrelated top-level directories in
+// parallel, with the same result and the same output as executing them one by one.
+//
+// Commands are collected into batches. Each command's footprint is the set of top-level directories its paths start
+// with: one for CREATE, DELETE and a LIST, COUNT or DEPTH of a directory, up to two for MOVE. Within a batch, commands
+// whose footprints overlap, directly or through other commands, form a group, and the commands of a group run one after
+// another in their original order. Different groups touch disjoint subtrees, so running them at the same time cannot
+// change what any command sees. LIST of the whole tree reads every directory, so it is a barrier: the groups before it
+// finish, it runs alone, and then the groups after it start. So are FIND, and COUNT and DEPTH of the whole tree.
+// Commands that are malformed do not touch the tree at all and run wherever they fall.
+//
+// The output of every command is collected on its own and written to the output in the original order once its batch
+// is done, so the output is exactly the same as a serial run's.
+public final class ParallelExecutor implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1 << 12;
+    // Marks a command that does not belong to any group.
+    private static final int NO_GROUP = -1;
+
+    private final ConcurrentFileSystem fileSystem;
+    private final OutputSink output;
+    private final ForkJoinPool pool;
+
+    private final String[] commands;
+    private final LineBuffer[] outputs;
+    private int size;
+
+    // Scratch space for planning a batch, only used by the thread calling submit().
+    private final CommandTokenizer terms = new CommandTokenizer();
+    private final CommandTokenizer path = new CommandTokenizer();
+    private final CharSlice rootName = new CharSlice();
+    private final Map<CharSequence, Integer> rootGroups = new HashMap<>();
+    // Union-find forest of the groups of a segment.
+    private int[] groupParents = new int[64];
+    private final int[] commandGroups;
+    // The next command in the same group, or -1.
+    private final int[] nextInGroup;
+    private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    private boolean closed;
+
+    // fileSystem's own output is not used. The caller owns output and is responsible for flushing and closing it.
+    public ParallelExecutor(ConcurrentFileSystem fileSystem, OutputSink output, ForkJoinPool pool) {
+        this(fileSystem, output, pool, DEFAULT_BATCH_SIZE);
+    }
+
+    public ParallelExecutor(ConcurrentFileSystem fileSystem, OutputSink output, ForkJoinPool pool, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.fileSystem = fileSystem;
+        this.output = output;
+        this.pool = pool;
+        commands = new String[batchSize];
+        outputs = new LineBuffer[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            outputs[i] = new LineBuffer();
+        }
+        commandGroups = new int[batchSize];
+        nextInGroup = new int[batchSize];
+    }
+
+    // Adds command to the current batch, and executes the batch once it is full.
+    public void submit(CharSequence command) {
+        if (closed) {
+            throw new IllegalStateException("The executor is closed.");
+        }
+        commands[size++] = command.toString();
+        if (size == commands.length) {
+            executeBatch();
+        }
+    }
+
+    // Executes the commands submitted since the last full batch.
+    public void flush() {
+        if (size > 0) {
+            executeBatch();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            flush();
+            closed = true;
+        }
+    }
+
+    private void executeBatch() {
+        int segmentStart = 0;
+        for (int i = 0; i < size; i++) {
+            if (isBarrier(commands[i])) {
+                executeSegment(segmentStart, i);
+                fileSystem.executeCommand(commands[i], outputs[i]);
+                segmentStart = i + 1;
+            }
+        }
+        executeSegment(segmentStart, size);
+
+        for (int i = 0; i < size; i++) {
+            outputs[i].writeTo(output);
+            commands[i] = null;
+        }
+        size = 0;
+    }
+
+    // Executes commands[start, end), none of which is a barrier.
+    private void executeSegment(int start, int end) {
+        if (start == end) {
+            return;
+        }
+        rootGroups.clear();
+        int groupCount = 0;
+        for (int i = start; i < end; i++) {
+            terms.splitTerms(commands[i]);
+            int group = NO_GROUP;
+            boolean isMove = terms.count() == 3 && terms.matches(0, "MOVE");
+            // The options of a LIST of a directory are not directory names.
+            boolean isDirectoryList = isDirectoryList(terms);
+            if (isMove || isDirectoryList || (terms.count() == 2 && (terms.matches(0, "CREATE") || terms.matches(0, "DELETE") || isMeasure(terms)))) {
+                for (int term = 1; term < (isDirectoryList ? 2 : terms.count()); term++) {
+                    CharSequence root = rootOf(commands[i], terms.start(term), terms.end(term));
+                    Integer rootGroup = rootGroups.get(root);
+                    if (rootGroup == null) {
+                        if (groupCount == groupParents.length) {
+                            groupParents = Arrays.copyOf(groupParents, groupCount * 2);
+                        }
+                        groupParents[groupCount] = groupCount;
+                        rootGroup = groupCount++;
+                        rootGroups.put(root.toString(), rootGroup);
+                    }
+                    group = group == NO_GROUP ? find(rootGroup) : union(group, rootGroup);
+                }
+            }
+            commandGroups[i] = group;
+        }
+
+        // Chains the commands of each group in their original order, walking backwards so that each command is put in
+        // front of the ones after it. Malformed commands are run on their own.
+        int[] groupHeads = new int[groupCount];
+        Arrays.fill(groupHeads, -1);
+        tasks.clear();
+        for (int i = end - 1; i >= start; i--) {
+            if (commandGroups[i] == NO_GROUP) {
+                nextInGroup[i] = -1;
+                tasks.add(task(i));
+            } else {
+                int group = find(commandGroups[i]);
+                nextInGroup[i] = groupHeads[group];
+                groupHeads[group] = i;
+            }
+        }
+        for (int group = 0; group < groupCount; group++) {
+            if (groupHeads[group] != -1) {
+                tasks.add(task(groupHeads[group]));
+            }
+        }
+
+        if (tasks.size() == 1) {
+            tasks.get(0).invoke();
+        } else {
+            for (ForkJoinTask<?> task : tasks) {
+                pool.execute(task);
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    // Returns a task that executes the command at first and every command after it in its group.
+    private ForkJoinTask<?> task(int first) {
+        return ForkJoinTask.adapt(() -> {
+            for (int i = first; i != -1; i = nextInGroup[i]) {
+                fileSystem.executeCommand(commands[i], outputs[i]);
+            }
+        });
+    }
+
+    // Returns the first segment of the directory name command[start, end), as FileSystem would split it.
+    // The result is only valid until the next call.
+    private CharSequence rootOf(String command, int start, int end) {
+        path.splitPath(command, start, end);
+        return rootName.reset(command, path.start(0), path.end(0));
+    }
+
+    // Returns true for the commands that read the whole tree: LIST and FIND, except a LIST of a directory, and COUNT and
+    // DEPTH without a directory name.
+    private boolean isBarrier(String command) {
+        terms.splitTerms(command);
+        return terms.count() > 0 && (terms.matches(0, "LIST") && !isDirectoryList(terms) || terms.matches(0, "FIND"))
+                || terms.count() == 1 && isMeasure(terms);
+    }
+
+    // A LIST with an odd number of arguments lists a directory, see ListPage.
+    private static boolean isDirectoryList(CommandTokenizer terms) {
+        return terms.count() % 2 == 0 && terms.matches(0, "LIST");
+    }
+
+    private static boolean isMeasure(CommandTokenizer terms) {
+        return terms.matches(0, "COUNT") || terms.matches(0, "DEPTH");
+    }
+
+    private int find(int group) {
+        while (groupParents[group] != group) {
+            groupParents[group] = groupParents[groupParents[group]];
+            group = groupParents[group];
+        }
+        return group;
+    }
+
+    private int union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        groupParents[rootB] = rootA;
+        return rootA;
+    }
+}
@@ -0,0 +1,91 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded least-recently-used cache from a full directory path to the directory it names.
+//
+// Entries are never removed when the tree changes. Instead every structural change that can make a path name a
+// different directory (a MOVE or DELETE) advances the cache's generation, and each entry remembers the generation it
+// was last known to be valid in. An entry from an older generation is checked with the Validator on its next hit and
+// either brought up to date or dropped, so invalidating a subtree costs O(1) no matter how much of it is cached.
+final class PathCache<V> {
+
+    // Decides whether value is still reached by the same path as it was in generation.
+    interface Validator<V> {
+        boolean isValid(V value, long generation);
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private long generation;
+
+        private Entry(V value, long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    private final Validator<V> validator;
+    private final Map<CharSequence, Entry<V>> entries;
+    private final CharSlice key = new CharSlice();
+    private long generation;
+
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long evictions;
+
+    PathCache(int capacity, Validator<V> validator) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Path cache capacity must be positive.");
+        }
+        this.validator = validator;
+        entries = new LinkedHashMap<CharSequence, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CharSequence, Entry<V>> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the value cached for path[start, end), whose String.hashCode() is hash, or null if there is no valid entry.
+    V get(CharSequence path, int start, int end, int hash) {
+        Entry<V> entry = entries.get(key.reset(path, start, end, hash));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.generation != generation) {
+            if (!validator.isValid(entry.value, entry.generation)) {
+                entries.remove(key);
+                invalidations++;
+                misses++;
+                return null;
+            }
+            entry.generation = generation;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    // Caches value for path[start, end).
+    void put(CharSequence path, int start, int end, V value) {
+        entries.put(path.subSequence(start, end).toString(), new Entry<>(value, generation));
+    }
+
+    // Starts a new generation and returns it.
+    // Values changed by a MOVE or DELETE must record the returned generation so that the validator rejects entries
+    // cached before the change.
+    long advanceGeneration() {
+        return ++generation;
+    }
+
+    CacheStatistics statistics() {
+        return new CacheStatistics(hits, misses, invalidations, evictions, entries.size());
+    }
+}
@@ -0,0 +1,217 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+// An immutable sorted map from names to values, implemented as a path-copying AVL tree.
+// put() and remove() return a new map that shares every node not on the path to the changed key with the old one,
+// so each update allocates O(log n) nodes and old versions stay valid for as long as anyone holds them.
+final class PersistentSortedMap<V> {
+
+    private static final Comparator<CharSequence> ORDER = AbstractFileSystem.NAME_ORDER;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentSortedMap EMPTY = new PersistentSortedMap<>(null);
+
+    private static final class Node<V> {
+        private final String key;
+        private final V value;
+        private final Node<V> left;
+        private final Node<V> right;
+        private final int height;
+        private final int size;
+
+        private Node(String key, V value, Node<V> left, Node<V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            height = Math.max(height(left), height(right)) + 1;
+            size = size(left) + size(right) + 1;
+        }
+    }
+
+    // Iterates over the entries in key order. key() and value() refer to the entry returned by the last call to next().
+    final class Cursor {
+        private final ArrayDeque<Node<V>> stack = new ArrayDeque<>();
+        private Node<V> current;
+
+        private Cursor() {
+            pushLeft(root);
+        }
+
+        // Starts at the first key after after: only the nodes on the search path for after whose keys are greater are
+        // pushed, which are exactly those that pushLeft() would have left on the stack once the cursor had passed after.
+        private Cursor(CharSequence after) {
+            Node<V> node = root;
+            while (node != null) {
+                if (ORDER.compare(after, node.key) < 0) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        void next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            current = stack.pop();
+            pushLeft(current.right);
+        }
+
+        String key() {
+            return current.key;
+        }
+
+        V value() {
+            return current.value;
+        }
+
+        private void pushLeft(Node<V> node) {
+            for (; node != null; node = node.left) {
+                stack.push(node);
+            }
+        }
+    }
+
+    private final Node<V> root;
+
+    private PersistentSortedMap(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentSortedMap<V> empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    V get(CharSequence key) {
+        Node<V> node = root;
+        while (node != null) {
+            int comparison = ORDER.compare(key, node.key);
+            if (comparison == 0) {
+                return node.value;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    // Returns a map with key mapped to value.
+    // If key is already present its String is reused, otherwise key is copied into a new String.
+    PersistentSortedMap<V> put(CharSequence key, V value) {
+        return new PersistentSortedMap<>(put(root, key, value));
+    }
+
+    // Returns a map without key, or this map if key is not present.
+    PersistentSortedMap<V> remove(CharSequence key) {
+        Node<V> updated = remove(root, key);
+        return updated == root ? this : new PersistentSortedMap<>(updated);
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Returns a cursor over the entries whose keys come after key, in O(log n).
+    Cursor cursorAfter(CharSequence key) {
+        return new Cursor(key);
+    }
+
+    // Returns true if both maps are the same version, in which case every entry is the same.
+    boolean isSameVersion(PersistentSortedMap<V> other) {
+        return root == other.root;
+    }
+
+    private static <V> Node<V> put(Node<V> node, CharSequence key, V value) {
+        if (node == null) {
+            return new Node<>(key.toString(), value, null, null);
+        }
+        int comparison = ORDER.compare(key, node.key);
+        if (comparison == 0) {
+            return new Node<>(node.key, value, node.left, node.right);
+        } else if (comparison < 0) {
+            return balance(node.key, node.value, put(node.left, key, value), node.right);
+        } else {
+            return balance(node.key, node.value, node.left, put(node.right, key, value));
+        }
+    }
+
+    private static <V> Node<V> remove(Node<V> node, CharSequence key) {
+        if (node == null) {
+            return null;
+        }
+        int comparison = ORDER.compare(key, node.key);
+        if (comparison < 0) {
+            Node<V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        } else if (comparison > 0) {
+            Node<V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        } else if (node.left == null) {
+            return node.right;
+        } else if (node.right == null) {
+            return node.left;
+        } else {
+            Node<V> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+        }
+    }
+
+    private static <V> Node<V> removeFirst(Node<V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    // Builds a node from its parts, rotating once or twice if the heights of left and right differ by 2.
+    private static <V> Node<V> balance(String key, V value, Node<V> left, Node<V> right) {
+        int difference = height(left) - height(right);
+        if (difference > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<V> middle = left.right;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(left.key, left.value, left.left, middle.left),
+                    new Node<>(key, value, middle.right, right));
+        } else if (difference < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<V> middle = right.left;
+            return new Node<>(middle.key, middle.value,
+                    new Node<>(key, value, left, middle.left),
+                    new Node<>(right.key, right.value, middle.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
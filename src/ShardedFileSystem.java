@@ -0,0 +1,562 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Executes commands on a directory tree that is partitioned across shards, each a FileSystemServer in a process of its
+// own, so that the tree is not bounded by the heap and the core of a single JVM. Every top-level directory, with
+// everything below it, lives on the shard chosen by the hash of its name. The output is exactly what a FileSystem
+// executing the same commands would print.
+//
+// - CREATE, DELETE, COUNT and DEPTH of a directory, and a MOVE within one shard, are sent to the shard of the top-level
+//   directory of their first directory name, and the shard's output is copied. They are pipelined: commands are sent
+//   without waiting for the responses, which are read and printed in the order of the commands once MAX_PENDING are
+//   outstanding or another command needs all shards. Commands sent to different shards work on different top-level
+//   directories, so the order the shards execute them in does not matter.
+// - LIST merges the listings of all shards, which are sorted, top-level directory by top-level directory, and FIND
+//   merges their sorted paths. A bare COUNT adds up the counts of the shards and a bare DEPTH takes the largest depth.
+// - A LIST of a directory is sent to the directory's shard. A page of the whole tree merges the pages of all shards,
+//   which are asked for the same number of lines, and works out the cursor of the merged page itself.
+// - A MOVE between shards transfers the subtree in two phases. The coordinator checks the source and the destination
+//   with COUNTs, reads the subtree out of a LIST of the source and prepares the move by creating a copy of it at the
+//   destination. Only once every directory of the copy exists does it commit by deleting the source. If the copy or the
+//   delete fails, the copy is deleted again, so a failed move leaves the tree as it was.
+// - Malformed commands are sent to the first shard, which reports them like a FileSystem.
+//
+// The coordinator must be the only client of its shards, and it is not thread-safe.
+public final class ShardedFileSystem implements AutoCloseable {
+
+    // Bound the responses a shard may have to buffer before they are read, so that neither side blocks on a full socket.
+    private static final int MAX_PENDING = 128;
+    private static final int MAX_PENDING_CHARS = 1 << 15;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String END_OF_RESPONSE = ".";
+    // Every message of a failed command starts with this. Nothing else a command prints can, since directory names cannot
+    // contain white space.
+    private static final String FAILURE = "Cannot ";
+
+    private final Shard[] shards;
+    private final OutputSink output;
+
+    // The shards of the commands that were sent but whose responses have not been read yet, in order.
+    private final int[] pending = new int[MAX_PENDING];
+    private int pendingCount;
+    private int pendingChars;
+
+    // Reused for every command so that parsing does not allocate.
+    private final CommandTokenizer commandTerms = new CommandTokenizer();
+    private final CommandTokenizer sourceTerms = new CommandTokenizer();
+    private final CommandTokenizer destinationTerms = new CommandTokenizer();
+    private final CommandResult result = new CommandResult();
+
+    // Connects to the shards, which must be empty or have been filled by a ShardedFileSystem with the same shards in the
+    // same order. All output, including the echoed commands, is written to output, which the caller owns.
+    public ShardedFileSystem(List<InetSocketAddress> shardAddresses, OutputSink output) throws IOException {
+        if (shardAddresses.isEmpty()) {
+            throw new IllegalArgumentException("A ShardedFileSystem needs at least one shard.");
+        }
+        shards = new Shard[shardAddresses.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Shard(shardAddresses.get(i));
+            }
+        } catch (IOException e) {
+            closeShards();
+            throw e;
+        }
+        this.output = output;
+    }
+
+    // command is assumed to be non-null. Its output may only be written by a later command, flush() or close().
+    public void executeCommand(CharSequence command) {
+        CommandTokenizer terms = commandTerms;
+        terms.splitTerms(command);
+        int termCount = terms.count();
+        try {
+            if (termCount == 3 && terms.matches(0, "MOVE")) {
+                move(command, terms);
+            } else if (termCount == 2 && (terms.matches(0, "CREATE") || terms.matches(0, "DELETE") || terms.matches(0, "COUNT")
+                    || terms.matches(0, "DEPTH"))) {
+                send(shardOf(command, terms.start(1), terms.end(1)), command);
+            } else if (termCount == 1 && terms.matches(0, "LIST")) {
+                mergeListings(command);
+            } else if (terms.matches(0, "LIST")) {
+                ListPage page = ListPage.parse(terms, result);
+                if (page == null) {
+                    send(0, command);
+                } else if (page.hasDirectory()) {
+                    send(shardOf(command, page.directoryStart(), page.directoryEnd()), command);
+                } else {
+                    mergePages(command, page);
+                }
+            } else if (termCount == 1 && (terms.matches(0, "COUNT") || terms.matches(0, "DEPTH"))) {
+                mergeMeasures(command, terms.matches(0, "COUNT"));
+            } else if (termCount == 2 && terms.matches(0, "FIND")) {
+                mergePaths(command, AbstractFileSystem.PATH_ORDER);
+            } else {
+                send(0, command);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes the output of every command executed so far.
+    public void flush() {
+        try {
+            readPending();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes the output of every command executed so far and disconnects from the shards, which keep their directories.
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            closeShards();
+        }
+    }
+
+    private void closeShards() {
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+
+    // Returns the shard of the top-level directory of the directory name command[start, end).
+    private int shardOf(CharSequence command, int start, int end) {
+        int topLevelEnd = start;
+        while (topLevelEnd < end && command.charAt(topLevelEnd) != '/') {
+            topLevelEnd++;
+        }
+        int hash = CharSlice.hashCode(command, start, topLevelEnd, 0);
+        // Spread the high bits, as HashMap does, since shard counts are small.
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    private void send(int shard, CharSequence command) throws IOException {
+        if (pendingCount == MAX_PENDING || pendingChars > MAX_PENDING_CHARS) {
+            readPending();
+        }
+        shards[shard].send(command);
+        pending[pendingCount++] = shard;
+        pendingChars += command.length();
+    }
+
+    // Copies the responses of the pending commands to the output, in the order the commands were sent.
+    private void readPending() throws IOException {
+        for (Shard shard : shards) {
+            shard.flush();
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            Shard shard = shards[pending[i]];
+            for (String line = shard.readLine(); line != null; line = shard.readLine()) {
+                output.println(line);
+            }
+        }
+        pendingCount = 0;
+        pendingChars = 0;
+    }
+
+    // Sends command to every shard and prints the echoed command once. The rest of the responses are left to be read.
+    private void sendToAll(CharSequence command) throws IOException {
+        readPending();
+        for (Shard shard : shards) {
+            shard.send(command);
+            shard.flush();
+        }
+        String echo = null;
+        for (Shard shard : shards) {
+            echo = shard.readLine();
+        }
+        output.println(echo);
+    }
+
+    // Every shard lists its top-level directories in NAME_ORDER, each followed by the indented lines of its
+    // subdirectories, and no top-level directory is on two shards. So the lines of the top-level directories are merged,
+    // and every other line follows the top-level directory it was listed with.
+    private void mergeListings(CharSequence command) throws IOException {
+        sendToAll(command);
+        String[] heads = new String[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            heads[i] = shards[i].readLine();
+        }
+        for (int next = smallest(heads, AbstractFileSystem.NAME_ORDER); next >= 0; next = smallest(heads, AbstractFileSystem.NAME_ORDER)) {
+            output.println(heads[next]);
+            String line = shards[next].readLine();
+            while (line != null && line.startsWith(" ")) {
+                output.println(line);
+                line = shards[next].readLine();
+            }
+            heads[next] = line;
+        }
+    }
+
+    // Like mergeListings(), stopping after page.limit() lines. Every shard lists at most that many, so together they have
+    // enough lines for the page, and there are more once a line is left over or a shard has more. The cursor is the path
+    // of the last line printed, which is built from the cursor the page starts after, since the first lines of a shard
+    // can be below a directory that the previous page listed.
+    private void mergePages(CharSequence command, ListPage page) throws IOException {
+        sendToAll(command);
+        List<String> path = new ArrayList<>();
+        CommandTokenizer cursor = sourceTerms;
+        if (page.splitCursor(cursor)) {
+            for (int i = 0; i < cursor.count(); i++) {
+                path.add(cursor.term(i).toString());
+            }
+        }
+        boolean[] more = new boolean[1];
+        String[] heads = new String[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            heads[i] = readPageLine(shards[i], more);
+        }
+        int listed = 0;
+        for (int next = nextBlock(heads); next >= 0; next = nextBlock(heads)) {
+            String line = heads[next];
+            while (listed < page.limit()) {
+                output.println(line);
+                listed++;
+                int depth = 0;
+                while (line.charAt(depth * 2) == ' ') {
+                    depth++;
+                }
+                path.subList(Math.min(depth, path.size()), path.size()).clear();
+                path.add(line.substring(depth * 2));
+                line = readPageLine(shards[next], more);
+                if (line == null || !line.startsWith(" ")) {
+                    break;
+                }
+            }
+            heads[next] = line;
+            if (listed == page.limit()) {
+                break;
+            }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (heads[i] != null) {
+                more[0] = true;
+                shards[i].readToEnd();
+            }
+        }
+        if (more[0]) {
+            output.println(ListPage.AFTER + String.join("/", path));
+        }
+    }
+
+    // Returns the next directory line of a page, or null at the end of the page, setting more[0] if it ends with a cursor.
+    private static String readPageLine(Shard shard, boolean[] more) throws IOException {
+        String line = shard.readLine();
+        if (line != null && line.startsWith(ListPage.AFTER)) {
+            more[0] = true;
+            shard.readToEnd();
+            return null;
+        }
+        return line;
+    }
+
+    // Returns the shard whose next block of lines comes first, or -1 if no shard has lines left. A page that starts
+    // below a directory of the previous page starts with indented lines, which come before every other shard's lines.
+    private static int nextBlock(String[] heads) {
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] != null && heads[i].startsWith(" ")) {
+                return i;
+            }
+        }
+        return smallest(heads, AbstractFileSystem.NAME_ORDER);
+    }
+
+    // Merges the lines of all shards, each of which is sorted in order.
+    private void mergePaths(CharSequence command, Comparator<CharSequence> order) throws IOException {
+        sendToAll(command);
+        String[] heads = new String[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            heads[i] = shards[i].readLine();
+        }
+        for (int next = smallest(heads, order); next >= 0; next = smallest(heads, order)) {
+            output.println(heads[next]);
+            heads[next] = shards[next].readLine();
+        }
+    }
+
+    // Returns the index of the smallest line in heads that is not null, or -1 if they are all null.
+    // A linear scan, since there are few shards.
+    private static int smallest(String[] heads, Comparator<CharSequence> order) {
+        int smallest = -1;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] != null && (smallest < 0 || order.compare(heads[i], heads[smallest]) < 0)) {
+                smallest = i;
+            }
+        }
+        return smallest;
+    }
+
+    private void mergeMeasures(CharSequence command, boolean count) throws IOException {
+        sendToAll(command);
+        long total = 0;
+        for (Shard shard : shards) {
+            long measure = Long.parseLong(shard.readLine());
+            total = count ? total + measure : Math.max(total, measure);
+            shard.readToEnd();
+        }
+        output.println(Long.toString(total));
+    }
+
+    private void move(CharSequence command, CommandTokenizer terms) throws IOException {
+        int sourceShard = shardOf(command, terms.start(1), terms.end(1));
+        int destinationShard = shardOf(command, terms.start(2), terms.end(2));
+        if (sourceShard == destinationShard) {
+            send(sourceShard, command);
+            return;
+        }
+        readPending();
+        output.println(command);
+        result.reset(CommandType.MOVE, terms);
+        if (moveBetweenShards(command, terms, shards[sourceShard], shards[destinationShard]) != CommandOutcome.SUCCESS) {
+            result.printMessage(output);
+        }
+    }
+
+    // Checks the move in the same order as FileSystem.moveDirectory(). The destination cannot be within the source,
+    // since they have different top-level directories.
+    private CommandOutcome moveBetweenShards(CharSequence command, CommandTokenizer terms, Shard from, Shard to) throws IOException {
+        CommandTokenizer source = sourceTerms;
+        source.splitPath(command, terms.start(1), terms.end(1));
+        int sourceLast = source.count() - 1;
+        CommandTokenizer destination = destinationTerms;
+        destination.splitPath(command, terms.start(2), terms.end(2));
+        String sourcePath = command.subSequence(source.start(0), source.end(sourceLast)).toString();
+        String copyPath = command.subSequence(destination.start(0), destination.end(destination.count() - 1)) + "/" + source.term(sourceLast);
+
+        from.send("COUNT " + sourcePath);
+        from.flush();
+        to.send("COUNT " + command.subSequence(terms.start(2), terms.end(2)));
+        to.send("COUNT " + copyPath);
+        to.flush();
+        boolean sourceExists = readSuccess(from);
+        boolean destinationExists = readSuccess(to);
+        boolean copyExists = readSuccess(to);
+        if (!sourceExists) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, -1);
+        } else if (!destinationExists) {
+            return result.fail(CommandOutcome.DOES_NOT_EXIST, 2, -1);
+        } else if (copyExists) {
+            return result.fail(CommandOutcome.ALREADY_EXISTS, 1, sourceLast);
+        }
+
+        // Prepare: copy the subtree, parents first, in pipelined chunks.
+        from.send("LIST " + sourcePath);
+        from.flush();
+        List<String> copy = readSubtree(from, copyPath);
+        for (int chunk = 0; chunk < copy.size(); chunk += MAX_PENDING) {
+            int chunkEnd = Math.min(copy.size(), chunk + MAX_PENDING);
+            for (int i = chunk; i < chunkEnd; i++) {
+                to.send("CREATE " + copy.get(i));
+            }
+            to.flush();
+            boolean copied = true;
+            for (int i = chunk; i < chunkEnd; i++) {
+                copied &= readSuccess(to);
+            }
+            if (!copied) {
+                abortMove(to, copyPath);
+                throw new IllegalStateException("Could not copy " + sourcePath + " to " + copyPath + ". Another client changed a shard.");
+            }
+        }
+
+        // Commit: delete the source.
+        from.send("DELETE " + sourcePath);
+        from.flush();
+        if (!readSuccess(from)) {
+            abortMove(to, copyPath);
+            throw new IllegalStateException("Could not delete " + sourcePath + " after copying it. Another client changed a shard.");
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    private static void abortMove(Shard to, String copyPath) throws IOException {
+        to.send("DELETE " + copyPath);
+        to.flush();
+        readSuccess(to);
+    }
+
+    // Reads the response of a LIST of the moved directory and returns the path of copyPath and of every directory below
+    // it, with the moved directory replaced by copyPath, in listing order.
+    private static List<String> readSubtree(Shard shard, String copyPath) throws IOException {
+        List<String> paths = new ArrayList<>();
+        paths.add(copyPath);
+        // parents.get(i) is the path of the last directory listed i levels below the moved directory.
+        List<String> parents = new ArrayList<>();
+        parents.add(copyPath);
+        shard.readLine();
+        for (String line = shard.readLine(); line != null; line = shard.readLine()) {
+            int depth = 0;
+            while (line.charAt(depth * 2) == ' ') {
+                depth++;
+            }
+            String path = parents.get(depth) + "/" + line.substring(depth * 2);
+            if (parents.size() == depth + 1) {
+                parents.add(path);
+            } else {
+                parents.set(depth + 1, path);
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    // Reads a response and returns true if the command succeeded.
+    private static boolean readSuccess(Shard shard) throws IOException {
+        shard.readLine();
+        String line = shard.readLine();
+        if (line == null) {
+            return true;
+        }
+        shard.readToEnd();
+        return !line.startsWith(FAILURE);
+    }
+
+    // A connection to a shard. Responses are framed as described in FileSystemServer.
+    private static final class Shard {
+
+        private final Socket socket;
+        private final Writer out;
+        private final BufferedReader in;
+
+        private Shard(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void send(CharSequence command) throws IOException {
+            out.append(command).append('\n');
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+
+        // Returns the next line of the response being read, without the framing, or null at the end of the response.
+        private String readLine() throws IOException {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("The shard at " + socket.getRemoteSocketAddress() + " closed the connection.");
+            }
+            if (line.equals(END_OF_RESPONSE)) {
+                return null;
+            }
+            return line.startsWith(".") ? line.substring(1) : line;
+        }
+
+        private void readToEnd() throws IOException {
+            while (readLine() != null) {
+                // Skipped.
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more can be done with it.
+            }
+        }
+    }
+
+    // FileSystemServer processes on loopback, started with the class path of this JVM.
+    public static final class LocalShards implements AutoCloseable {
+
+        private static final long STOP_TIMEOUT_SECONDS = 10;
+
+        private final List<Process> processes = new ArrayList<>();
+        private final List<InetSocketAddress> addresses = new ArrayList<>();
+
+        // Starts count shards, each listening on a free port, and returns once all of them accept connections.
+        public LocalShards(int count) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), FileSystemServer.class.getName(),
+                            "0", "127.0.0.1").redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                    processes.add(process);
+                    // FileSystemServer.main() reports the address once it listens, possibly after warnings of the JVM.
+                    BufferedReader errors = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8));
+                    String listening = errors.readLine();
+                    while (listening != null && !listening.startsWith(FileSystemServer.LISTENING)) {
+                        listening = errors.readLine();
+                    }
+                    if (listening == null) {
+                        throw new IOException("Shard " + i + " exited before it started listening.");
+                    }
+                    int port = Integer.parseInt(listening.substring(listening.lastIndexOf(':') + 1));
+                    addresses.add(new InetSocketAddress("127.0.0.1", port));
+                    // A shard that goes on writing to a full pipe would block, so the rest goes to our System.err.
+                    Thread forwarder = new Thread(() -> forward(errors), "LocalShards shard " + i + " errors");
+                    forwarder.setDaemon(true);
+                    forwarder.start();
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public List<InetSocketAddress> addresses() {
+            return addresses;
+        }
+
+        // Copies the lines of a shard's standard error to System.err until the shard exits.
+        private static void forward(BufferedReader errors) {
+            try (errors) {
+                for (String line = errors.readLine(); line != null; line = errors.readLine()) {
+                    System.err.println(line);
+                }
+            } catch (IOException e) {
+                // The shard is gone.
+            }
+        }
+
+        // Stops the shards, which shut down gracefully, and waits for them to exit.
+        @Override
+        public void close() {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            try {
+                for (Process process : processes) {
+                    if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// A FileSystem whose directory tree is immutable and shared between versions.
+// Accepts the same commands and prints the same messages as FileSystem, and executeCommand may be called from many
+// threads at once.
+//
+// Every change builds a new version of the tree by copying the directories on the path to the change and publishes it
+// with a single compare-and-set of the root. If another thread published first, the change is recomputed on the newer
+// tree. Nothing is ever locked, so snapshot() is O(1) and a LIST, or anything else done with a snapshot, never blocks
+// writers and is never torn by them.
+public class SnapshotFileSystem extends AbstractFileSystem {
+
+    // A directory in one version of the tree. Never modified once published.
+    static final class Directory {
+
+        static final Directory EMPTY = new Directory(PersistentSortedMap.empty());
+
+        final PersistentSortedMap<Directory> subdirectories;
+
+        private Directory(PersistentSortedMap<Directory> subdirectories) {
+            this.subdirectories = subdirectories;
+        }
+
+        private Directory with(CharSequence name, Directory subdirectory) {
+            return new Directory(subdirectories.put(name, subdirectory));
+        }
+
+        private Directory without(CharSequence name) {
+            return new Directory(subdirectories.remove(name));
+        }
+    }
+
+    // Scratch space for the commands of a single thread.
+    private static final class Worker {
+
+        private final CommandTokenizer commandTerms = new CommandTokenizer();
+        private final CommandTokenizer sourceTerms = new CommandTokenizer();
+        private final CommandTokenizer destinationTerms = new CommandTokenizer();
+        private final LineBuffer output = new LineBuffer();
+        private final CommandResult result = new CommandResult();
+        // chain[i] is the directory named by the first i segments of the path last resolved.
+        private Directory[] chain = new Directory[16];
+        // Set by resolve() when a directory does not exist.
+        private int missingSegment;
+    }
+
+    private final AtomicReference<Directory> root = new AtomicReference<>(Directory.EMPTY);
+    private final OutputSink output;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    public SnapshotFileSystem() {
+        this(OutputSink.SYSTEM_OUT);
+    }
+
+    // The caller owns output and is responsible for flushing and closing it.
+    // output does not need to be thread-safe; it is only written to by one thread at a time.
+    public SnapshotFileSystem(OutputSink output) {
+        this.output = output;
+    }
+
+    // command is assumed to be non-null.
+    // See AbstractFileSystem.execute() for the commands that are accepted.
+    public void executeCommand(CharSequence command) {
+        Worker worker = workers.get();
+        execute(command, worker.commandTerms, worker.result, worker.output);
+        synchronized (output) {
+            worker.output.writeTo(output);
+        }
+    }
+
+    // Executes command like executeCommand(), but instead of echoing the command and printing the message of a failure,
+    // returns the result of the command. LIST still writes the directories to the output.
+    // Every thread has a result of its own, which is reused by its next command.
+    public CommandResult execute(CharSequence command) {
+        Worker worker = workers.get();
+        execute(command, worker.commandTerms, worker.result, null);
+        synchronized (output) {
+            worker.output.writeTo(output);
+        }
+        return worker.result;
+    }
+
+    // Returns the current version of the tree.
+    public TreeSnapshot snapshot() {
+        return new TreeSnapshot(root.get());
+    }
+
+    @Override
+    CommandOutcome createDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        CommandTokenizer directoryNameTerms = worker.sourceTerms;
+        directoryNameTerms.splitPath(command, start, end);
+        int last = directoryNameTerms.count() - 1;
+
+        while (true) {
+            Directory current = root.get();
+            if (!resolve(worker, current, directoryNameTerms, last)) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+            }
+            Directory parent = worker.chain[last];
+            if (parent.subdirectories.get(directoryNameTerms.term(last)) != null) {
+                return result.fail(CommandOutcome.ALREADY_EXISTS, 1, last);
+            }
+            Directory updated = rebuild(worker.chain, directoryNameTerms, last, parent.with(directoryNameTerms.term(last), Directory.EMPTY));
+            if (root.compareAndSet(current, updated)) {
+                return CommandOutcome.SUCCESS;
+            }
+        }
+    }
+
+    @Override
+    CommandOutcome moveDirectory(CharSequence command, int sourceStart, int sourceEnd, int destinationStart, int destinationEnd,
+            CommandResult result) {
+        Worker worker = workers.get();
+        CommandTokenizer source = worker.sourceTerms;
+        source.splitPath(command, sourceStart, sourceEnd);
+        int sourceLast = source.count() - 1;
+        CommandTokenizer destination = worker.destinationTerms;
+        destination.splitPath(command, destinationStart, destinationEnd);
+        int destinationCount = destination.count();
+
+        while (true) {
+            Directory current = root.get();
+            boolean sourceParentExists = resolve(worker, current, source, sourceLast);
+            Directory moved = sourceParentExists ? worker.chain[sourceLast].subdirectories.get(source.term(sourceLast)) : null;
+            if (moved == null) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, sourceParentExists ? sourceLast : worker.missingSegment);
+            }
+            Directory withoutSource = rebuild(worker.chain, source, sourceLast, worker.chain[sourceLast].without(source.term(sourceLast)));
+
+            if (!resolve(worker, current, destination, destinationCount)) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 2, worker.missingSegment);
+            }
+            if (isWithin(destination, source)) {
+                return result.fail(CommandOutcome.DESTINATION_WITHIN_SOURCE, 2, sourceLast);
+            }
+            if (worker.chain[destinationCount].subdirectories.get(source.term(sourceLast)) != null) {
+                return result.fail(CommandOutcome.ALREADY_EXISTS, 1, sourceLast);
+            }
+
+            // The destination is not within the source, so it is still there once the source is removed.
+            resolve(worker, withoutSource, destination, destinationCount);
+            Directory updated = rebuild(worker.chain, destination, destinationCount,
+                    worker.chain[destinationCount].with(source.term(sourceLast), moved));
+            if (root.compareAndSet(current, updated)) {
+                return CommandOutcome.SUCCESS;
+            }
+        }
+    }
+
+    @Override
+    void listDirectories() {
+        snapshot().list(workers.get().output);
+    }
+
+    // Lists a page of a single version of the tree, so it never blocks and is never torn by concurrent changes.
+    @Override
+    CommandOutcome listPage(ListPage page, CommandResult result) {
+        Worker worker = workers.get();
+        Directory directory = root.get();
+        CommandTokenizer directoryTerms = worker.sourceTerms;
+        if (page.splitDirectory(directoryTerms)) {
+            int count = directoryTerms.count();
+            if (!resolve(worker, directory, directoryTerms, count)) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+            }
+            directory = worker.chain[count];
+        }
+        page.print(TreeSnapshot.PAGE_TREE, directory, worker.output);
+        return CommandOutcome.SUCCESS;
+    }
+
+    @Override
+    void findDirectories(CharSequence command, int start, int end) {
+        snapshot().find(command.subSequence(start, end), workers.get().output);
+    }
+
+    // Measures a single version of the tree, so it never blocks and is never torn by concurrent changes.
+    @Override
+    CommandOutcome measureDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        Directory directory = root.get();
+        if (start >= 0) {
+            CommandTokenizer directoryTerms = worker.sourceTerms;
+            directoryTerms.splitPath(command, start, end);
+            int count = directoryTerms.count();
+            if (!resolve(worker, directory, directoryTerms, count)) {
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, worker.missingSegment);
+            }
+            directory = worker.chain[count];
+        }
+        long[] counts = new long[2];
+        measureHelper(directory, 0, counts);
+        return result.measured(counts[0], (int) counts[1]);
+    }
+
+    // Adds the number of directories below directory, which is depth levels below the one being measured, to counts[0]
+    // and raises counts[1] to the depth of the deepest one.
+    private static void measureHelper(Directory directory, int depth, long[] counts) {
+        counts[1] = Math.max(counts[1], depth);
+        PersistentSortedMap<Directory>.Cursor subdirectory = directory.subdirectories.cursor();
+        while (subdirectory.hasNext()) {
+            subdirectory.next();
+            counts[0]++;
+            measureHelper(subdirectory.value(), depth + 1, counts);
+        }
+    }
+
+    @Override
+    CommandOutcome deleteDirectory(CharSequence command, int start, int end, CommandResult result) {
+        Worker worker = workers.get();
+        CommandTokenizer directoryTerms = worker.sourceTerms;
+        directoryTerms.splitPath(command, start, end);
+        int last = directoryTerms.count() - 1;
+
+        while (true) {
+            Directory current = root.get();
+            boolean parentExists = resolve(worker, current, directoryTerms, last);
+            if (!parentExists || worker.chain[last].subdirectories.get(directoryTerms.term(last)) == null) {
+                int missing = parentExists ? last : worker.missingSegment;
+                return result.fail(CommandOutcome.DOES_NOT_EXIST, 1, missing);
+            }
+            Directory updated = rebuild(worker.chain, directoryTerms, last, worker.chain[last].without(directoryTerms.term(last)));
+            if (root.compareAndSet(current, updated)) {
+                return CommandOutcome.SUCCESS;
+            }
+        }
+    }
+
+    // Fills the worker's chain with the directories named by the first 0 to count segments of path, starting at from.
+    // Returns false if one of them does not exist and sets the worker's missingSegment to the index of the first one.
+    private static boolean resolve(Worker worker, Directory from, CommandTokenizer path, int count) {
+        if (worker.chain.length <= count) {
+            worker.chain = new Directory[Math.max(count + 1, worker.chain.length * 2)];
+        }
+        Directory[] chain = worker.chain;
+        chain[0] = from;
+        for (int i = 0; i < count; i++) {
+            chain[i + 1] = chain[i].subdirectories.get(path.term(i));
+            if (chain[i + 1] == null) {
+                worker.missingSegment = i;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns a new root in which the directory at chain[depth] is replaced by replacement,
+    // copying each of its parents in chain to point at the new version.
+    private static Directory rebuild(Directory[] chain, CommandTokenizer path, int depth, Directory replacement) {
+        for (int i = depth - 1; i >= 0; i--) {
+            replacement = chain[i].with(path.term(i), replacement);
+        }
+        return replacement;
+    }
+}
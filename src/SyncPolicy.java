@@ -0,0 +1,17 @@
+package src;
+
+// When a FileSystemStore forces its write-ahead log to disk.
+public enum SyncPolicy {
+
+    // Every change is written and forced to disk before executeCommand() returns.
+    // Nothing is lost in a crash, but every CREATE, MOVE and DELETE waits for the disk.
+    EVERY_COMMAND,
+
+    // Changes are collected in memory and a background thread writes and forces them to disk together at a fixed
+    // interval. A crash loses at most the changes of the last interval.
+    GROUP_COMMIT,
+
+    // Changes are written when the buffer fills up and left to the operating system to put on disk.
+    // A crash of the process loses only what is still buffered, but a crash of the machine can lose more.
+    NEVER
+}
@@ -0,0 +1,143 @@
+package src;
+
+import src.SnapshotFileSystem.Directory;
+
+// One version of a SnapshotFileSystem's directories.
+// A snapshot never changes, so it can be listed, exported or compared while the file system keeps changing.
+public final class TreeSnapshot {
+
+    // Walks the directories for LIST.
+    static final ListPage.Tree<Directory> PAGE_TREE = new ListPage.Tree<Directory>() {
+        @Override
+        public Directory subdirectory(Directory directory, CharSequence name) {
+            return directory.subdirectories.get(name);
+        }
+
+        @Override
+        public ListPage.Subdirectories<Directory> subdirectoriesAfter(Directory directory, CharSequence name) {
+            PersistentSortedMap<Directory>.Cursor cursor = name == null ? directory.subdirectories.cursor()
+                    : directory.subdirectories.cursorAfter(name);
+            return new ListPage.Subdirectories<Directory>() {
+                @Override
+                boolean hasNext() {
+                    return cursor.hasNext();
+                }
+
+                @Override
+                void next() {
+                    cursor.next();
+                }
+
+                @Override
+                String name() {
+                    return cursor.key();
+                }
+
+                @Override
+                Directory directory() {
+                    return cursor.value();
+                }
+            };
+        }
+    };
+
+    private final Directory root;
+
+    TreeSnapshot(Directory root) {
+        this.root = root;
+    }
+
+    // Prints the directories in the same format as LIST.
+    public void list(OutputSink output) {
+        ListPage.ALL.print(PAGE_TREE, root, output);
+    }
+
+    // Prints the path of every directory whose name matches pattern, in the same format as FIND.
+    public void find(CharSequence pattern, OutputSink output) {
+        findHelper(output, root, new StringBuilder(), pattern);
+    }
+
+    // Prints CREATE commands that build this tree when executed on an empty file system, parents before subdirectories.
+    public void export(OutputSink output) {
+        exportHelper(output, root, new StringBuilder("CREATE "));
+    }
+
+    // Prints CREATE and DELETE commands that turn this tree into newer when executed on it.
+    // Directories added to newer are created along with all of their subdirectories, and directories that are not in newer
+    // are deleted with a single DELETE. A moved directory shows up as a DELETE and CREATEs.
+    // Subtrees that both versions share are skipped without being visited.
+    public void diff(TreeSnapshot newer, OutputSink output) {
+        diffHelper(output, root, newer.root, new StringBuilder());
+    }
+
+    // path holds the path of currentLevel, which is empty for the root.
+    private static void findHelper(OutputSink output, Directory currentLevel, StringBuilder path, CharSequence pattern) {
+        int length = path.length();
+        PersistentSortedMap<Directory>.Cursor directory = currentLevel.subdirectories.cursor();
+        while (directory.hasNext()) {
+            directory.next();
+            if (length > 0) {
+                path.append('/');
+            }
+            path.append(directory.key());
+            if (AbstractFileSystem.matchesGlob(pattern, 0, pattern.length(), directory.key())) {
+                output.println(path);
+            }
+            findHelper(output, directory.value(), path, pattern);
+            path.setLength(length);
+        }
+    }
+
+    // command holds "CREATE " followed by the path of currentLevel and a "/" if it is not the root.
+    private static void exportHelper(OutputSink output, Directory currentLevel, StringBuilder command) {
+        int length = command.length();
+        PersistentSortedMap<Directory>.Cursor directory = currentLevel.subdirectories.cursor();
+        while (directory.hasNext()) {
+            directory.next();
+            command.append(directory.key());
+            output.println(command);
+            command.append('/');
+            exportHelper(output, directory.value(), command);
+            command.setLength(length);
+        }
+    }
+
+    // path holds the path of both directories followed by a "/", or nothing for the root.
+    private static void diffHelper(OutputSink output, Directory older, Directory newer, StringBuilder path) {
+        if (older == newer || older.subdirectories.isSameVersion(newer.subdirectories)) {
+            return;
+        }
+        int length = path.length();
+        PersistentSortedMap<Directory>.Cursor olderDirectory = older.subdirectories.cursor();
+        PersistentSortedMap<Directory>.Cursor newerDirectory = newer.subdirectories.cursor();
+        boolean olderRemaining = advance(olderDirectory);
+        boolean newerRemaining = advance(newerDirectory);
+        while (olderRemaining || newerRemaining) {
+            int comparison = !olderRemaining ? 1 : !newerRemaining ? -1
+                    : AbstractFileSystem.NAME_ORDER.compare(olderDirectory.key(), newerDirectory.key());
+            if (comparison < 0) {
+                output.println(new StringBuilder("DELETE ").append(path).append(olderDirectory.key()));
+                olderRemaining = advance(olderDirectory);
+            } else if (comparison > 0) {
+                StringBuilder command = new StringBuilder("CREATE ").append(path).append(newerDirectory.key());
+                output.println(command);
+                exportHelper(output, newerDirectory.value(), command.append('/'));
+                newerRemaining = advance(newerDirectory);
+            } else {
+                path.append(olderDirectory.key()).append('/');
+                diffHelper(output, olderDirectory.value(), newerDirectory.value(), path);
+                path.setLength(length);
+                olderRemaining = advance(olderDirectory);
+                newerRemaining = advance(newerDirectory);
+            }
+        }
+    }
+
+    private static boolean advance(PersistentSortedMap<Directory>.Cursor cursor) {
+        if (!cursor.hasNext()) {
+            return false;
+        }
+        cursor.next();
+        return true;
+    }
+}
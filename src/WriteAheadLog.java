@@ -0,0 +1,374 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// An append-only binary log of the changes made to a FileSystem, one segment file at a time.
+//
+// Each record is: the length of its body, the body, and the CRC32 of the body, with lengths as big-endian ints.
+// The body is the operation byte followed by each directory name as a length and its UTF-8 bytes; MOVE has two names.
+// A record that was only partly written when the process died fails its length or CRC check, and it and everything
+// after it are ignored when the log is replayed.
+//
+// The changes of a batch are written between a BEGIN and a COMMIT record, whose bodies are only the operation byte.
+// Replay applies a batch only once it has read its COMMIT, so a batch that was being written when the process died is
+// dropped as a whole rather than recovered in part.
+final class WriteAheadLog implements Closeable {
+
+    static final byte CREATE = 1;
+    static final byte MOVE = 2;
+    static final byte DELETE = 3;
+    private static final byte BEGIN = 4;
+    private static final byte COMMIT = 5;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Names longer than this are not produced by this class, so a longer one means the record is corrupt.
+    private static final int MAX_RECORD_LENGTH = 1 << 26;
+
+    // Receives the records of a log that is replayed. second is null unless operation is MOVE.
+    interface RecordConsumer {
+        void apply(byte operation, String first, String second);
+    }
+
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Thread groupCommitter;
+    // The number of changes appended, of those written to the channel, and of those a force that has returned covers.
+    // The changes of a batch only count once its COMMIT is appended. Guarded by this.
+    private long appended;
+    private long written;
+    private long forced;
+    // Set between beginBatch() and commitBatch(), with the number of changes appended since. Guarded by this.
+    private boolean inBatch;
+    private long batchChanges;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // Creates the segment file, replacing any file of that name, and appends to it.
+    // groupCommitMillis is the interval of the background sync with SyncPolicy.GROUP_COMMIT and is ignored otherwise.
+    WriteAheadLog(Path file, SyncPolicy policy, long groupCommitMillis) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.policy = policy;
+        if (policy == SyncPolicy.GROUP_COMMIT) {
+            groupCommitter = new Thread(() -> commitGroups(groupCommitMillis), "WriteAheadLog group commit");
+            groupCommitter.setDaemon(true);
+            groupCommitter.start();
+        } else {
+            groupCommitter = null;
+        }
+    }
+
+    // Appends a record for a CREATE or DELETE of command[start, end).
+    void append(byte operation, CharSequence command, int start, int end) {
+        append(operation, command, start, end, 0, -1);
+    }
+
+    // Appends a record for an operation on command[firstStart, firstEnd) and, if secondEnd is not -1, command[secondStart, secondEnd).
+    synchronized void append(byte operation, CharSequence command, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        checkFailure();
+        // The BEGIN is only written with the first change, so a batch without changes leaves nothing in the log.
+        if (inBatch && batchChanges++ == 0) {
+            putRecord(BEGIN, "", 0, -1, 0, -1);
+        }
+        putRecord(operation, command, firstStart, firstEnd, secondStart, secondEnd);
+        if (inBatch) {
+            return;
+        }
+        appended++;
+        if (policy == SyncPolicy.EVERY_COMMAND) {
+            sync();
+        }
+    }
+
+    // Makes the changes appended until commitBatch() one batch, which is replayed completely or not at all.
+    synchronized void beginBatch() {
+        inBatch = true;
+        batchChanges = 0;
+    }
+
+    synchronized void commitBatch() {
+        checkFailure();
+        inBatch = false;
+        if (batchChanges == 0) {
+            return;
+        }
+        putRecord(COMMIT, "", 0, -1, 0, -1);
+        appended += batchChanges;
+        if (policy == SyncPolicy.EVERY_COMMAND) {
+            sync();
+        }
+    }
+
+    // Puts a record into the buffer, with no directory name if firstEnd is -1 and only one if secondEnd is -1.
+    // Must be called while holding this.
+    private void putRecord(byte operation, CharSequence command, int firstStart, int firstEnd, int secondStart, int secondEnd) {
+        int maxLength = 1 + (firstEnd < 0 ? 0 : 4 + (firstEnd - firstStart) * 3)
+                + (secondEnd < 0 ? 0 : 4 + (secondEnd - secondStart) * 3);
+        if (buffer.remaining() < maxLength + 8) {
+            writeBuffer();
+            if (buffer.capacity() < maxLength + 8) {
+                buffer = ByteBuffer.allocate(maxLength + 8);
+            }
+        }
+
+        int recordStart = buffer.position();
+        buffer.position(recordStart + 4);
+        buffer.put(operation);
+        if (firstEnd >= 0) {
+            putName(command, firstStart, firstEnd);
+        }
+        if (secondEnd >= 0) {
+            putName(command, secondStart, secondEnd);
+        }
+        int bodyLength = buffer.position() - recordStart - 4;
+        buffer.putInt(recordStart, bodyLength);
+        checksum.reset();
+        checksum.update(buffer.array(), recordStart + 4, bodyLength);
+        buffer.putInt((int) checksum.getValue());
+    }
+
+    // Writes everything appended so far and forces it to disk.
+    // A force by the group commit thread that is still running does not count, so this forces the channel itself.
+    synchronized void sync() {
+        checkFailure();
+        writeBuffer();
+        if (forced < written) {
+            force();
+        }
+    }
+
+    // Returns the number of changes known to be on disk.
+    synchronized long forcedChanges() {
+        return forced;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (groupCommitter != null) {
+            // Not interrupted: interrupting a thread that is forcing the channel would close the channel.
+            synchronized (this) {
+                notifyAll();
+            }
+            try {
+                groupCommitter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (policy == SyncPolicy.NEVER) {
+                synchronized (this) {
+                    writeBuffer();
+                }
+            } else {
+                sync();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Passes every change of the segment file to consumer, in order, and returns how many there were.
+    // The file is first read up to the last intact record that is not inside a batch, and truncated there, so that a
+    // torn write or a batch without its COMMIT at its end is removed. Only then are the changes applied.
+    static long replay(Path file, RecordConsumer consumer) throws IOException {
+        long validLength = readRecords(file, Long.MAX_VALUE, null);
+        if (Files.size(file) > validLength) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        long[] changes = { 0 };
+        readRecords(file, validLength, (operation, first, second) -> {
+            consumer.apply(operation, first, second);
+            changes[0]++;
+        });
+        return changes[0];
+    }
+
+    // Reads the records of the first limit bytes of file, up to the first one that is torn or corrupt, and passes their
+    // changes to consumer unless it is null. Returns the length of the file up to the end of the last record after
+    // which no batch is open.
+    private static long readRecords(Path file, long limit, RecordConsumer consumer) throws IOException {
+        long length = 0;
+        long validLength = 0;
+        boolean inBatch = false;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            DataInputStream in = new DataInputStream(input);
+            CRC32 checksum = new CRC32();
+            byte[] body = new byte[256];
+            while (length < limit) {
+                int bodyLength;
+                try {
+                    bodyLength = in.readInt();
+                    if (bodyLength <= 0 || bodyLength > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    if (body.length < bodyLength) {
+                        body = new byte[Math.max(bodyLength, body.length * 2)];
+                    }
+                    in.readFully(body, 0, bodyLength);
+                    checksum.reset();
+                    checksum.update(body, 0, bodyLength);
+                    if (in.readInt() != (int) checksum.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                byte operation = body[0];
+                if (operation == BEGIN || operation == COMMIT) {
+                    if (inBatch == (operation == BEGIN)) {
+                        // A BEGIN inside a batch or a COMMIT outside one is not something this class writes.
+                        break;
+                    }
+                    inBatch = operation == BEGIN;
+                } else if (consumer != null) {
+                    ByteBuffer record = ByteBuffer.wrap(body, 1, bodyLength - 1);
+                    String first = getName(record);
+                    String second = operation == MOVE ? getName(record) : null;
+                    consumer.apply(operation, first, second);
+                }
+                length += 4 + bodyLength + 4;
+                if (!inBatch) {
+                    validLength = length;
+                }
+            }
+        }
+        return validLength;
+    }
+
+    // Writes name as its length followed by its UTF-8 bytes. Used for snapshots too.
+    static void writeName(DataOutput out, CharSequence name) throws IOException {
+        byte[] bytes = name.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readName(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Corrupt directory name length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void putName(CharSequence command, int start, int end) {
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(command, start, end), buffer, true);
+        encoder.flush(buffer);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    private static String getName(ByteBuffer record) {
+        int length = record.getInt();
+        String name = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return name;
+    }
+
+    // Must be called while holding this.
+    private void writeBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+        written = appended;
+    }
+
+    // Must be called while holding this.
+    private void force() {
+        long target = written;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+        forced = target;
+    }
+
+    // Runs on the group commit thread: every interval, writes the records appended since the last run and forces them
+    // to disk in one go. Appends wait only while the buffer is written, not while the disk syncs.
+    private void commitGroups(long intervalMillis) {
+        while (!closed) {
+            try {
+                synchronized (this) {
+                    if (!closed) {
+                        wait(intervalMillis);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                long target;
+                boolean needsForce;
+                synchronized (this) {
+                    writeBuffer();
+                    target = written;
+                    needsForce = forced < target;
+                }
+                if (needsForce) {
+                    channel.force(false);
+                    // Only now are the records on disk. A sync() meanwhile forces them itself rather than trust this.
+                    synchronized (this) {
+                        forced = Math.max(forced, target);
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                if (failure == null) {
+                    failure = e instanceof IOException ? (IOException) e : ((UncheckedIOException) e).getCause();
+                }
+                return;
+            }
+        }
+    }
+
+    private void checkFailure() {
+        IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException("The write-ahead log can no longer be written to.", e);
+        }
+    }
+}
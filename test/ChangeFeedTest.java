@@ -0,0 +1,170 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import src.ChangeFeed;
+import src.CommandType;
+import src.FileSystem;
+import src.OutputSink;
+
+public class ChangeFeedTest {
+
+    private static String[] poll(ChangeFeed.Subscription subscription) {
+        ChangeFeed.Event[] events = new ChangeFeed.Event[16];
+        int count = subscription.poll(events);
+        String[] polled = new String[count];
+        for (int i = 0; i < count; i++) {
+            polled[i] = events[i].toString();
+        }
+        return polled;
+    }
+
+    @Test
+    public void testPublishesSuccessfulChanges() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        ChangeFeed feed = new ChangeFeed(16);
+        fileSystem.addChangeFeed(feed);
+        ChangeFeed.Subscription subscription = feed.subscribe();
+
+        fileSystem.executeCommand("CREATE fruits");
+        fileSystem.executeCommand("CREATE fruits");
+        fileSystem.executeCommand("CREATE foods");
+        fileSystem.executeCommand("MOVE fruits foods");
+        fileSystem.executeCommand("LIST");
+        fileSystem.executeCommand("DELETE foods/fruits");
+        fileSystem.executeCommand("DELETE fruits");
+
+        ChangeFeed.Event[] events = new ChangeFeed.Event[16];
+        assertEquals(4, subscription.poll(events));
+        assertEquals(0, events[0].sequence());
+        assertEquals(CommandType.CREATE, events[0].type());
+        assertEquals("fruits", events[0].path());
+        assertNull(events[0].destination());
+        assertEquals(CommandType.MOVE, events[2].type());
+        assertEquals("fruits", events[2].path());
+        assertEquals("foods", events[2].destination());
+        assertEquals("3 DELETE foods/fruits", events[3].toString());
+        assertEquals(0, subscription.poll(events));
+        assertEquals(4, subscription.nextSequence());
+        assertEquals(4, feed.nextSequence());
+    }
+
+    @Test
+    public void testPublishesBatchesWhenTheyCommit() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        ChangeFeed feed = new ChangeFeed(16);
+        fileSystem.addChangeFeed(feed);
+        ChangeFeed.Subscription subscription = feed.subscribe();
+
+        assertEquals(1, fileSystem.executeBatch(Arrays.asList("CREATE fruits", "CREATE fruits")));
+        assertEquals(0, poll(subscription).length);
+
+        assertEquals(-1, fileSystem.executeBatch(Arrays.asList("CREATE fruits", "CREATE fruits/apples", "DELETE fruits")));
+        assertEquals(Arrays.asList("0 CREATE fruits", "1 CREATE fruits/apples", "2 DELETE fruits"), Arrays.asList(poll(subscription)));
+    }
+
+    @Test
+    public void testSubscribersReadAtTheirOwnPace() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        ChangeFeed feed = new ChangeFeed(16);
+        fileSystem.addChangeFeed(feed);
+        ChangeFeed.Subscription first = feed.subscribe();
+
+        fileSystem.executeCommand("CREATE fruits");
+        ChangeFeed.Subscription second = feed.subscribe();
+        fileSystem.executeCommand("CREATE vegetables");
+
+        assertEquals(Arrays.asList("0 CREATE fruits", "1 CREATE vegetables"), Arrays.asList(poll(first)));
+        assertEquals(Arrays.asList("1 CREATE vegetables"), Arrays.asList(poll(second)));
+
+        ChangeFeed.Subscription resumed = feed.subscribe(0);
+        ChangeFeed.Event[] events = new ChangeFeed.Event[1];
+        assertEquals(1, resumed.poll(events));
+        assertEquals("0 CREATE fruits", events[0].toString());
+        assertEquals(1, resumed.poll(events));
+        assertEquals("1 CREATE vegetables", events[0].toString());
+        assertEquals(0, resumed.poll(events));
+    }
+
+    @Test
+    public void testFallingBehindSignalsResync() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        ChangeFeed feed = new ChangeFeed(3);
+        assertEquals(4, feed.capacity());
+        fileSystem.addChangeFeed(feed);
+        ChangeFeed.Subscription subscription = feed.subscribe();
+
+        for (int i = 0; i < 5; i++) {
+            fileSystem.executeCommand("CREATE d" + i);
+        }
+        ChangeFeed.Event[] events = new ChangeFeed.Event[16];
+        assertEquals(ChangeFeed.RESYNC, subscription.poll(events));
+        assertEquals(ChangeFeed.RESYNC, subscription.poll(events));
+        assertEquals(0, subscription.nextSequence());
+        assertEquals(ChangeFeed.RESYNC, feed.subscribe(0).poll(events));
+
+        // The oldest event that is still in the ring.
+        subscription.resume(1);
+        assertEquals(Arrays.asList("1 CREATE d1", "2 CREATE d2", "3 CREATE d3", "4 CREATE d4"), Arrays.asList(poll(subscription)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotResumeAfterTheLastChange() {
+        new ChangeFeed(16).subscribe(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() {
+        new ChangeFeed(0);
+    }
+
+    // A subscriber on another thread sees every event in order, or a resync, and never an event out of place.
+    @Test
+    public void testSubscriberOnAnotherThread() throws InterruptedException {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        ChangeFeed feed = new ChangeFeed(64);
+        fileSystem.addChangeFeed(feed);
+        int changes = 200_000;
+        AtomicReference<AssertionError> failure = new AtomicReference<>();
+
+        Thread subscriber = new Thread(() -> {
+            ChangeFeed.Subscription subscription = feed.subscribe(0);
+            ChangeFeed.Event[] events = new ChangeFeed.Event[8];
+            try {
+                while (subscription.nextSequence() < changes) {
+                    long next = subscription.nextSequence();
+                    int count = subscription.poll(events);
+                    if (count == ChangeFeed.RESYNC) {
+                        subscription.resume(feed.nextSequence());
+                        continue;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        long sequence = next + i;
+                        assertEquals(sequence, events[i].sequence());
+                        assertEquals(sequence % 2 == 0 ? CommandType.CREATE : CommandType.DELETE, events[i].type());
+                        assertEquals("d" + sequence / 2, events[i].path());
+                    }
+                }
+            } catch (AssertionError e) {
+                failure.set(e);
+            }
+        });
+        subscriber.start();
+        for (int i = 0; i < changes / 2; i++) {
+            fileSystem.executeCommand("CREATE d" + i);
+            fileSystem.executeCommand("DELETE d" + i);
+        }
+        subscriber.join();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        assertEquals(changes, feed.nextSequence());
+    }
+}
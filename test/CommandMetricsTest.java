@@ -0,0 +1,158 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import src.CommandMetrics;
+import src.CommandOutcome;
+import src.CommandType;
+import src.CompactFileSystem;
+import src.ConcurrentFileSystem;
+import src.FileSystem;
+import src.OutputSink;
+
+public class CommandMetricsTest {
+
+    private static final String[] COMMANDS = {
+        "CREATE fruits", "CREATE fruits", "CREATE fruits/apples", "CREATE vegetables/carrots", "CREATE",
+        "MOVE fruits fruits/apples", "MOVE fruits/apples vegetables", "CREATE vegetables", "MOVE fruits/apples vegetables",
+        "MOVE vegetables/apples vegetables", "DELETE vegetables/apples", "DELETE fruits fruits", "LIST", "LIST all",
+        "", "REMOVE fruits"
+    };
+
+    private static void assertCounts(CommandMetrics metrics) {
+        assertEquals(3, metrics.count(CommandType.CREATE, CommandOutcome.SUCCESS));
+        assertEquals(1, metrics.count(CommandType.CREATE, CommandOutcome.ALREADY_EXISTS));
+        assertEquals(1, metrics.count(CommandType.CREATE, CommandOutcome.DOES_NOT_EXIST));
+        assertEquals(1, metrics.count(CommandType.CREATE, CommandOutcome.MISSING_ARGUMENT));
+        assertEquals(1, metrics.count(CommandType.MOVE, CommandOutcome.SUCCESS));
+        assertEquals(1, metrics.count(CommandType.MOVE, CommandOutcome.DOES_NOT_EXIST));
+        assertEquals(1, metrics.count(CommandType.MOVE, CommandOutcome.DESTINATION_WITHIN_SOURCE));
+        assertEquals(1, metrics.count(CommandType.MOVE, CommandOutcome.ALREADY_EXISTS));
+        assertEquals(1, metrics.count(CommandType.DELETE, CommandOutcome.SUCCESS));
+        assertEquals(1, metrics.count(CommandType.DELETE, CommandOutcome.TOO_MANY_ARGUMENTS));
+        assertEquals(1, metrics.count(CommandType.LIST, CommandOutcome.SUCCESS));
+        assertEquals(1, metrics.count(CommandType.LIST, CommandOutcome.DOES_NOT_EXIST));
+        assertEquals(1, metrics.count(CommandType.INVALID, CommandOutcome.NO_COMMAND));
+        assertEquals(1, metrics.count(CommandType.INVALID, CommandOutcome.INVALID_COMMAND));
+        assertEquals(6, metrics.count(CommandType.CREATE));
+    }
+
+    @Test
+    public void testCountsOutcomes() {
+        CommandMetrics metrics = new CommandMetrics();
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        fileSystem.setMetrics(metrics);
+        for (String command : COMMANDS) {
+            fileSystem.executeCommand(command);
+        }
+        assertCounts(metrics);
+        assertEquals(Long.valueOf(1), metrics.getOutcomeCounts().get("MOVE.DESTINATION_WITHIN_SOURCE"));
+    }
+
+    @Test
+    public void testEveryImplementationReportsTheSameOutcomes() {
+        CommandMetrics compactMetrics = new CommandMetrics();
+        CompactFileSystem compact = new CompactFileSystem(OutputSink.NULL);
+        compact.setMetrics(compactMetrics);
+        CommandMetrics concurrentMetrics = new CommandMetrics();
+        ConcurrentFileSystem concurrent = new ConcurrentFileSystem(OutputSink.NULL);
+        concurrent.setMetrics(concurrentMetrics);
+        for (String command : COMMANDS) {
+            compact.executeCommand(command);
+            concurrent.executeCommand(command);
+        }
+        assertCounts(compactMetrics);
+        assertCounts(concurrentMetrics);
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        CommandMetrics metrics = new CommandMetrics();
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        fileSystem.setMetrics(metrics);
+        for (int i = 0; i < 1000; i++) {
+            fileSystem.executeCommand("CREATE d" + i);
+        }
+        long p50 = metrics.latencyPercentile(CommandType.CREATE, 50);
+        long p99 = metrics.latencyPercentile(CommandType.CREATE, 99);
+        assertTrue(p50 > 0);
+        assertTrue(p50 <= p99);
+        assertTrue(p99 <= metrics.getLatencyNanos().get("CREATE.max"));
+        assertEquals(Long.valueOf(1000), metrics.getLatencyNanos().get("CREATE.count"));
+        assertEquals(0, metrics.latencyPercentile(CommandType.MOVE, 50));
+
+        metrics.reset();
+        assertEquals(0, metrics.count(CommandType.CREATE));
+        assertTrue(metrics.getOutcomeCounts().isEmpty());
+    }
+
+    @Test
+    public void testTreeGauges() {
+        CommandMetrics metrics = new CommandMetrics();
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        fileSystem.setMetrics(metrics);
+        fileSystem.executeCommand("CREATE a");
+        fileSystem.executeCommand("CREATE a/b");
+        // Nothing has been measured until the gauges are asked for.
+        assertEquals(-1, metrics.getDirectoryCount());
+        fileSystem.executeCommand("CREATE a/b/c");
+        assertEquals(3, metrics.getDirectoryCount());
+        assertEquals(3, metrics.getMaxDepth());
+
+        fileSystem.executeCommand("DELETE a/b");
+        assertEquals(1, metrics.getDirectoryCount());
+        assertEquals(1, metrics.getMaxDepth());
+    }
+
+    @Test
+    public void testMetricsOff() {
+        CommandMetrics metrics = new CommandMetrics();
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        fileSystem.setMetrics(metrics);
+        fileSystem.executeCommand("CREATE a");
+        fileSystem.setMetrics(null);
+        fileSystem.executeCommand("CREATE b");
+        assertEquals(1, metrics.count(CommandType.CREATE));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        CommandMetrics metrics = new CommandMetrics();
+        metrics.registerMBean();
+        ObjectName name = new ObjectName(CommandMetrics.DEFAULT_OBJECT_NAME);
+        try {
+            FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+            fileSystem.setMetrics(metrics);
+            fileSystem.executeCommand("CREATE a");
+            assertEquals(-1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DirectoryCount"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testDump() {
+        CommandMetrics metrics = new CommandMetrics();
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        fileSystem.setMetrics(metrics);
+        fileSystem.executeCommand("CREATE a");
+        fileSystem.executeCommand("DELETE b");
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        metrics.dump(new PrintStream(content));
+        String[] lines = content.toString().split(System.getProperty("line.separator"));
+        assertTrue(lines[1].startsWith("CREATE           1"));
+        assertTrue(lines[2].startsWith("DELETE           1"));
+        assertTrue(lines[5].matches("CREATE +SUCCESS +1"));
+        assertTrue(lines[6].matches("DELETE +DOES_NOT_EXIST +1"));
+    }
+}
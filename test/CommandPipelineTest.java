@@ -0,0 +1,86 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import src.BackgroundSink;
+import src.ChannelSink;
+import src.CommandPipeline;
+import src.FileSystem;
+import src.OutputSink;
+import test.TestCommands.Kind;
+
+public class CommandPipelineTest {
+
+    private static final TestCommands.Generator COMMANDS = TestCommands.random(5)
+            .names(6, 6, 2)
+            .with(Kind.CREATE, 8)
+            .with(Kind.DELETE, 1)
+            .with(Kind.MOVE, 1)
+            .with(Kind.LIST, 1)
+            .with(Kind.MALFORMED, 1);
+
+    private static String pipelinedOutput(String[] commands, int parserCount, int ringSize) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new BackgroundSink(new ChannelSink(Channels.newChannel(content)), 100, 2)) {
+            try (CommandPipeline pipeline = new CommandPipeline(new FileSystem(sink), parserCount, ringSize)) {
+                for (String command : commands) {
+                    pipeline.submit(command);
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testOutputMatchesSequentialRun() {
+        String[] commands = COMMANDS.generate(20000);
+        String expected = TestCommands.output(commands);
+        for (int parserCount = 1; parserCount <= 3; parserCount++) {
+            assertEquals(expected, pipelinedOutput(commands, parserCount, 512));
+            assertEquals(expected, pipelinedOutput(commands, parserCount, CommandPipeline.DEFAULT_RING_SIZE));
+        }
+    }
+
+    @Test
+    public void testFewerCommandsThanParsers() {
+        String[] commands = { "CREATE a", "LIST" };
+        assertEquals(TestCommands.output(commands), pipelinedOutput(commands, 4, 512));
+        assertEquals("", pipelinedOutput(new String[0], 4, 512));
+    }
+
+    @Test
+    public void testCommandsAreCopied() {
+        String[] commands = new String[1000];
+        StringBuilder command = new StringBuilder();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            try (CommandPipeline pipeline = new CommandPipeline(new FileSystem(sink), 2)) {
+                for (int i = 0; i < commands.length; i++) {
+                    commands[i] = "CREATE d" + i % 100 + "/" + i;
+                    // The same builder is submitted every time, so a command must not be read after submit() returns.
+                    command.setLength(0);
+                    pipeline.submit(command.append(commands[i]));
+                }
+            }
+        }
+        assertEquals(TestCommands.output(commands), content.toString());
+    }
+
+    @Test
+    public void testSubmitAfterClose() {
+        CommandPipeline pipeline = new CommandPipeline(new FileSystem(OutputSink.NULL), 1);
+        pipeline.close();
+        try {
+            pipeline.submit("LIST");
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+}
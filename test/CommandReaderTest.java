@@ -0,0 +1,88 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.CommandReader;
+
+public class CommandReaderTest {
+    private static final String COMMANDS = "CREATE fruits\r\nCREATE fruits/p\u00e4ron\n\nLIST\nMOVE grains foods";
+    private static final List<String> LINES = Arrays.asList("CREATE fruits", "CREATE fruits/p\u00e4ron", "", "LIST", "MOVE grains foods");
+
+    private final List<String> lines = new ArrayList<>();
+    private Path commandFile;
+
+    @Before
+    public void setupTests() throws IOException {
+        commandFile = Files.createTempFile("commands", ".txt");
+    }
+
+    @After
+    public void teardownTests() throws IOException {
+        Files.deleteIfExists(commandFile);
+    }
+
+    // A tiny window forces lines to cross window boundaries and to be longer than a window.
+    private CommandReader reader(int windowSize) {
+        return new CommandReader(line -> lines.add(line.toString()), StandardCharsets.UTF_8, windowSize);
+    }
+
+    @Test
+    public void testReadMappedFile() throws IOException {
+        Files.write(commandFile, COMMANDS.getBytes(StandardCharsets.UTF_8));
+
+        reader(7).read(commandFile);
+
+        assertEquals(LINES, lines);
+    }
+
+    @Test
+    public void testReadMappedFileWithTrailingNewline() throws IOException {
+        Files.write(commandFile, (COMMANDS + "\n").getBytes(StandardCharsets.UTF_8));
+
+        reader(1 << 20).read(commandFile);
+
+        assertEquals(LINES, lines);
+    }
+
+    @Test
+    public void testReadEmptyFile() throws IOException {
+        reader(1 << 20).read(commandFile);
+
+        assertEquals(0, lines.size());
+    }
+
+    @Test
+    public void testReadStream() throws IOException {
+        reader(5).read(new ByteArrayInputStream(COMMANDS.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(LINES, lines);
+    }
+
+    @Test
+    public void testReadGzipStream() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(COMMANDS.getBytes(StandardCharsets.UTF_8));
+        }
+
+        reader(1 << 16).read(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+
+        assertEquals(LINES, lines);
+    }
+}
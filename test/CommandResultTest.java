@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.CommandOutcome;
+import src.CommandResult;
+import src.CommandType;
+import src.CompactFileSystem;
+import src.FileSystem;
+import src.OutputSink;
+
+public class CommandResultTest {
+    private static final String[] SETUP = { "CREATE a", "CREATE a/b", "CREATE c", "CREATE c/b" };
+
+    private static final String[] FAILING = {
+        "", "  ", "create a", "CREATE", "CREATE x y", "CREATE a", "CREATE a/b", "CREATE x/y/z", "CREATE a/x/y", "MOVE", "MOVE a",
+        "MOVE a b c", "MOVE x a", "MOVE a/x c", "MOVE a x/y", "MOVE a a/b", "MOVE a a", "MOVE a/b c", "LIST x", "LIST a/b/x",
+        "LIST DEPTH 0", "LIST a LIMIT 10 LIMIT 20", "LIST a/b AFTER", "LIST SIZE 1", "DELETE",
+        "DELETE a c", "DELETE x", "DELETE a/x/y", "DELETE a/b/x", "COUNT a c", "COUNT x", "COUNT a/b/x", "DEPTH a c", "DEPTH a/x/y",
+        "FIND", "FIND a b"
+    };
+
+    @Test
+    public void testSuccess() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        CommandResult result = fileSystem.execute("CREATE a");
+
+        assertTrue(result.isSuccess());
+        assertEquals(CommandType.CREATE, result.type());
+        assertEquals(0, result.failedArgument());
+        assertEquals(-1, result.failedSegment());
+        assertNull(result.message());
+    }
+
+    @Test
+    public void testMeasure() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        for (String command : SETUP) {
+            fileSystem.execute(command);
+        }
+        fileSystem.execute("CREATE a/b/d");
+
+        CommandResult result = fileSystem.execute("COUNT a");
+        assertTrue(result.isSuccess());
+        assertEquals(CommandType.COUNT, result.type());
+        assertEquals(2, result.directoryCount());
+        assertEquals(2, result.depth());
+
+        result = fileSystem.execute("DEPTH");
+        assertEquals(CommandType.DEPTH, result.type());
+        assertEquals(5, result.directoryCount());
+        assertEquals(3, result.depth());
+
+        result = fileSystem.execute("COUNT a/x");
+        assertEquals(CommandOutcome.DOES_NOT_EXIST, result.outcome());
+        assertEquals(1, result.failedSegment());
+        assertEquals(0, result.directoryCount());
+    }
+
+    @Test
+    public void testFailedSegment() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        for (String command : SETUP) {
+            fileSystem.execute(command);
+        }
+
+        CommandResult result = fileSystem.execute("CREATE a/x/y");
+        assertEquals(CommandOutcome.DOES_NOT_EXIST, result.outcome());
+        assertEquals(1, result.failedArgument());
+        assertEquals(1, result.failedSegment());
+
+        result = fileSystem.execute("MOVE a/b c");
+        assertEquals(CommandOutcome.ALREADY_EXISTS, result.outcome());
+        assertEquals(1, result.failedArgument());
+        assertEquals(1, result.failedSegment());
+        assertEquals("Cannot move a/b to c - c/b already exists", result.message());
+
+        result = fileSystem.execute("MOVE a x/y");
+        assertEquals(CommandOutcome.DOES_NOT_EXIST, result.outcome());
+        assertEquals(2, result.failedArgument());
+        assertEquals(0, result.failedSegment());
+
+        result = fileSystem.execute("MOVE a b c");
+        assertEquals(CommandOutcome.TOO_MANY_ARGUMENTS, result.outcome());
+        assertEquals(3, result.failedArgument());
+
+        result = fileSystem.execute("create a");
+        assertEquals(CommandType.INVALID, result.type());
+        assertEquals(CommandOutcome.INVALID_COMMAND, result.outcome());
+    }
+
+    // The messages of the results are the lines executeCommand() prints after the echoed command.
+    @Test
+    public void testMessagesMatchExecuteCommand() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL);
+        CompactFileSystem compactFileSystem = new CompactFileSystem(OutputSink.NULL);
+        for (String command : SETUP) {
+            fileSystem.execute(command);
+            compactFileSystem.execute(command);
+        }
+
+        for (String command : FAILING) {
+            String printed = printedMessage(command);
+            CommandResult result = fileSystem.execute(command);
+            assertEquals(command, printed, result.message());
+            assertEquals(command, printed, compactFileSystem.execute(command).message());
+        }
+    }
+
+    private static String printedMessage(String command) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            for (String setupCommand : SETUP) {
+                fileSystem.executeCommand(setupCommand);
+            }
+            sink.flush();
+            content.reset();
+            fileSystem.executeCommand(command);
+        }
+        String[] lines = content.toString().split(System.lineSeparator(), -1);
+        assertEquals(command, 3, lines.length);
+        return lines[1];
+    }
+}
@@ -0,0 +1,110 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import src.CompactFileSystem;
+import src.OutputSink;
+import test.TestCommands.Kind;
+
+public class CompactFileSystemTest {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    // Random commands on names d0 to d<names - 1>, so that with few names most of them clash with existing directories.
+    private static String[] randomCommands(int count, int names) {
+        return TestCommands.random(11)
+                .names(names, names, 3)
+                .with(Kind.CREATE, 5)
+                .with(Kind.DELETE, 1)
+                .with(Kind.MOVE, 2)
+                .with(Kind.LIST, 1)
+                .with(Kind.COUNT, 1)
+                .with(Kind.DEPTH, 1)
+                .with(Kind.FIND, 1)
+                .generate(count);
+    }
+
+    private static String compactFileSystemOutput(String... commands) {
+        return TestCommands.output(sink -> new CompactFileSystem(sink)::executeCommand, commands);
+    }
+
+    @Test
+    public void testMatchesFileSystem() {
+        String[] commands = randomCommands(3000, 5);
+        assertEquals(TestCommands.output(commands), compactFileSystemOutput(commands));
+    }
+
+    @Test
+    public void testMatchesFileSystemWithManySiblings() {
+        String[] commands = randomCommands(5000, 200);
+        assertEquals(TestCommands.output(commands), compactFileSystemOutput(commands));
+    }
+
+    @Test
+    public void testErrors() {
+        String[] commands = {
+            "CREATE a", "CREATE a", "CREATE b/c", "MOVE a/b a", "MOVE a b", "MOVE a a", "CREATE b", "CREATE a/b",
+            "MOVE b a", "MOVE a/b a", "DELETE a/b/c", "DELETE c", "DELETE a", "DELETE a", "LIST"
+        };
+        assertEquals(TestCommands.output(commands), compactFileSystemOutput(commands));
+    }
+
+    // A directory whose subdirectories were added out of order and then all removed before the next LIST.
+    @Test
+    public void testAllSubdirectoriesRemovedBeforeList() {
+        String[] commands = {
+            "CREATE a", "CREATE a/y", "CREATE a/x", "CREATE b", "MOVE a/x b", "DELETE a/y", "LIST", "FIND *", "COUNT a"
+        };
+        assertEquals(TestCommands.output(commands), compactFileSystemOutput(commands));
+    }
+
+    @Test
+    public void testNamesOutsideLatin1() {
+        String[] commands = { "CREATE \u00e4", "CREATE \u4e2d", "CREATE \u4e2d/\u00e4", "CREATE z", "CREATE a\u4e2d", "LIST" };
+        CompactFileSystem fileSystem = new CompactFileSystem(OutputSink.NULL);
+        for (String command : commands) {
+            fileSystem.executeCommand(command);
+        }
+        assertEquals(5, fileSystem.directoryCount());
+        // The sorted order of Latin-1 and two-byte names must be the same as String's.
+        assertEquals(TestCommands.output(commands), compactFileSystemOutput(commands));
+    }
+
+    @Test
+    public void testDeleteFreesDirectories() {
+        CompactFileSystem fileSystem = new CompactFileSystem(OutputSink.NULL);
+        fileSystem.executeCommand("CREATE a");
+        for (int i = 0; i < 100; i++) {
+            fileSystem.executeCommand("CREATE a/" + i);
+            fileSystem.executeCommand("CREATE a/" + i + "/x");
+        }
+        assertEquals(201, fileSystem.directoryCount());
+        long footprint = fileSystem.memoryFootprint();
+
+        fileSystem.executeCommand("DELETE a");
+        assertEquals(0, fileSystem.directoryCount());
+        // Freed directories are reused, so recreating the tree does not grow the arrays.
+        fileSystem.executeCommand("CREATE a");
+        for (int i = 0; i < 100; i++) {
+            fileSystem.executeCommand("CREATE a/" + i);
+            fileSystem.executeCommand("CREATE a/" + i + "/x");
+        }
+        assertEquals(footprint, fileSystem.memoryFootprint());
+    }
+
+    @Test
+    public void testDeepTree() {
+        StringBuilder path = new StringBuilder("d");
+        CompactFileSystem fileSystem = new CompactFileSystem(OutputSink.NULL);
+        for (int i = 0; i < 10000; i++) {
+            fileSystem.executeCommand("CREATE " + path);
+            path.append("/d");
+        }
+        // Listing and deleting do not recurse, so they work at any depth.
+        fileSystem.executeCommand("LIST");
+        fileSystem.executeCommand("DELETE d");
+        assertEquals(0, fileSystem.directoryCount());
+        assertEquals("LIST" + LINE_SEPARATOR, compactFileSystemOutput("LIST"));
+    }
+}
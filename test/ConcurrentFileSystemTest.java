@@ -0,0 +1,121 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.ConcurrentFileSystem;
+import src.FileSystem;
+import src.OutputSink;
+
+public class ConcurrentFileSystemTest {
+    private static final String[] COMMANDS = {
+        "CREATE fruits",
+        "CREATE vegetables",
+        "CREATE grains",
+        "CREATE fruits/apples",
+        "CREATE fruits/apples/fuji",
+        "LIST",
+        "CREATE grains/squash",
+        "MOVE grains/squash vegetables",
+        "CREATE foods",
+        "MOVE grains foods",
+        "MOVE fruits foods",
+        "MOVE vegetables foods",
+        "MOVE foods foods/fruits",
+        "CREATE foods/fruits",
+        "CREATE foods/fruits/apples/fuji/red",
+        "LIST",
+        "DELETE fruits/apples",
+        "DELETE foods/fruits/apples",
+        "LIST",
+        "COUNT",
+        "DEPTH foods",
+        "COUNT foods/vegetables",
+        "DEPTH foods/grains/squash",
+        "FIND fruits",
+        "FIND *s",
+        "FIND ?u*"
+    };
+
+    @Test
+    public void testSingleThreadMatchesFileSystem() {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(expected))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            for (String command : COMMANDS) {
+                fileSystem.executeCommand(command);
+            }
+        }
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(actual))) {
+            ConcurrentFileSystem fileSystem = new ConcurrentFileSystem(sink, 2);
+            for (String command : COMMANDS) {
+                fileSystem.executeCommand(command);
+            }
+        }
+
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testConcurrentCreatesMovesAndDeletes() throws Exception {
+        int threads = 8;
+        int directoriesPerThread = 200;
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        String listing;
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            ConcurrentFileSystem fileSystem = new ConcurrentFileSystem(sink, 4);
+            fileSystem.executeCommand("CREATE done");
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String top = "t" + t;
+                futures.add(executor.submit(() -> {
+                    fileSystem.executeCommand("CREATE " + top);
+                    for (int i = 0; i < directoriesPerThread; i++) {
+                        fileSystem.executeCommand("CREATE " + top + "/d" + i);
+                        fileSystem.executeCommand("CREATE " + top + "/d" + i + "/leaf");
+                        if (i % 2 == 0) {
+                            fileSystem.executeCommand("DELETE " + top + "/d" + i);
+                        }
+                        if (i % 50 == 0) {
+                            fileSystem.executeCommand("LIST");
+                        }
+                    }
+                    fileSystem.executeCommand("MOVE " + top + " done");
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            sink.flush();
+            int listingStart = content.size();
+            fileSystem.executeCommand("LIST");
+            sink.flush();
+            listing = content.toString().substring(listingStart);
+        }
+
+        assertTrue(!content.toString().contains("Cannot"));
+        String[] lines = listing.split(System.getProperty("line.separator"));
+        assertEquals("LIST", lines[0]);
+        assertEquals("done", lines[1]);
+        assertEquals(2 + threads + threads * directoriesPerThread, lines.length);
+        assertEquals("  t0", lines[2]);
+        assertEquals("    d1", lines[3]);
+        assertEquals("      leaf", lines[4]);
+    }
+}
@@ -0,0 +1,143 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.ConcurrentFileSystem;
+import src.FileSystem;
+import src.FileSystemServer;
+import src.OutputSink;
+
+public class FileSystemServerTest {
+    private FileSystemServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new FileSystemServer(new ConcurrentFileSystem(OutputSink.NULL), new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(server.address().getAddress(), server.address().getPort());
+    }
+
+    private static void send(Socket socket, String... commands) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        for (String command : commands) {
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+    }
+
+    // Reads one response and removes the framing.
+    private static String readResponse(BufferedReader in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        for (String line = in.readLine(); !line.equals("."); line = in.readLine()) {
+            response.append(line.startsWith(".") ? line.substring(1) : line).append(System.lineSeparator());
+        }
+        return response.toString();
+    }
+
+    // Returns the output of each command when executed one by one on a new FileSystem.
+    private static List<String> expectedResponses(String... commands) {
+        List<String> responses = new ArrayList<>();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            for (String command : commands) {
+                fileSystem.executeCommand(command);
+                sink.flush();
+                responses.add(content.toString(StandardCharsets.UTF_8));
+                content.reset();
+            }
+        }
+        return responses;
+    }
+
+    @Test
+    public void testPipelinedCommandsAreAnsweredInOrder() throws IOException {
+        String[] commands = {
+            "CREATE fruits", "CREATE .hidden", "CREATE fruits/..", "CREATE fruits/apples", "LIST", "MOVE fruits/apples .hidden",
+            "CREATE ..", "DELETE vegetables", "MOVE fruits", "LIST", "", "list"
+        };
+        try (Socket socket = connect()) {
+            send(socket, commands);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (String expected : expectedResponses(commands)) {
+                assertEquals(expected, readResponse(in));
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionsShareTheFileSystem() throws Exception {
+        int clientCount = 4;
+        Thread[] clients = new Thread[clientCount];
+        Throwable[] failures = new Throwable[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            int client = i;
+            clients[i] = new Thread(() -> {
+                try (Socket socket = connect()) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    send(socket, "CREATE c" + client);
+                    readResponse(in);
+                    for (int j = 0; j < 200; j++) {
+                        send(socket, "CREATE c" + client + "/d" + j);
+                        assertEquals("CREATE c" + client + "/d" + j + System.lineSeparator(), readResponse(in));
+                    }
+                } catch (Throwable e) {
+                    failures[client] = e;
+                }
+            });
+            clients[i].start();
+        }
+        for (int i = 0; i < clientCount; i++) {
+            clients[i].join();
+            assertNull(failures[i]);
+        }
+
+        try (Socket socket = connect()) {
+            send(socket, "LIST");
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String[] lines = readResponse(in).split(System.lineSeparator());
+            assertEquals(1 + clientCount * 201, lines.length);
+        }
+    }
+
+    @Test
+    public void testShutdownAnswersCommandsAlreadyRead() throws Exception {
+        try (Socket socket = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            send(socket, "CREATE a", "CREATE a/b");
+            assertEquals("CREATE a" + System.lineSeparator(), readResponse(in));
+            assertEquals("CREATE a/b" + System.lineSeparator(), readResponse(in));
+
+            assertTrue(server.shutdown(10, TimeUnit.SECONDS));
+            // The connection was closed after the last response.
+            assertNull(in.readLine());
+        }
+    }
+}
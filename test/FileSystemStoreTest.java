@@ -0,0 +1,244 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.FileSystem;
+import src.FileSystemStore;
+import src.OutputSink;
+import src.SyncPolicy;
+import test.TestCommands.Kind;
+
+public class FileSystemStoreTest {
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("FileSystemStoreTest");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        for (Path file : files(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static final TestCommands.Generator COMMANDS = TestCommands.random(7)
+            .with(Kind.CREATE, 6)
+            .with(Kind.DELETE, 1)
+            .with(Kind.MOVE, 1);
+
+    // Returns the output of LIST on a FileSystem that executed commands.
+    private static String listing(String... commands) {
+        return TestCommands.output(TestCommands.FILE_SYSTEM, commands, "LIST");
+    }
+
+    // Returns the output of LIST on the FileSystem recovered from directory.
+    private String recoveredListing() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             FileSystemStore store = FileSystemStore.open(directory, sink, SyncPolicy.NEVER, 0)) {
+            store.fileSystem().executeCommand("LIST");
+        }
+        return content.toString();
+    }
+
+    private void execute(SyncPolicy policy, long snapshotInterval, String... commands) throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, policy, snapshotInterval)) {
+            for (String command : commands) {
+                store.fileSystem().executeCommand(command);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyDirectory() throws IOException {
+        assertEquals("LIST" + System.getProperty("line.separator"), recoveredListing());
+    }
+
+    @Test
+    public void testRecoverFromLog() throws IOException {
+        String[] commands = COMMANDS.generate(500);
+        execute(SyncPolicy.EVERY_COMMAND, 0, commands);
+        assertEquals(listing(commands), recoveredListing());
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndLog() throws IOException {
+        String[] commands = COMMANDS.generate(1000);
+        execute(SyncPolicy.GROUP_COMMIT, 64, commands);
+        // Older logs and snapshots are deleted once a newer snapshot exists.
+        assertEquals(2, files(directory).size());
+        assertEquals(listing(commands), recoveredListing());
+    }
+
+    @Test
+    public void testRecoverAcrossRestarts() throws IOException {
+        String[] commands = COMMANDS.generate(600);
+        List<String> executed = new ArrayList<>();
+        for (int i = 0; i < commands.length; i += 100) {
+            String[] batch = new String[100];
+            System.arraycopy(commands, i, batch, 0, 100);
+            execute(SyncPolicy.NEVER, 37, batch);
+            for (String command : batch) {
+                executed.add(command);
+            }
+            assertEquals(listing(executed.toArray(new String[0])), recoveredListing());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        execute(SyncPolicy.EVERY_COMMAND, 0, "CREATE a", "CREATE a/b", "CREATE c");
+        for (Path file : files(directory)) {
+            if (file.getFileName().toString().startsWith("wal-")) {
+                // A record whose length was written but whose body was not.
+                Files.write(file, new byte[] { 0, 0, 0, 20, 1, 0 }, StandardOpenOption.APPEND);
+            }
+        }
+        assertEquals(listing("CREATE a", "CREATE a/b", "CREATE c"), recoveredListing());
+
+        // The torn record is truncated away, so changes made after recovery are kept.
+        execute(SyncPolicy.EVERY_COMMAND, 0, "CREATE d");
+        assertEquals(listing("CREATE a", "CREATE a/b", "CREATE c", "CREATE d"), recoveredListing());
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToLog() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0)) {
+            store.fileSystem().executeCommand("CREATE a");
+            store.fileSystem().executeCommand("CREATE b");
+            store.fileSystem().executeCommand("MOVE b a");
+            assertEquals(3, store.sequenceNumber());
+        }
+        // Without a snapshot the recovered store continues the sequence numbers of the log.
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0)) {
+            assertEquals(3, store.sequenceNumber());
+        }
+        Files.write(directory.resolve("snapshot-3.snap"), new byte[] { 1, 2, 3 });
+        assertEquals(listing("CREATE a", "CREATE b", "MOVE b a"), recoveredListing());
+    }
+
+    // sync() returns only once every change is on disk, even while the group commit thread is forcing the same records.
+    @Test
+    public void testSyncDuringGroupCommit() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.GROUP_COMMIT, 0)) {
+            Random random = new Random(8);
+            long deadline = System.nanoTime() + 1_000_000_000L;
+            for (int i = 0; System.nanoTime() < deadline; i++) {
+                store.fileSystem().executeCommand("CREATE d" + i);
+                // Gives the group commit thread a chance to take the change before sync() does.
+                for (long spinUntil = System.nanoTime() + random.nextInt(200_000); System.nanoTime() < spinUntil; ) {
+                    Thread.onSpinWait();
+                }
+                store.sync();
+                assertEquals(store.sequenceNumber(), store.syncedSequenceNumber());
+            }
+        }
+    }
+
+    // A log cut off anywhere in a batch, as by a crash while it was being written, recovers none of the batch.
+    @Test
+    public void testTornBatchIsDropped() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0)) {
+            store.fileSystem().executeCommand("CREATE a");
+            assertEquals(-1, store.fileSystem().executeBatch(Arrays.asList("CREATE b", "CREATE b/c", "MOVE b a", "DELETE a/b/c")));
+        }
+        Path log = directory.resolve("wal-0.log");
+        byte[] bytes = Files.readAllBytes(log);
+        String[] trees = {
+            listing(), listing("CREATE a"), listing("CREATE a", "CREATE b", "CREATE b/c", "MOVE b a", "DELETE a/b/c")
+        };
+        long[] sequenceNumbers = { 0, 1, 5 };
+        int tree = 0;
+        for (int length = 0; length <= bytes.length; length++) {
+            deleteDirectory();
+            createDirectory();
+            Files.write(directory.resolve("wal-0.log"), Arrays.copyOf(bytes, length));
+            String recovered = recoveredListing();
+            while (!recovered.equals(trees[tree])) {
+                // Each longer log recovers the same tree or the next one.
+                tree++;
+                assertEquals(trees[tree], recovered);
+            }
+            try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0)) {
+                assertEquals(sequenceNumbers[tree], store.sequenceNumber());
+            }
+        }
+        assertEquals(2, tree);
+    }
+
+    @Test
+    public void testOnlyCommittedBatchesAreLogged() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0)) {
+            assertEquals(-1, store.fileSystem().executeBatch(Arrays.asList("CREATE a", "CREATE b", "MOVE b a")));
+            assertEquals(2, store.fileSystem().executeBatch(Arrays.asList("CREATE c", "DELETE a/b", "DELETE a/b")));
+            assertEquals(3, store.sequenceNumber());
+        }
+        assertEquals(listing("CREATE a", "CREATE b", "MOVE b a"), recoveredListing());
+    }
+
+    // A snapshot that falls due partway through a committed batch waits for the rest of it to be logged, as the tree
+    // already holds all of it.
+    @Test
+    public void testSnapshotDuringBatch() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 3)) {
+            store.fileSystem().executeCommand("CREATE a");
+            assertEquals(-1, store.fileSystem().executeBatch(Arrays.asList("DELETE a", "CREATE a", "CREATE b", "MOVE b a")));
+            assertEquals(5, store.sequenceNumber());
+        }
+        assertEquals(listing("CREATE a", "CREATE b", "MOVE b a"), recoveredListing());
+    }
+
+    @Test
+    public void testBulkImportIsLogged() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 0);
+             FileSystem.BulkImport bulkImport = store.fileSystem().bulkImport()) {
+            bulkImport.add("a/b/c");
+            bulkImport.add("/a/d");
+            bulkImport.add("e");
+        }
+        assertEquals(listing("CREATE a", "CREATE a/b", "CREATE a/b/c", "CREATE a/d", "CREATE e"), recoveredListing());
+    }
+
+    // A snapshot that falls due while the import is running waits for it to be closed, when the tree holds every
+    // directory logged.
+    @Test
+    public void testSnapshotDuringBulkImport() throws IOException {
+        try (FileSystemStore store = FileSystemStore.open(directory, OutputSink.NULL, SyncPolicy.NEVER, 2);
+             FileSystem.BulkImport bulkImport = store.fileSystem().bulkImport()) {
+            bulkImport.add("a/b");
+            bulkImport.add("a/c");
+            bulkImport.add("d");
+        }
+        assertEquals(listing("CREATE a", "CREATE a/b", "CREATE a/c", "CREATE d"), recoveredListing());
+    }
+}
@@ -1,15 +1,26 @@
 package test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import src.ChannelSink;
+import src.CommandResult;
+import src.CompactFileSystem;
 import src.FileSystem;
+import src.OutputSink;
 
 public class FileSystemTest {
     private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
@@ -92,6 +103,15 @@ public class FileSystemTest {
         assertEquals("Cannot create multiple directories", outContent.toString().split(System.getProperty("line.separator"))[1]);
     }
 
+    @Test
+    public void testCreateSubdirectoryIntermediateDirectoryNotExist() {
+        dir.executeCommand("CREATE test");
+
+        dir.executeCommand("CREATE test/subdirectory/leaf");
+
+        assertEquals("Cannot create test/subdirectory/leaf - test/subdirectory does not exist", outContent.toString().split(System.getProperty("line.separator"))[2]);
+    }
+
     @Test
     public void testListNoDirectories() {
         String command = "LIST";
@@ -114,12 +134,76 @@ public class FileSystemTest {
         assertEquals("  subdirectory", outContent.toString().split(System.getProperty("line.separator"))[4]);
     }
 
+    @Test
+    public void testListAfterChanges() {
+        dir.executeCommand("CREATE test1");
+        dir.executeCommand("CREATE test1/subdirectory");
+        dir.executeCommand("CREATE test1/subdirectory/leaf");
+        dir.executeCommand("CREATE test2");
+        dir.executeCommand("LIST");
+        dir.executeCommand("MOVE test1/subdirectory test2");
+        dir.executeCommand("CREATE test1/other");
+        dir.executeCommand("LIST");
+        dir.executeCommand("DELETE test2/subdirectory/leaf");
+        dir.executeCommand("LIST");
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals("LIST", lines[11]);
+        assertEquals("test1", lines[12]);
+        assertEquals("  other", lines[13]);
+        assertEquals("test2", lines[14]);
+        assertEquals("  subdirectory", lines[15]);
+        assertEquals("    leaf", lines[16]);
+        assertEquals("DELETE test2/subdirectory/leaf", lines[17]);
+        assertEquals("LIST", lines[18]);
+        assertEquals("test1", lines[19]);
+        assertEquals("  other", lines[20]);
+        assertEquals("test2", lines[21]);
+        assertEquals("  subdirectory", lines[22]);
+        assertEquals(23, lines.length);
+    }
+
     @Test
     public void testListSpecificDirectory() {
+        dir.executeCommand("CREATE test");
+        dir.executeCommand("CREATE test/a");
+        dir.executeCommand("CREATE test/a/b");
+        dir.executeCommand("CREATE other");
+        outContent.reset();
         dir.executeCommand("LIST test");
+        dir.executeCommand("LIST missing/a");
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals("LIST test", lines[0]);
+        assertEquals("a", lines[1]);
+        assertEquals("  b", lines[2]);
+        assertEquals("LIST missing/a", lines[3]);
+        assertEquals("Cannot list missing/a - missing does not exist", lines[4]);
+        assertEquals(5, lines.length);
+    }
 
-        assertEquals("LIST test", outContent.toString().split(System.getProperty("line.separator"))[0]);
-        assertEquals("Cannot list specific directories", outContent.toString().split(System.getProperty("line.separator"))[1]);
+    @Test
+    public void testListManySubdirectories() {
+        dir.executeCommand("CREATE test");
+        for (int i = 39; i >= 0; i--) {
+            dir.executeCommand(String.format("CREATE test/%02d", i));
+        }
+        dir.executeCommand("LIST");
+        for (int i = 0; i < 40; i++) {
+            assertEquals(String.format("  %02d", i), outContent.toString().split(System.getProperty("line.separator"))[43 + i]);
+        }
+
+        outContent.reset();
+        for (int i = 0; i < 38; i++) {
+            dir.executeCommand(String.format("DELETE test/%02d", i));
+        }
+        dir.executeCommand("CREATE test/00");
+        dir.executeCommand("LIST");
+        assertEquals("LIST", outContent.toString().split(System.getProperty("line.separator"))[39]);
+        assertEquals("test", outContent.toString().split(System.getProperty("line.separator"))[40]);
+        assertEquals("  00", outContent.toString().split(System.getProperty("line.separator"))[41]);
+        assertEquals("  38", outContent.toString().split(System.getProperty("line.separator"))[42]);
+        assertEquals("  39", outContent.toString().split(System.getProperty("line.separator"))[43]);
     }
 
     @Test
@@ -194,6 +278,50 @@ public class FileSystemTest {
         assertEquals("Cannot move test1/subdirectory to test2 - test2/subdirectory already exists", outContent.toString().split(System.getProperty("line.separator"))[5]);
     }
 
+    @Test
+    public void testMoveNestedSubdirectory() {
+        dir.executeCommand("CREATE test1");
+        dir.executeCommand("CREATE test1/subdirectory");
+        dir.executeCommand("CREATE test1/subdirectory/leaf");
+        dir.executeCommand("CREATE test2");
+
+        dir.executeCommand("MOVE test1/subdirectory/leaf test2");
+        dir.executeCommand("LIST");
+
+        assertEquals("MOVE test1/subdirectory/leaf test2", outContent.toString().split(System.getProperty("line.separator"))[4]);
+        assertEquals("LIST", outContent.toString().split(System.getProperty("line.separator"))[5]);
+        assertEquals("test1", outContent.toString().split(System.getProperty("line.separator"))[6]);
+        assertEquals("  subdirectory", outContent.toString().split(System.getProperty("line.separator"))[7]);
+        assertEquals("test2", outContent.toString().split(System.getProperty("line.separator"))[8]);
+        assertEquals("  leaf", outContent.toString().split(System.getProperty("line.separator"))[9]);
+    }
+
+    @Test
+    public void testMoveDestinationAlreadyContainsSourceKeepsSource() {
+        dir.executeCommand("CREATE test1");
+        dir.executeCommand("CREATE test1/subdirectory");
+        dir.executeCommand("CREATE test2");
+        dir.executeCommand("CREATE test2/subdirectory");
+        dir.executeCommand("MOVE test1/subdirectory test2");
+
+        dir.executeCommand("LIST");
+
+        assertEquals("LIST", outContent.toString().split(System.getProperty("line.separator"))[6]);
+        assertEquals("test1", outContent.toString().split(System.getProperty("line.separator"))[7]);
+        assertEquals("  subdirectory", outContent.toString().split(System.getProperty("line.separator"))[8]);
+    }
+
+    @Test
+    public void testMoveIntoOwnSubdirectory() {
+        dir.executeCommand("CREATE test");
+        dir.executeCommand("CREATE test/subdirectory");
+
+        dir.executeCommand("MOVE test test/subdirectory");
+
+        assertEquals("MOVE test test/subdirectory", outContent.toString().split(System.getProperty("line.separator"))[2]);
+        assertEquals("Cannot move test to test/subdirectory - test/subdirectory is within test", outContent.toString().split(System.getProperty("line.separator"))[3]);
+    }
+
     @Test
     public void testMoveTooManyDirectories() {
         dir.executeCommand("MOVE test1 test2 test3");
@@ -274,6 +402,13 @@ public class FileSystemTest {
         assertEquals("No command given", outContent.toString().split(System.getProperty("line.separator"))[1]);
     }
 
+    @Test
+    public void testWhiteSpaceOnlyCommand() {
+        dir.executeCommand("  ");
+
+        assertEquals("No command given", outContent.toString().split(System.getProperty("line.separator"))[1]);
+    }
+
     @Test
     public void testInvalidCommand() {
         dir.executeCommand("test");
@@ -281,4 +416,426 @@ public class FileSystemTest {
         assertEquals("test", outContent.toString().split(System.getProperty("line.separator"))[0]);
         assertEquals("Cannot execute test - not a valid command", outContent.toString().split(System.getProperty("line.separator"))[1]);
     }
+
+    @Test
+    public void testCountAndDepth() {
+        String[] commands = { "CREATE fruits", "CREATE fruits/apples", "CREATE fruits/apples/fuji", "CREATE fruits/pears", "CREATE grains",
+                "COUNT", "DEPTH", "COUNT fruits", "DEPTH fruits", "COUNT fruits/pears", "DEPTH fruits/pears", "MOVE fruits/apples grains",
+                "COUNT fruits", "DEPTH fruits", "COUNT grains", "DEPTH", "DELETE grains/apples", "COUNT", "DEPTH" };
+        for (String command : commands) {
+            dir.executeCommand(command);
+        }
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        String[] expected = { "COUNT", "5", "DEPTH", "3", "COUNT fruits", "3", "DEPTH fruits", "2", "COUNT fruits/pears", "0",
+                "DEPTH fruits/pears", "0", "MOVE fruits/apples grains", "COUNT fruits", "1", "DEPTH fruits", "1", "COUNT grains", "2",
+                "DEPTH", "3", "DELETE grains/apples", "COUNT", "3", "DEPTH", "2" };
+        assertEquals(Arrays.asList(expected), Arrays.asList(lines).subList(5, lines.length));
+    }
+
+    @Test
+    public void testCountNonexistentDirectory() {
+        dir.executeCommand("CREATE fruits");
+        dir.executeCommand("COUNT fruits/apples/fuji");
+        dir.executeCommand("DEPTH vegetables");
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals("Cannot count fruits/apples/fuji - fruits/apples does not exist", lines[2]);
+        assertEquals("Cannot measure vegetables - vegetables does not exist", lines[4]);
+    }
+
+    @Test
+    public void testCountMultipleDirectories() {
+        dir.executeCommand("COUNT fruits vegetables");
+
+        assertEquals("Cannot count multiple directories", outContent.toString().split(System.getProperty("line.separator"))[1]);
+    }
+
+    @Test
+    public void testFind() {
+        String[] commands = { "CREATE fruits", "CREATE fruits/apples", "CREATE fruits/apples/fuji", "CREATE vegetables",
+                "CREATE vegetables/apples", "CREATE fruits-dried", "CREATE fruits-dried/apples", "CREATE fruits/apricots", "FIND apples",
+                "FIND ap*s", "MOVE fruits/apples vegetables/apples", "DELETE fruits-dried", "FIND app?es", "FIND *", "FIND pears" };
+        for (String command : commands) {
+            dir.executeCommand(command);
+        }
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        String[] expected = { "FIND apples", "fruits/apples", "fruits-dried/apples", "vegetables/apples", "FIND ap*s", "fruits/apples",
+                "fruits/apricots", "fruits-dried/apples", "vegetables/apples", "MOVE fruits/apples vegetables/apples", "DELETE fruits-dried",
+                "FIND app?es", "vegetables/apples", "vegetables/apples/apples", "FIND *", "fruits", "fruits/apricots", "vegetables",
+                "vegetables/apples", "vegetables/apples/apples", "vegetables/apples/apples/fuji", "FIND pears" };
+        assertEquals(Arrays.asList(expected), Arrays.asList(lines).subList(8, lines.length));
+    }
+
+    // The first FIND builds the name index, here in a batch that is rolled back after deleting a directory.
+    @Test
+    public void testFindIndexBuiltInBatch() {
+        dir.executeCommand("CREATE a");
+        dir.executeCommand("CREATE a/b");
+        dir.executeCommand("CREATE c");
+
+        assertEquals(3, dir.executeBatch(Arrays.asList("DELETE a", "CREATE c/b", "FIND b", "CREATE a/x")));
+        outContent.reset();
+        dir.executeCommand("FIND b");
+        dir.executeCommand("DELETE a");
+        dir.executeCommand("FIND b");
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals(Arrays.asList("FIND b", "a/b", "DELETE a", "FIND b"), Arrays.asList(lines));
+    }
+
+    @Test
+    public void testFindNoName() {
+        dir.executeCommand("FIND");
+        dir.executeCommand("FIND apples pears");
+
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals("Cannot find directories - no name given", lines[1]);
+        assertEquals("Cannot find multiple names", lines[3]);
+    }
+
+    @Test
+    public void testBatchCommits() {
+        List<String> batch = Arrays.asList("CREATE a", "CREATE a/b", "LIST", "CREATE c", "MOVE c a/b", "DELETE a/b/c", "LIST");
+
+        assertEquals(-1, dir.executeBatch(batch));
+
+        FileSystem serial = new FileSystem();
+        String batchOutput = outContent.toString();
+        outContent.reset();
+        for (String command : batch) {
+            serial.executeCommand(command);
+        }
+        assertEquals(outContent.toString(), batchOutput);
+    }
+
+    @Test
+    public void testBatchRollsBack() {
+        dir.executeCommand("CREATE fruits");
+        dir.executeCommand("CREATE fruits/apples");
+        dir.executeCommand("CREATE vegetables");
+        dir.executeCommand("LIST");
+        String before = outContent.toString();
+
+        List<String> batch = Arrays.asList("CREATE grains", "MOVE fruits/apples grains", "DELETE vegetables", "CREATE fruits/apples",
+                "LIST", "MOVE grains fruits", "DELETE fruits/grains/apples", "CREATE vegetables", "DELETE potatoes", "CREATE squash");
+
+        assertEquals(8, dir.executeBatch(batch));
+        // Nothing is written for a batch that is rolled back.
+        assertEquals(before, outContent.toString());
+
+        outContent.reset();
+        dir.executeCommand("LIST");
+        String[] lines = outContent.toString().split(System.getProperty("line.separator"));
+        assertEquals(4, lines.length);
+        assertEquals("fruits", lines[1]);
+        assertEquals("  apples", lines[2]);
+        assertEquals("vegetables", lines[3]);
+    }
+
+    @Test
+    public void testBatchStopsAtMalformedCommand() {
+        assertEquals(1, dir.executeBatch(Arrays.asList("CREATE a", "CREATE a b", "CREATE c")));
+        dir.executeCommand("CREATE a");
+
+        assertEquals("CREATE a", outContent.toString().split(System.getProperty("line.separator"))[0]);
+        assertEquals(1, outContent.toString().split(System.getProperty("line.separator")).length);
+    }
+
+    @Test
+    public void testRandomBatchesRollBack() {
+        // With the path cache, so that paths cached during a batch that is rolled back must not be used afterwards.
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem fileSystem = new FileSystem(sink, 64);
+            FileSystem reference = new FileSystem(referenceSink);
+            Random random = new Random(5);
+            for (int round = 0; round < 300; round++) {
+                String[] batch = new String[1 + random.nextInt(20)];
+                for (int i = 0; i < batch.length; i++) {
+                    String path = "d" + random.nextInt(3);
+                    for (int depth = random.nextInt(3); depth > 0; depth--) {
+                        path += "/d" + random.nextInt(3);
+                    }
+                    int kind = random.nextInt(10);
+                    batch[i] = kind == 0 ? "DELETE " + path : kind == 1 ? "MOVE " + path + " d" + random.nextInt(3) : kind == 2 ? "LIST"
+                            : "CREATE " + path;
+                }
+
+                if (fileSystem.executeBatch(Arrays.asList(batch)) < 0) {
+                    for (String command : batch) {
+                        reference.executeCommand(command);
+                    }
+                }
+                assertEquals(listing(reference, referenceSink, referenceContent), listing(fileSystem, sink, content));
+            }
+        }
+    }
+
+    // Returns the output of LIST on fileSystem, which writes to sink.
+    private static String listing(FileSystem fileSystem, OutputSink sink, ByteArrayOutputStream content) {
+        sink.flush();
+        content.reset();
+        fileSystem.executeCommand("LIST");
+        sink.flush();
+        return content.toString();
+    }
+
+    // Paths of a tree with a few wide directories, in depth first order, and the CREATE commands that build it.
+    private static List<String> importPaths(List<String> creates) {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < (i == 2 ? 40 : 3); j++) {
+                for (int k = 0; k < (j == 1 ? 30 : 2); k++) {
+                    paths.add("d" + i + "/e" + (char) ('a' + j % 26) + j + "/f" + k);
+                }
+            }
+        }
+        Collections.sort(paths);
+        for (String path : paths) {
+            String[] segments = path.split("/");
+            String prefix = "";
+            for (String segment : segments) {
+                prefix = prefix.isEmpty() ? segment : prefix + "/" + segment;
+                if (!creates.contains("CREATE " + prefix)) {
+                    creates.add("CREATE " + prefix);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static String listingAfter(FileSystem fileSystem, ByteArrayOutputStream content, OutputSink sink, String... commands) {
+        for (String command : commands) {
+            fileSystem.executeCommand(command);
+        }
+        return listing(fileSystem, sink, content);
+    }
+
+    @Test
+    public void testBulkImport() {
+        List<String> creates = new ArrayList<>();
+        List<String> paths = importPaths(creates);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem reference = new FileSystem(referenceSink);
+            for (String create : creates) {
+                reference.executeCommand(create);
+            }
+
+            FileSystem fileSystem = new FileSystem(sink, 16);
+            try (FileSystem.BulkImport bulkImport = fileSystem.bulkImport()) {
+                for (String path : paths) {
+                    bulkImport.add(path);
+                }
+                assertEquals(creates.size(), bulkImport.created());
+            }
+            assertEquals(listing(reference, referenceSink, referenceContent), listing(fileSystem, sink, content));
+
+            // The imported directories behave like created ones.
+            String[] commands = { "MOVE d2/ez25 d0", "DELETE d2/ea0", "CREATE d2/ea0", "CREATE d2/eb1/f31", "DELETE d2/eb1/f0", "MOVE d3 d2/eb1" };
+            assertEquals(listingAfter(reference, referenceContent, referenceSink, commands), listingAfter(fileSystem, content, sink, commands));
+            for (String path : new String[] { "", " d0", " d2", " d2/eb1", " d2/eb1/d3/eb1" }) {
+                assertEquals(reference.execute("COUNT" + path).directoryCount(), fileSystem.execute("COUNT" + path).directoryCount());
+                assertEquals(reference.execute("DEPTH" + path).depth(), fileSystem.execute("DEPTH" + path).depth());
+            }
+        }
+    }
+
+    @Test
+    public void testBulkImportUnsortedIntoExistingTree() {
+        List<String> creates = new ArrayList<>();
+        List<String> paths = importPaths(creates);
+        Collections.shuffle(paths, new Random(3));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem reference = new FileSystem(referenceSink);
+            FileSystem fileSystem = new FileSystem(sink);
+            String[] existing = { "CREATE d2", "CREATE d2/eb1", "CREATE d2/eb1/f7", "CREATE d9", "LIST" };
+            listingAfter(reference, referenceContent, referenceSink, existing);
+            listingAfter(fileSystem, content, sink, existing);
+            for (String create : creates) {
+                reference.executeCommand(create);
+            }
+
+            try (FileSystem.BulkImport bulkImport = fileSystem.bulkImport()) {
+                bulkImport.add("");
+                for (String path : paths) {
+                    bulkImport.add(path);
+                }
+                assertEquals(creates.size() - 3, bulkImport.created());
+            }
+            assertEquals(listing(reference, referenceSink, referenceContent), listing(fileSystem, sink, content));
+        }
+    }
+
+    // An absolute path from find is imported below the root, and a path with a name that no command could reach fails
+    // without creating anything, not even its parents.
+    @Test
+    public void testBulkImportRejectsUnreachableNames() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem reference = new FileSystem(referenceSink);
+            listingAfter(reference, referenceContent, referenceSink, "CREATE usr", "CREATE usr/lib", "CREATE usr/lib/x", "CREATE a");
+            FileSystem fileSystem = new FileSystem(sink);
+            try (FileSystem.BulkImport bulkImport = fileSystem.bulkImport()) {
+                bulkImport.add("/usr/lib");
+                bulkImport.add("/");
+                String[] invalid = { "a//b", "c d/e", "usr/lib\tx", "//", "/a//b" };
+                String[] messages = {
+                    "Cannot import line 3, a//b - \"\" is not a valid directory name",
+                    "Cannot import line 4, c d/e - \"c d\" is not a valid directory name",
+                    "Cannot import line 5, usr/lib\tx - \"lib\tx\" is not a valid directory name",
+                    "Cannot import line 6, // - \"\" is not a valid directory name",
+                    "Cannot import line 7, /a//b - \"\" is not a valid directory name"
+                };
+                for (int i = 0; i < invalid.length; i++) {
+                    try {
+                        bulkImport.add(invalid[i]);
+                        fail(invalid[i]);
+                    } catch (IllegalArgumentException e) {
+                        assertEquals(messages[i], e.getMessage());
+                    }
+                }
+                bulkImport.add("usr/lib/x");
+                bulkImport.add("a/");
+                assertEquals(4, bulkImport.created());
+            }
+            assertEquals(listing(reference, referenceSink, referenceContent), listing(fileSystem, sink, content));
+            assertEquals(4, fileSystem.execute("COUNT").directoryCount());
+            assertEquals(3, fileSystem.execute("DEPTH").depth());
+        }
+    }
+
+    // FIND through the name index prints the same as CompactFileSystem, which walks the tree, after random changes,
+    // batches that are rolled back, and enough deletes for the index to be swept several times.
+    @Test
+    public void testFindMatchesCompactFileSystem() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        String[] patterns = { "d1", "d*", "*1", "?", "e?1*", "*e*", "x*", "**", "" };
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            CompactFileSystem reference = new CompactFileSystem(referenceSink);
+            Random random = new Random(23);
+            for (int round = 0; round < 300; round++) {
+                String[] batch = new String[1 + random.nextInt(30)];
+                for (int i = 0; i < batch.length; i++) {
+                    String path = "d" + random.nextInt(4);
+                    for (int depth = random.nextInt(5); depth > 0; depth--) {
+                        path += random.nextBoolean() ? "/d" + random.nextInt(4) : "/e" + random.nextInt(12);
+                    }
+                    int kind = random.nextInt(20);
+                    batch[i] = kind < 2 ? "DELETE " + path : kind < 4 ? "MOVE " + path + " d" + random.nextInt(4)
+                            : kind == 4 ? "FIND " + patterns[random.nextInt(patterns.length - 1)] : "CREATE " + path;
+                }
+
+                if (round % 3 != 0) {
+                    for (String command : batch) {
+                        fileSystem.executeCommand(command);
+                        reference.executeCommand(command);
+                    }
+                } else if (fileSystem.executeBatch(Arrays.asList(batch)) < 0) {
+                    for (String command : batch) {
+                        reference.executeCommand(command);
+                    }
+                }
+
+                String find = "FIND " + patterns[round % patterns.length];
+                fileSystem.executeCommand(find);
+                reference.executeCommand(find);
+                sink.flush();
+                referenceSink.flush();
+                assertEquals(find, referenceContent.toString(), content.toString());
+                content.reset();
+                referenceContent.reset();
+            }
+        }
+    }
+
+    // Enough directories are deleted for the name index to be swept, with some deleted ones created again in between.
+    @Test
+    public void testFindAfterManyDeletes() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream referenceContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+             OutputSink referenceSink = new ChannelSink(Channels.newChannel(referenceContent))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            CompactFileSystem reference = new CompactFileSystem(referenceSink);
+            List<String> commands = new ArrayList<>(Arrays.asList("CREATE t", "CREATE u"));
+            for (int i = 0; i < 3000; i++) {
+                commands.add("CREATE t/x" + i);
+                commands.add("CREATE t/x" + i + "/y");
+            }
+            for (int i = 0; i < 3000; i += 2) {
+                commands.add("DELETE t/x" + i);
+                if (i % 10 == 0) {
+                    commands.add("CREATE u/x" + i);
+                    commands.add("FIND y");
+                }
+            }
+            commands.add("MOVE t u");
+            commands.add("FIND x1*");
+            for (String command : commands) {
+                fileSystem.executeCommand(command);
+                reference.executeCommand(command);
+            }
+            sink.flush();
+            referenceSink.flush();
+            assertEquals(referenceContent.toString(), content.toString());
+        }
+    }
+
+    // The counts and depths kept up to date by every change match those of CompactFileSystem, which walks the subtree,
+    // including after batches that are rolled back.
+    @Test
+    public void testAggregatesMatchCompactFileSystem() {
+        FileSystem fileSystem = new FileSystem(OutputSink.NULL, 16);
+        CompactFileSystem reference = new CompactFileSystem(OutputSink.NULL);
+        Random random = new Random(17);
+        List<String> paths = new ArrayList<>();
+        for (int round = 0; round < 400; round++) {
+            String[] batch = new String[1 + random.nextInt(8)];
+            for (int i = 0; i < batch.length; i++) {
+                String path = "d" + random.nextInt(3);
+                for (int depth = random.nextInt(5); depth > 0; depth--) {
+                    path += "/d" + random.nextInt(3);
+                }
+                paths.add(path);
+                int kind = random.nextInt(10);
+                batch[i] = kind < 2 ? "DELETE " + path : kind < 4 ? "MOVE " + path + " " + paths.get(random.nextInt(paths.size())) : "CREATE " + path;
+            }
+
+            if (round % 2 == 0) {
+                for (String command : batch) {
+                    fileSystem.executeCommand(command);
+                    reference.executeCommand(command);
+                }
+            } else if (fileSystem.executeBatch(Arrays.asList(batch)) < 0) {
+                for (String command : batch) {
+                    reference.executeCommand(command);
+                }
+            }
+
+            // The last few paths, and the whole tree.
+            for (int i = paths.size() - 10; i <= paths.size(); i++) {
+                String argument = i < 0 || i == paths.size() ? "" : " " + paths.get(i);
+                CommandResult expected = reference.execute("COUNT" + argument);
+                CommandResult actual = fileSystem.execute("DEPTH" + argument);
+                assertEquals(expected.outcome(), actual.outcome());
+                assertEquals(expected.directoryCount(), actual.directoryCount());
+                assertEquals(expected.depth(), actual.depth());
+            }
+        }
+    }
 }
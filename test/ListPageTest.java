@@ -0,0 +1,178 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.CompactFileSystem;
+import src.ConcurrentFileSystem;
+import src.FileSystem;
+import src.OutputSink;
+import src.SnapshotFileSystem;
+import test.TestCommands.Kind;
+
+public class ListPageTest {
+
+    private static final String SEPARATOR = System.lineSeparator();
+
+    private static final List<Function<OutputSink, Consumer<String>>> IMPLEMENTATIONS = Arrays.asList(
+            sink -> new FileSystem(sink)::executeCommand,
+            sink -> new ConcurrentFileSystem(sink)::executeCommand,
+            sink -> new SnapshotFileSystem(sink)::executeCommand,
+            sink -> new CompactFileSystem(sink)::executeCommand);
+
+    private static final TestCommands.Generator TREE = TestCommands.random(24)
+            .names(5, 4, 4)
+            .with(Kind.CREATE, 9)
+            .with(Kind.DELETE, 1);
+
+    // Returns the lines of a page, without the echoed command and the cursor, and sets cursor[0] to the cursor or null.
+    private static List<String> page(FileSystem fileSystem, ByteArrayOutputStream content, OutputSink sink, String command,
+            String[] cursor) {
+        content.reset();
+        fileSystem.executeCommand(command);
+        sink.flush();
+        List<String> lines = new ArrayList<>(Arrays.asList(content.toString(StandardCharsets.UTF_8).split(SEPARATOR)));
+        assertEquals(command, lines.remove(0));
+        cursor[0] = null;
+        if (!lines.isEmpty() && lines.get(lines.size() - 1).startsWith("AFTER ")) {
+            cursor[0] = lines.remove(lines.size() - 1).substring("AFTER ".length());
+        }
+        return lines;
+    }
+
+    @Test
+    public void testEveryImplementationListsTheSamePages() {
+        String[] setup = TREE.generate(400);
+        String[] pages = {
+            "LIST", "LIST d1", "LIST d1/d2", "LIST d1 DEPTH 1", "LIST DEPTH 2", "LIST LIMIT 5", "LIST d2 LIMIT 3 DEPTH 2",
+            "LIST AFTER d1/d3", "LIST LIMIT 4 AFTER d1/d3/d0", "LIST d0 AFTER d2 LIMIT 2", "LIST AFTER d1/missing/x LIMIT 3",
+            "LIST DEPTH 1 AFTER d2/d3/d1", "LIST AFTER zzz", "LIST missing", "LIST d1/missing DEPTH 1", "LIST DEPTH 0",
+            "LIST d1 DEPTH -1", "LIST LIMIT 99999999999", "LIST d1 LIMIT 1 LIMIT 2", "LIST WIDTH 3", "LIST d1 DEPTH",
+            "LIST d1 d2 d3 d4"
+        };
+        String expected = TestCommands.output(IMPLEMENTATIONS.get(0), setup, pages);
+        for (Function<OutputSink, Consumer<String>> implementation : IMPLEMENTATIONS.subList(1, IMPLEMENTATIONS.size())) {
+            assertEquals(expected, TestCommands.output(implementation, setup, pages));
+        }
+        assertEquals("LIST d1 DEPTH -1" + SEPARATOR + "Cannot list d1 - DEPTH -1 is not a valid option" + SEPARATOR,
+                TestCommands.output(IMPLEMENTATIONS.get(0), setup, "LIST d1 DEPTH -1"));
+        assertEquals("LIST d1 d2 d3 d4" + SEPARATOR + "Cannot list directories - d1 d2 is not a valid option" + SEPARATOR,
+                TestCommands.output(IMPLEMENTATIONS.get(0), setup, "LIST d1 d2 d3 d4"));
+    }
+
+    @Test
+    public void testPageOfADirectory() {
+        String[] setup = {
+            "CREATE fruits", "CREATE fruits/apples", "CREATE fruits/apples/fuji", "CREATE fruits/apples/gala", "CREATE fruits/pears",
+            "CREATE DEPTH", "CREATE DEPTH/1"
+        };
+        String output = TestCommands.output(IMPLEMENTATIONS.get(0), setup, "LIST fruits", "LIST fruits LIMIT 2",
+                "LIST fruits AFTER apples/fuji", "LIST DEPTH", "LIST DEPTH 1");
+        assertEquals(String.join(SEPARATOR,
+                "LIST fruits", "apples", "  fuji", "  gala", "pears",
+                "LIST fruits LIMIT 2", "apples", "  fuji", "AFTER apples/fuji",
+                "LIST fruits AFTER apples/fuji", "  gala", "pears",
+                "LIST DEPTH", "1",
+                "LIST DEPTH 1", "DEPTH", "fruits") + SEPARATOR, output);
+    }
+
+    // Following the cursors from page to page lists every directory once, whatever the page size.
+    @Test
+    public void testPagesAddUpToTheListing() {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            FileSystem fileSystem = new FileSystem(sink);
+            for (String command : TREE.generate(2000)) {
+                fileSystem.executeCommand(command);
+            }
+            sink.flush();
+            String[] cursor = new String[1];
+            for (String scope : new String[] {"", " d3", " d3/d1"}) {
+                for (String depth : new String[] {"", " DEPTH 2"}) {
+                    List<String> listing = page(fileSystem, content, sink, "LIST" + scope + depth, cursor);
+                    assertNull(cursor[0]);
+                    for (int limit : new int[] {1, 7, 100}) {
+                        List<String> paged = new ArrayList<>();
+                        String command = "LIST" + scope + depth + " LIMIT " + limit;
+                        List<String> lines = page(fileSystem, content, sink, command, cursor);
+                        paged.addAll(lines);
+                        while (cursor[0] != null) {
+                            assertEquals(limit, lines.size());
+                            lines = page(fileSystem, content, sink, command + " AFTER " + cursor[0], cursor);
+                            paged.addAll(lines);
+                        }
+                        assertEquals(command, listing, paged);
+                    }
+                }
+            }
+        }
+    }
+
+    // A page starts after its cursor even when the cursor's directory was deleted since the previous page.
+    @Test
+    public void testCursorOfADeletedDirectory() {
+        String[] setup = {"CREATE a", "CREATE a/b", "CREATE a/b/c", "CREATE a/d", "CREATE e"};
+        for (Function<OutputSink, Consumer<String>> implementation : IMPLEMENTATIONS) {
+            assertEquals(String.join(SEPARATOR, "LIST LIMIT 2", "a", "  b", "AFTER a/b", "DELETE a/b",
+                    "LIST LIMIT 2 AFTER a/b", "  d", "e") + SEPARATOR,
+                    TestCommands.output(implementation, setup, "LIST LIMIT 2", "DELETE a/b", "LIST LIMIT 2 AFTER a/b"));
+        }
+    }
+
+    // The listing is not recursive, so a tree far deeper than the stack of a thread can be listed on that thread.
+    @Test
+    public void testDeepTree() throws InterruptedException {
+        int depth = 3000;
+        // x, then y/x, then x/y/x and so on.
+        List<String> setup = new ArrayList<>();
+        setup.add("CREATE x");
+        for (int i = 1; i < depth; i++) {
+            String top = i % 2 == 0 ? "y" : "x";
+            String other = i % 2 == 0 ? "x" : "y";
+            setup.add("CREATE " + other);
+            setup.add("MOVE " + top + " " + other);
+        }
+        String expectedPage = null;
+        for (Function<OutputSink, Consumer<String>> implementation : IMPLEMENTATIONS) {
+            AtomicReference<String> listing = new AtomicReference<>();
+            AtomicReference<String> page = new AtomicReference<>();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(null, () -> {
+                try {
+                    listing.set(TestCommands.output(implementation, setup.toArray(new String[0]), "LIST"));
+                    page.set(TestCommands.output(implementation, setup.toArray(new String[0]),
+                            "LIST y LIMIT 2 AFTER x/y/x/y/x"));
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }, "small stack", 1 << 16);
+            thread.start();
+            thread.join();
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            String[] lines = listing.get().split(SEPARATOR);
+            assertEquals(depth + 1, lines.length);
+            assertEquals(String.format("%" + (depth - 1) * 2 + "s", "") + "x", lines[depth]);
+            if (expectedPage == null) {
+                expectedPage = page.get();
+            }
+            assertEquals(expectedPage, page.get());
+        }
+        assertEquals(String.join(SEPARATOR, "LIST y LIMIT 2 AFTER x/y/x/y/x", "          y", "            x", "AFTER x/y/x/y/x/y/x")
+                + SEPARATOR, expectedPage);
+    }
+}
@@ -0,0 +1,95 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.FileSystem;
+import src.LogCompactor;
+import src.OutputSink;
+import test.TestCommands.Kind;
+
+public class LogCompactorTest {
+
+    private static final TestCommands.Generator COMMANDS = TestCommands.random(23)
+            .names(6, 4, 3)
+            .with(Kind.CREATE, 6)
+            .with(Kind.DELETE, 1)
+            .with(Kind.MOVE, 2)
+            .with(Kind.LIST, 1)
+            .with(Kind.COUNT, 1);
+
+    private static String compact(LogCompactor compactor, boolean leafPaths) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            compactor.writeTo(sink, leafPaths);
+        }
+        return content.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCompactedLogCreatesTheSameTree() {
+        String[] commands = {
+            "CREATE fruits", "CREATE vegetables", "CREATE fruits/apples", "LIST", "CREATE fruits/apples/fuji", "CREATE grains",
+            "MOVE fruits/apples grains", "MOVE grains/apples vegetables", "CREATE tmp", "CREATE tmp/a", "DELETE tmp",
+            "CREATE fruits", "DELETE missing", "FIND apples", "COUNT"
+        };
+        LogCompactor compactor = new LogCompactor();
+        for (String command : commands) {
+            compactor.add(command);
+        }
+        assertEquals(15, compactor.commandCount());
+        assertEquals(5, compactor.directoryCount());
+        String separator = System.lineSeparator();
+        assertEquals("CREATE fruits" + separator + "CREATE grains" + separator + "CREATE vegetables" + separator
+                + "CREATE vegetables/apples" + separator + "CREATE vegetables/apples/fuji" + separator, compact(compactor, false));
+        assertEquals("fruits" + separator + "grains" + separator + "vegetables/apples/fuji" + separator, compact(compactor, true));
+    }
+
+    @Test
+    public void testRandomLogs() {
+        String[] commands = COMMANDS.generate(5000);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(expected))) {
+            FileSystem original = new FileSystem(sink);
+            LogCompactor compactor = new LogCompactor();
+            for (String command : commands) {
+                original.execute(command);
+                compactor.add(command);
+            }
+            sink.flush();
+            expected.reset();
+            original.execute("LIST");
+            sink.flush();
+            String expectedListing = expected.toString(StandardCharsets.UTF_8);
+
+            for (boolean leafPaths : new boolean[] {false, true}) {
+                ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+                try (OutputSink replaySink = new ChannelSink(Channels.newChannel(replayed))) {
+                    FileSystem replay = new FileSystem(replaySink);
+                    String[] lines = compact(compactor, leafPaths).split(System.lineSeparator());
+                    if (leafPaths) {
+                        try (FileSystem.BulkImport bulkImport = replay.bulkImport()) {
+                            for (String line : lines) {
+                                bulkImport.add(line);
+                            }
+                        }
+                    } else {
+                        for (String line : lines) {
+                            assertTrue(replay.execute(line).isSuccess());
+                        }
+                        assertEquals(compactor.directoryCount(), lines.length);
+                    }
+                    replay.execute("LIST");
+                }
+                assertEquals(expectedListing, replayed.toString(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
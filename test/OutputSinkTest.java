@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.AsyncSink;
+import src.ChannelSink;
+import src.FileSystem;
+import src.OutputSink;
+
+public class OutputSinkTest {
+    private static final String[] COMMANDS = {
+        "CREATE fruits",
+        "CREATE fruits/apples",
+        "CREATE fruits/pears",
+        "CREATE vegetables",
+        "MOVE vegetables fruits/apples",
+        "DELETE grains",
+        "LIST"
+    };
+
+    private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+    private final PrintStream originalOut = System.out;
+
+    @Before
+    public void setupTests() {
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @After
+    public void teardownTests() {
+        System.setOut(originalOut);
+    }
+
+    private static void run(FileSystem fileSystem) {
+        for (String command : COMMANDS) {
+            fileSystem.executeCommand(command);
+        }
+    }
+
+    private String expectedOutput() {
+        run(new FileSystem());
+        return outContent.toString();
+    }
+
+    @Test
+    public void testChannelSinkMatchesSystemOut() {
+        ByteArrayOutputStream sinkContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(sinkContent), 16)) {
+            run(new FileSystem(sink));
+        }
+
+        assertEquals(expectedOutput(), sinkContent.toString());
+    }
+
+    @Test
+    public void testAsyncSinkMatchesSystemOut() {
+        ByteArrayOutputStream sinkContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new AsyncSink(Channels.newChannel(sinkContent), 16, 2)) {
+            run(new FileSystem(sink));
+        }
+
+        assertEquals(expectedOutput(), sinkContent.toString());
+    }
+
+    @Test
+    public void testAsyncSinkFlush() {
+        ByteArrayOutputStream sinkContent = new ByteArrayOutputStream();
+        OutputSink sink = new AsyncSink(Channels.newChannel(sinkContent));
+        new FileSystem(sink).executeCommand("LIST");
+
+        sink.flush();
+
+        assertEquals("LIST" + System.lineSeparator(), sinkContent.toString());
+        sink.close();
+    }
+
+    @Test
+    public void testChannelSinkEncodesUtf8() {
+        ByteArrayOutputStream sinkContent = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(sinkContent), 4)) {
+            sink.println("p\u00e4ron \u6728 \ud83c\udf50");
+        }
+
+        assertEquals("p\u00e4ron \u6728 \ud83c\udf50" + System.lineSeparator(), new String(sinkContent.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNullSinkDiscardsOutput() {
+        run(new FileSystem(OutputSink.NULL));
+
+        assertEquals("", outContent.toString());
+    }
+}
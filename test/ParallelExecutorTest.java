@@ -0,0 +1,75 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.ConcurrentFileSystem;
+import src.OutputSink;
+import src.ParallelExecutor;
+import test.TestCommands.Kind;
+
+public class ParallelExecutorTest {
+    // Its worker threads are daemon threads, so the pool does not need to be shut down.
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    // Commands on many top-level directories, with MOVEs between them, LISTs, COUNTs, FINDs and malformed commands mixed in.
+    // Only FIND, and COUNT and DEPTH of the whole tree, are barriers, and a LIST of a directory is not one either.
+    private static String[] randomCommands(int count, int roots) {
+        return TestCommands.random(9)
+                .names(roots, 3, 2)
+                .with(Kind.CREATE, 72)
+                .with(Kind.DELETE, 10)
+                .with(Kind.MOVE, 10)
+                .with(Kind.LIST, 1)
+                .with(Kind.LIST_PAGE, 2)
+                .with(Kind.COUNT, 1)
+                .with(Kind.DEPTH, 1)
+                .with(Kind.FIND, 1)
+                .with(Kind.MALFORMED, 2)
+                .generate(count);
+    }
+
+    private static String parallelOutput(String[] commands, int batchSize) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            ConcurrentFileSystem fileSystem = new ConcurrentFileSystem(OutputSink.NULL);
+            try (ParallelExecutor executor = new ParallelExecutor(fileSystem, sink, pool, batchSize)) {
+                for (String command : commands) {
+                    executor.submit(command);
+                }
+            }
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testOutputMatchesSerialRun() {
+        String[] commands = randomCommands(20000, 50);
+        String expected = TestCommands.output(commands);
+        assertEquals(expected, parallelOutput(commands, ParallelExecutor.DEFAULT_BATCH_SIZE));
+        assertEquals(expected, parallelOutput(commands, 7));
+    }
+
+    @Test
+    public void testFewRoots() {
+        // With only two top-level directories, MOVEs join most commands into one group.
+        String[] commands = randomCommands(5000, 2);
+        assertEquals(TestCommands.output(commands), parallelOutput(commands, 100));
+    }
+
+    @Test
+    public void testSampleCommands() {
+        String[] commands = {
+            "CREATE fruits", "CREATE vegetables", "CREATE grains", "CREATE fruits/apples", "CREATE fruits/apples/fuji", "LIST",
+            "CREATE grains/squash", "MOVE grains/squash vegetables", "CREATE foods", "MOVE grains foods", "MOVE fruits foods",
+            "MOVE vegetables foods", "LIST", "DELETE fruits/apples", "DELETE foods/fruits/apples", "LIST"
+        };
+        assertEquals(TestCommands.output(commands), parallelOutput(commands, 64));
+    }
+}
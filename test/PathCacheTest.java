@@ -0,0 +1,85 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import src.CacheStatistics;
+import src.ChannelSink;
+import src.FileSystem;
+import src.OutputSink;
+
+public class PathCacheTest {
+    private static final String[] COMMANDS = {
+        "CREATE a",
+        "CREATE a/b",
+        "CREATE a/b/c",
+        "CREATE a/b/c/d",
+        "CREATE a/b/c/e",
+        "CREATE x",
+        "MOVE a/b/c x",
+        "CREATE a/b/c",
+        "CREATE a/b/c/f",
+        "CREATE x/c/g",
+        "DELETE x/c",
+        "CREATE x/c/h",
+        "CREATE x/c",
+        "CREATE x/c/i",
+        "MOVE x a/b",
+        "CREATE a/b/x/c/j",
+        "DELETE a/b/c/d",
+        "LIST"
+    };
+
+    private FileSystem fileSystem;
+
+    private String run(int pathCacheCapacity) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            fileSystem = new FileSystem(sink, pathCacheCapacity);
+            for (String command : COMMANDS) {
+                fileSystem.executeCommand(command);
+            }
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testCachedOutputMatchesUncached() {
+        String expected = run(0);
+
+        for (int capacity = 1; capacity <= 8; capacity++) {
+            assertEquals(expected, run(capacity));
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        run(16);
+
+        CacheStatistics statistics = fileSystem.pathCacheStatistics();
+        assertTrue(statistics.hits() > 0);
+        assertTrue(statistics.invalidations() > 0);
+        assertTrue(statistics.size() <= 16);
+    }
+
+    @Test
+    public void testEvictions() {
+        run(1);
+
+        CacheStatistics statistics = fileSystem.pathCacheStatistics();
+        assertTrue(statistics.evictions() > 0);
+        assertEquals(1, statistics.size());
+    }
+
+    @Test
+    public void testDisabledCacheHasNoStatistics() {
+        run(0);
+
+        assertEquals(0, fileSystem.pathCacheStatistics().hits() + fileSystem.pathCacheStatistics().misses());
+    }
+}
@@ -0,0 +1,161 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.ConcurrentFileSystem;
+import src.FileSystemServer;
+import src.OutputSink;
+import src.ShardedFileSystem;
+import test.TestCommands.Kind;
+
+public class ShardedFileSystemTest {
+    private static final int SHARD_COUNT = 3;
+
+    private final List<FileSystemServer> servers = new ArrayList<>();
+
+    @Before
+    public void startShards() throws IOException {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            servers.add(new FileSystemServer(new ConcurrentFileSystem(OutputSink.NULL), new InetSocketAddress("127.0.0.1", 0)));
+        }
+    }
+
+    @After
+    public void stopShards() {
+        for (FileSystemServer server : servers) {
+            server.close();
+        }
+    }
+
+    private List<InetSocketAddress> addresses() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (FileSystemServer server : servers) {
+            addresses.add(server.address());
+        }
+        return addresses;
+    }
+
+    private static String shardedOutput(List<InetSocketAddress> shards, String... commands) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content));
+                ShardedFileSystem fileSystem = new ShardedFileSystem(shards, sink)) {
+            for (String command : commands) {
+                fileSystem.executeCommand(command);
+            }
+        }
+        return content.toString(StandardCharsets.UTF_8);
+    }
+
+    private static final TestCommands.Generator COMMANDS = TestCommands.random(22)
+            .names(8, 3, 3)
+            .with(Kind.CREATE, 5)
+            .with(Kind.DELETE, 1)
+            .with(Kind.MOVE, 2)
+            .with(Kind.LIST, 1)
+            .with(Kind.COUNT, 1)
+            .with(Kind.DEPTH, 1)
+            .with(Kind.FIND, 1)
+            .with(Kind.MALFORMED, 1);
+
+    @Test
+    public void testOutputMatchesFileSystem() throws IOException {
+        String[] commands = {
+            "CREATE fruits", "CREATE vegetables", "CREATE grains", "CREATE fruits/apples", "CREATE fruits/apples/fuji",
+            "CREATE .hidden", "CREATE .hidden/..", "LIST", "CREATE grains/squash", "MOVE grains/squash vegetables",
+            "CREATE foods", "MOVE grains foods", "MOVE fruits foods", "MOVE vegetables foods", "LIST",
+            "DELETE fruits/apples", "DELETE foods/fruits/apples", "COUNT", "DEPTH", "COUNT foods/fruits", "FIND apples",
+            "FIND *s", "LIST", "", "list", "LIST foods", "LIST foods DEPTH 1", "LIST foods LIMIT 2 AFTER fruits", "LIST missing",
+            "LIST LIMIT 2", "LIST LIMIT 2 AFTER foods/fruits", "LIST DEPTH 1 LIMIT 1 AFTER .hidden", "LIST LIMIT 0", "MOVE foods",
+            "CREATE"
+        };
+        assertEquals(TestCommands.output(commands), shardedOutput(addresses(), commands));
+    }
+
+    @Test
+    public void testMovesBetweenShardsFailLikeFileSystem() throws IOException {
+        String[] commands = new String[115];
+        for (int i = 0; i < 50; i++) {
+            commands[i] = "CREATE t" + i;
+        }
+        for (int i = 50; i < 100; i++) {
+            commands[i] = "MOVE t" + (i - 50) + " t" + (i - 49) % 50;
+        }
+        String[] failures = {
+            "CREATE a", "CREATE b", "CREATE c", "CREATE a/x", "CREATE b/x", "CREATE c/x", "CREATE a/x/y",
+            "MOVE a/x b", "MOVE a/x c", "MOVE b/x a", "MOVE c/x a", "MOVE a/z b", "MOVE a/x b/z", "MOVE a/x/y b/x/y", "LIST"
+        };
+        System.arraycopy(failures, 0, commands, 100, failures.length);
+        assertEquals(TestCommands.output(commands), shardedOutput(addresses(), commands));
+    }
+
+    @Test
+    public void testRandomCommandsMatchFileSystem() throws IOException {
+        String[] commands = COMMANDS.generate(3000);
+        assertEquals(TestCommands.output(commands), shardedOutput(addresses(), commands));
+    }
+
+    // Following the cursors of the merged pages lists every directory once.
+    @Test
+    public void testPagesAcrossShards() throws IOException {
+        List<String> commands = new ArrayList<>();
+        for (String command : COMMANDS.generate(1000)) {
+            if (!command.startsWith("LIST")) {
+                commands.add(command);
+            }
+        }
+        String setup = shardedOutput(addresses(), commands.toArray(new String[0]));
+        String listing = shardedOutput(addresses(), "LIST");
+        for (int limit : new int[] {1, 5, 40}) {
+            String paged = "";
+            String cursor = null;
+            do {
+                String command = "LIST LIMIT " + limit + (cursor == null ? "" : " AFTER " + cursor);
+                String page = shardedOutput(addresses(), command);
+                assertEquals(TestCommands.output(concat(commands, command)), setup + page);
+                String[] lines = page.split(System.lineSeparator());
+                cursor = lines[lines.length - 1].startsWith("AFTER ") ? lines[lines.length - 1].substring("AFTER ".length()) : null;
+                for (int i = 1; i < lines.length - (cursor == null ? 0 : 1); i++) {
+                    paged += lines[i] + System.lineSeparator();
+                }
+            } while (cursor != null);
+            assertEquals("LIST" + System.lineSeparator() + paged, listing);
+        }
+    }
+
+    private static String[] concat(List<String> commands, String command) {
+        List<String> all = new ArrayList<>(commands);
+        all.add(command);
+        return all.toArray(new String[0]);
+    }
+
+    // The shards keep their directories when the coordinator disconnects.
+    @Test
+    public void testReconnect() throws IOException {
+        String[] first = {"CREATE fruits", "CREATE vegetables", "CREATE fruits/apples"};
+        String[] second = {"MOVE fruits/apples vegetables", "LIST"};
+        String expected = TestCommands.output("CREATE fruits", "CREATE vegetables", "CREATE fruits/apples",
+                "MOVE fruits/apples vegetables", "LIST");
+        assertEquals(expected, shardedOutput(addresses(), first) + shardedOutput(addresses(), second));
+    }
+
+    @Test
+    public void testLocalShardProcesses() throws IOException {
+        String[] commands = COMMANDS.generate(300);
+        try (ShardedFileSystem.LocalShards shards = new ShardedFileSystem.LocalShards(2)) {
+            assertEquals(TestCommands.output(commands), shardedOutput(shards.addresses(), commands));
+        }
+    }
+}
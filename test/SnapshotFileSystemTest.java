@@ -0,0 +1,101 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import src.ChannelSink;
+import src.OutputSink;
+import src.SnapshotFileSystem;
+import src.TreeSnapshot;
+import test.TestCommands.Kind;
+
+public class SnapshotFileSystemTest {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private static final TestCommands.Generator COMMANDS = TestCommands.random(42)
+            .with(Kind.CREATE, 6)
+            .with(Kind.DELETE, 1)
+            .with(Kind.MOVE, 1)
+            .with(Kind.LIST, 1)
+            .with(Kind.COUNT, 1)
+            .with(Kind.DEPTH, 1)
+            .with(Kind.FIND, 1);
+
+    private static String listing(TreeSnapshot snapshot) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            snapshot.list(sink);
+        }
+        return content.toString();
+    }
+
+    // Executes every line of commands on fileSystem.
+    private static void replay(SnapshotFileSystem fileSystem, String commands) {
+        for (String command : commands.split(LINE_SEPARATOR)) {
+            if (!command.isEmpty()) {
+                fileSystem.executeCommand(command);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesFileSystem() {
+        String[] commands = COMMANDS.generate(2000);
+        assertEquals(TestCommands.output(commands),
+                TestCommands.output(sink -> new SnapshotFileSystem(sink)::executeCommand, commands));
+    }
+
+    @Test
+    public void testSnapshotDoesNotChange() {
+        SnapshotFileSystem fileSystem = new SnapshotFileSystem(OutputSink.NULL);
+        fileSystem.executeCommand("CREATE fruits");
+        fileSystem.executeCommand("CREATE fruits/apples");
+        TreeSnapshot snapshot = fileSystem.snapshot();
+
+        fileSystem.executeCommand("CREATE vegetables");
+        fileSystem.executeCommand("MOVE fruits/apples vegetables");
+        fileSystem.executeCommand("DELETE fruits");
+
+        assertEquals("fruits" + LINE_SEPARATOR + "  apples" + LINE_SEPARATOR, listing(snapshot));
+        assertEquals("vegetables" + LINE_SEPARATOR + "  apples" + LINE_SEPARATOR, listing(fileSystem.snapshot()));
+    }
+
+    @Test
+    public void testExportRebuildsTree() {
+        SnapshotFileSystem fileSystem = new SnapshotFileSystem(OutputSink.NULL);
+        for (String command : COMMANDS.generate(500)) {
+            fileSystem.executeCommand(command);
+        }
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(exported))) {
+            fileSystem.snapshot().export(sink);
+        }
+
+        SnapshotFileSystem rebuilt = new SnapshotFileSystem(OutputSink.NULL);
+        replay(rebuilt, exported.toString());
+
+        assertEquals(listing(fileSystem.snapshot()), listing(rebuilt.snapshot()));
+    }
+
+    @Test
+    public void testDiffTurnsOlderIntoNewer() {
+        String[] commands = COMMANDS.generate(1000);
+        SnapshotFileSystem fileSystem = new SnapshotFileSystem(OutputSink.NULL);
+        SnapshotFileSystem copy = new SnapshotFileSystem(OutputSink.NULL);
+        for (int i = 0; i < commands.length; i++) {
+            TreeSnapshot older = fileSystem.snapshot();
+            fileSystem.executeCommand(commands[i]);
+            ByteArrayOutputStream diff = new ByteArrayOutputStream();
+            try (OutputSink sink = new ChannelSink(Channels.newChannel(diff))) {
+                older.diff(fileSystem.snapshot(), sink);
+            }
+            replay(copy, diff.toString());
+        }
+
+        assertEquals(listing(fileSystem.snapshot()), listing(copy.snapshot()));
+    }
+}
@@ -0,0 +1,172 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import src.ChannelSink;
+import src.FileSystem;
+import src.OutputSink;
+
+// Seeded random command logs, and the output of a file system that executes them, for the tests that compare an
+// implementation with FileSystem or replay what one recorded.
+final class TestCommands {
+
+    // Makes a FileSystem that prints to a sink, as the reference the other implementations are compared with.
+    static final Function<OutputSink, Consumer<String>> FILE_SYSTEM = sink -> new FileSystem(sink)::executeCommand;
+
+    // What a generated command does, where path is a random path and root a random top-level directory.
+    enum Kind {
+        // CREATE path
+        CREATE,
+        // DELETE path
+        DELETE,
+        // MOVE path root, or MOVE path root/name
+        MOVE,
+        // LIST of the whole tree
+        LIST,
+        // LIST path, or LIST path LIMIT 2
+        LIST_PAGE,
+        // COUNT of the whole tree or of path
+        COUNT,
+        // DEPTH of the whole tree or of path
+        DEPTH,
+        // FIND of a name, or of a pattern with ? or *
+        FIND,
+        // CREATE with two paths, MOVE with one, or a command that does not exist
+        MALFORMED
+    }
+
+    private TestCommands() {
+    }
+
+    // Returns a generator of commands from a Random seeded with seed. Its names and command mix are set on it.
+    static Generator random(long seed) {
+        return new Generator(seed);
+    }
+
+    static final class Generator {
+        private final long seed;
+        private int roots = 4;
+        private int names = 4;
+        private int maxDepth = 2;
+        private final Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+        private int totalWeight;
+
+        private Generator(long seed) {
+            this.seed = seed;
+        }
+
+        // Paths are a top-level directory d0 to d<roots - 1> followed by up to maxDepth subdirectories d0 to
+        // d<names - 1>. Few names make most commands clash with directories that exist.
+        Generator names(int roots, int names, int maxDepth) {
+            this.roots = roots;
+            this.names = names;
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        // Makes commands of kind weight times as likely as those of a kind of weight 1.
+        Generator with(Kind kind, int weight) {
+            totalWeight += weight - weights.getOrDefault(kind, 0);
+            weights.put(kind, weight);
+            return this;
+        }
+
+        // Returns count commands, which are the same on every call.
+        String[] generate(int count) {
+            Random random = new Random(seed);
+            String[] commands = new String[count];
+            for (int i = 0; i < count; i++) {
+                String path = "d" + random.nextInt(roots);
+                for (int depth = random.nextInt(maxDepth + 1); depth > 0; depth--) {
+                    path += "/d" + random.nextInt(names);
+                }
+                commands[i] = command(random, kind(random), path);
+            }
+            return commands;
+        }
+
+        private Kind kind(Random random) {
+            int pick = random.nextInt(totalWeight);
+            for (Map.Entry<Kind, Integer> weight : weights.entrySet()) {
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    return weight.getKey();
+                }
+            }
+            throw new IllegalStateException("No command kinds");
+        }
+
+        private String command(Random random, Kind kind, String path) {
+            switch (kind) {
+                case DELETE:
+                    return "DELETE " + path;
+                case MOVE: {
+                    String target = "d" + random.nextInt(roots);
+                    return "MOVE " + path + " " + (random.nextBoolean() ? target : target + "/d" + random.nextInt(names));
+                }
+                case LIST:
+                    return "LIST";
+                case LIST_PAGE:
+                    return "LIST " + path + (random.nextBoolean() ? "" : " LIMIT 2");
+                case COUNT:
+                    return random.nextBoolean() ? "COUNT" : "COUNT " + path;
+                case DEPTH:
+                    return random.nextBoolean() ? "DEPTH" : "DEPTH " + path;
+                case FIND:
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            return "FIND d" + random.nextInt(names);
+                        case 1:
+                            return "FIND d?";
+                        default:
+                            return "FIND *" + random.nextInt(names);
+                    }
+                case MALFORMED:
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            return "CREATE " + path + " " + path;
+                        case 1:
+                            return "MOVE " + path;
+                        default:
+                            return "REMOVE " + path;
+                    }
+                default:
+                    return "CREATE " + path;
+            }
+        }
+    }
+
+    // Returns what a FileSystem prints for commands.
+    static String output(String... commands) {
+        return output(FILE_SYSTEM, commands);
+    }
+
+    // Returns what the file system that fileSystem makes prints for commands.
+    static String output(Function<OutputSink, Consumer<String>> fileSystem, String[] commands) {
+        return output(fileSystem, new String[0], commands);
+    }
+
+    // Returns what the file system that fileSystem makes prints for commands, after it executed setup.
+    static String output(Function<OutputSink, Consumer<String>> fileSystem, String[] setup, String... commands) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (OutputSink sink = new ChannelSink(Channels.newChannel(content))) {
+            Consumer<String> executor = fileSystem.apply(sink);
+            for (String command : setup) {
+                executor.accept(command);
+            }
+            sink.flush();
+            content.reset();
+            for (String command : commands) {
+                executor.accept(command);
+            }
+        }
+        return content.toString(StandardCharsets.UTF_8);
+    }
+}